@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.bench;
+
+import play.Play;
+import play.jobs.Job;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>Starts the Play! application in 'bench/app', with an in-memory H2 database and Sesame MemoryStore, which the
+ * benchmarks run against, and runs benchmarked code inside a Play! invocation so it pays the same per-request
+ * plugin costs a controller would.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class BenchApplication {
+
+	/**
+	 * System property with the path of the benchmark application
+	 */
+	public static final String APP_PATH = "imperium.bench.app";
+
+	/**
+	 * No instances
+	 */
+	private BenchApplication() {
+	}
+
+	/**
+	 * Start the application, if it is not already started in this JVM
+	 */
+	public static synchronized void start() {
+		if (!Play.started) {
+			Play.init(new File(System.getProperty(APP_PATH, "bench/app")).getAbsoluteFile(), "bench");
+			Play.start();
+		}
+	}
+
+	/**
+	 * Stop the application
+	 */
+	public static synchronized void stop() {
+		if (Play.started) {
+			Play.stop();
+		}
+	}
+
+	/**
+	 * Run the callable inside a Play! invocation, with its own JPA and Empire transactions
+	 * @param theCallable the code to run
+	 * @param <T> the type of the result
+	 * @return the result of the callable
+	 */
+	public static <T> T inInvocation(final Callable<T> theCallable) {
+		final Object[] aError = new Object[1];
+
+		T aResult = new Job<T>() {
+			@Override
+			public T doJobWithResult() throws Exception {
+				return theCallable.call();
+			}
+
+			@Override
+			public void onException(final Throwable theError) {
+				aError[0] = theError;
+
+				super.onException(theError);
+			}
+		}.call();
+
+		if (aError[0] != null) {
+			// a benchmark which silently fails measures nothing
+			throw new IllegalStateException("Benchmark invocation failed", (Throwable) aError[0]);
+		}
+
+		return aResult;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.bench;
+
+import com.clarkparsia.empire.annotation.Namespaces;
+import com.clarkparsia.empire.annotation.RdfProperty;
+import com.clarkparsia.empire.annotation.RdfsClass;
+
+import com.clarkparsia.play.imperium.models.EmpireModel;
+
+import javax.persistence.Entity;
+import javax.persistence.ManyToMany;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>EmpireModel used by the benchmarks, with a multi-valued relation for {@link EmpireModel#edit} to resolve.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+@Entity
+@Namespaces({"dc", "http://purl.org/dc/elements/1.1/"})
+@RdfsClass("dc:Document")
+public class BenchDocument extends EmpireModel {
+
+	@RdfProperty("dc:title")
+	public String title;
+
+	@ManyToMany
+	@RdfProperty("dc:subject")
+	public List<BenchTag> tags = new ArrayList<BenchTag>();
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public <T extends EmpireModel> Collection<T> all() {
+		// not used by the benchmarks
+		return Collections.emptyList();
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.bench;
+
+import com.clarkparsia.empire.annotation.Namespaces;
+import com.clarkparsia.empire.annotation.RdfProperty;
+import com.clarkparsia.empire.annotation.RdfsClass;
+
+import com.clarkparsia.play.imperium.models.EmpireModel;
+
+import javax.persistence.Entity;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * <p>EmpireModel used by the benchmarks as the target of {@link BenchDocument#tags}.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+@Entity
+@Namespaces({"skos", "http://www.w3.org/2004/02/skos/core#"})
+@RdfsClass("skos:Concept")
+public class BenchTag extends EmpireModel {
+
+	@RdfProperty("skos:prefLabel")
+	public String label;
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public <T extends EmpireModel> Collection<T> all() {
+		// not used by the benchmarks
+		return Collections.emptyList();
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.bench;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * <p>Runs the Imperium benchmarks at each of the thread counts in 'bench.threads' and compares the scores with a
+ * saved baseline, reporting any benchmark which got slower by more than 'bench.tolerance' percent.  With
+ * 'bench.saveBaseline' set to true the scores are saved as the new baseline instead.  The raw JMH results of each
+ * run are written as JSON to the 'bench.results' directory.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class BenchmarkRunner {
+
+	/**
+	 * No instances
+	 */
+	private BenchmarkRunner() {
+	}
+
+	public static void main(final String[] theArgs) throws Exception {
+		String aInclude = System.getProperty("bench.include", BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+		File aResultsDir = new File(System.getProperty("bench.results", "bench/results"));
+		File aBaselineFile = new File(System.getProperty("bench.baseline", "bench/baseline.properties"));
+		boolean aSaveBaseline = Boolean.getBoolean("bench.saveBaseline");
+		double aTolerance = Double.parseDouble(System.getProperty("bench.tolerance", "10"));
+
+		aResultsDir.mkdirs();
+
+		Properties aScores = new Properties();
+
+		for (String aThreadCount : System.getProperty("bench.threads", "1,4,16").split(",")) {
+			int aThreads = Integer.parseInt(aThreadCount.trim());
+
+			OptionsBuilder aBuilder = new OptionsBuilder();
+
+			if (aThreads > 1) {
+				// a sync is a single background job, running several at once is not a meaningful measurement
+				aBuilder.exclude(SyncJobBenchmark.class.getName());
+			}
+
+			Options aOptions = aBuilder
+					.include(aInclude)
+					.threads(aThreads)
+					.jvmArgsAppend("-D" + BenchApplication.APP_PATH + "=" + System.getProperty(BenchApplication.APP_PATH, "bench/app"))
+					.resultFormat(ResultFormatType.JSON)
+					.result(new File(aResultsDir, "results-" + aThreads + "-threads.json").getPath())
+					.build();
+
+			Collection<RunResult> aResults = new Runner(aOptions).run();
+
+			for (RunResult aResult : aResults) {
+				aScores.setProperty(key(aResult.getParams()), String.valueOf(aResult.getPrimaryResult().getScore()));
+			}
+		}
+
+		if (aSaveBaseline) {
+			store(aScores, aBaselineFile);
+
+			System.out.println("Saved baseline to " + aBaselineFile);
+		}
+		else if (aBaselineFile.exists()) {
+			if (compare(load(aBaselineFile), aScores, aTolerance)) {
+				System.exit(1);
+			}
+		}
+		else {
+			System.out.println("No baseline at " + aBaselineFile + ", run with -Dbench.saveBaseline=true to save one");
+		}
+	}
+
+	/**
+	 * Print the change of each score against the baseline
+	 * @param theBaseline the baseline scores
+	 * @param theScores the new scores
+	 * @param theTolerance the percentage a score can grow by before it is reported as a regression
+	 * @return true if any benchmark regressed, false otherwise
+	 */
+	private static boolean compare(final Properties theBaseline, final Properties theScores, final double theTolerance) {
+		boolean aRegressed = false;
+
+		for (String aKey : new TreeSet<String>(theScores.stringPropertyNames())) {
+			double aScore = Double.parseDouble(theScores.getProperty(aKey));
+
+			if (!theBaseline.containsKey(aKey)) {
+				System.out.println(String.format("%-100s %12.3f  (new)", aKey, aScore));
+				continue;
+			}
+
+			double aBase = Double.parseDouble(theBaseline.getProperty(aKey));
+			double aChange = aBase == 0 ? 0 : (aScore - aBase) * 100 / aBase;
+
+			// every benchmark measures time per operation, so a higher score is worse
+			boolean isRegression = aChange > theTolerance;
+			aRegressed |= isRegression;
+
+			System.out.println(String.format("%-100s %12.3f %+8.1f%%%s", aKey, aScore, aChange, isRegression ? "  REGRESSION" : ""));
+		}
+
+		return aRegressed;
+	}
+
+	/**
+	 * Return the key a result is recorded under: the benchmark, its parameters and its thread count
+	 * @param theParams the parameters of the run
+	 * @return the key
+	 */
+	private static String key(final BenchmarkParams theParams) {
+		StringBuffer aKey = new StringBuffer(theParams.getBenchmark());
+
+		for (String aParam : new TreeSet<String>(theParams.getParamsKeys())) {
+			aKey.append(",").append(aParam).append("=").append(theParams.getParam(aParam));
+		}
+
+		return aKey.append(",threads=").append(theParams.getThreads()).toString();
+	}
+
+	private static Properties load(final File theFile) throws IOException {
+		Properties aProps = new Properties();
+		InputStream aIn = new FileInputStream(theFile);
+
+		try {
+			aProps.load(aIn);
+		}
+		finally {
+			aIn.close();
+		}
+
+		return aProps;
+	}
+
+	private static void store(final Properties theProps, final File theFile) throws IOException {
+		OutputStream aOut = new FileOutputStream(theFile);
+
+		try {
+			theProps.store(aOut, "Imperium benchmark baseline");
+		}
+		finally {
+			aOut.close();
+		}
+	}
+}
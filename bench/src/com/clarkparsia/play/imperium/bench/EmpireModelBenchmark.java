@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.bench;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Cost of {@link com.clarkparsia.play.imperium.models.EmpireModel#save} and
+ * {@link com.clarkparsia.play.imperium.models.EmpireModel#edit}, where the edit binds a relation to every one of
+ * 'entityCount' existing entities.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EmpireModelBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int entityCount;
+
+	private String[] mTagIds;
+
+	@Setup
+	public void setUp() {
+		BenchApplication.start();
+
+		mTagIds = BenchApplication.inInvocation(new Callable<String[]>() {
+			public String[] call() {
+				List<String> aIds = Lists.newArrayList();
+
+				for (int i = 0; i < entityCount; i++) {
+					BenchTag aTag = new BenchTag();
+					aTag.label = "tag " + i;
+					aTag.save();
+
+					aIds.add(aTag.getRdfId().value().toString());
+				}
+
+				return aIds.toArray(new String[aIds.size()]);
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchApplication.stop();
+	}
+
+	@Benchmark
+	public BenchDocument save() {
+		return BenchApplication.inInvocation(new Callable<BenchDocument>() {
+			public BenchDocument call() {
+				BenchDocument aDoc = new BenchDocument();
+				aDoc.title = "document";
+
+				return aDoc.save();
+			}
+		});
+	}
+
+	@Benchmark
+	public BenchDocument edit() {
+		return BenchApplication.inInvocation(new Callable<BenchDocument>() {
+			public BenchDocument call() {
+				Map<String, String[]> aParams = Maps.newHashMap();
+				aParams.put("doc.title", new String[] { "edited" });
+				aParams.put("doc.tags@id", mTagIds);
+
+				return new BenchDocument().edit("doc", aParams);
+			}
+		});
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.bench;
+
+import com.clarkparsia.play.imperium.Imperium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.persistence.EntityManager;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Cost of acquiring an Empire EntityManager, and its transaction, through {@link Imperium#em} in an invocation,
+ * compared with an invocation which does not use Empire at all.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EntityManagerBenchmark {
+
+	@Setup
+	public void setUp() {
+		BenchApplication.start();
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchApplication.stop();
+	}
+
+	@Benchmark
+	public Object emptyInvocation() {
+		return BenchApplication.inInvocation(new Callable<Object>() {
+			public Object call() {
+				return null;
+			}
+		});
+	}
+
+	@Benchmark
+	public EntityManager acquire() {
+		return BenchApplication.inInvocation(new Callable<EntityManager>() {
+			public EntityManager call() {
+				return Imperium.em();
+			}
+		});
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.bench;
+
+import play.db.jpa.JPA;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Cost of {@link com.clarkparsia.play.imperium.models.RdfModel#save}, which writes to both the relational and the
+ * RDF database, for new and existing models, with 'entityCount' models already stored.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RdfModelBenchmark {
+
+	@Param({"10", "1000", "10000"})
+	public int entityCount;
+
+	private final AtomicLong mNext = new AtomicLong();
+
+	@Setup
+	public void setUp() {
+		BenchApplication.start();
+
+		BenchApplication.inInvocation(new Callable<Object>() {
+			public Object call() {
+				for (int i = 0; i < entityCount; i++) {
+					BenchPerson aPerson = new BenchPerson();
+					aPerson.name = "person " + i;
+					aPerson.save();
+				}
+
+				return null;
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchApplication.stop();
+	}
+
+	@Benchmark
+	public BenchPerson insert() {
+		return BenchApplication.inInvocation(new Callable<BenchPerson>() {
+			public BenchPerson call() {
+				BenchPerson aPerson = new BenchPerson();
+				aPerson.name = "new person";
+
+				return aPerson.save();
+			}
+		});
+	}
+
+	@Benchmark
+	public BenchPerson update() {
+		return BenchApplication.inInvocation(new Callable<BenchPerson>() {
+			public BenchPerson call() {
+				// ids are assigned from 1 by the in-memory database, cycle through the models stored by setUp
+				BenchPerson aPerson = JPA.em().find(BenchPerson.class, 1 + mNext.getAndIncrement() % entityCount);
+				aPerson.email = "person" + aPerson.getId() + "@example.org";
+
+				return aPerson.save();
+			}
+		});
+	}
+}
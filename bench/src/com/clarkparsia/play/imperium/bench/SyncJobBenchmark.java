@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.bench;
+
+import com.clarkparsia.play.imperium.jobs.SyncJob;
+import com.clarkparsia.play.imperium.models.SyncLogEntry;
+
+import play.db.jpa.JPA;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Cost of a full {@link SyncJob} of 'entityCount' models, and of replaying an outbox with an entry for each of
+ * them.  Each run is a single shot, since a run changes the state the next one would see.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Threads(1)
+@Fork(1)
+public class SyncJobBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int entityCount;
+
+	@Setup
+	public void setUp() {
+		BenchApplication.start();
+
+		BenchApplication.inInvocation(new Callable<Object>() {
+			public Object call() {
+				for (int i = 0; i < entityCount; i++) {
+					BenchPerson aPerson = new BenchPerson();
+					aPerson.name = "person " + i;
+					aPerson.save();
+				}
+
+				return null;
+			}
+		});
+	}
+
+	@Setup(Level.Invocation)
+	public void fillOutbox() {
+		BenchApplication.inInvocation(new Callable<Object>() {
+			public Object call() {
+				List<BenchPerson> aPeople = JPA.em().createQuery("select p from BenchPerson p").getResultList();
+
+				for (BenchPerson aPerson : aPeople) {
+					SyncLogEntry.record(aPerson, SyncLogEntry.Operation.SAVE);
+				}
+
+				return null;
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchApplication.stop();
+	}
+
+	@Benchmark
+	public void fullSync() {
+		new SyncJob(true).call();
+	}
+
+	@Benchmark
+	public void replay() {
+		new SyncJob().call();
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * <p>Build time tool which writes the Empire annotation index of a set of compiled classes: for each annotation
+ * found on a class, the classes which have it.  Given the index, Empire reads the entity classes from it when it
+ * starts instead of having to find them itself.  Classes are loaded without being initialized; classes which cannot
+ * be loaded are left out of the index.</p>
+ *
+ * <p>Usage: <code>AnnotationIndexer &lt;index file&gt; &lt;class directories and jars&gt;...</code></p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class AnnotationIndexer {
+
+	/**
+	 * The name of the index file Imperium looks for in the conf directory of the application
+	 */
+	public static final String DEFAULT_FILE = "empire.annotation.index";
+
+	/**
+	 * No instances
+	 */
+	private AnnotationIndexer() {
+	}
+
+	/**
+	 * Write the annotation index of the classes in the given directories and jars
+	 * @param theArgs the index file to write, followed by the directories and jars
+	 * @throws Exception if the classes cannot be read or the index cannot be written
+	 */
+	public static void main(final String[] theArgs) throws Exception {
+		if (theArgs.length < 2) {
+			System.err.println("Usage: AnnotationIndexer <index file> <class directories and jars>...");
+			System.exit(1);
+		}
+
+		List<File> aLocations = Lists.newArrayList();
+
+		for (int i = 1; i < theArgs.length; i++) {
+			for (String aPath : theArgs[i].split(File.pathSeparator)) {
+				if (aPath.length() > 0) {
+					aLocations.add(new File(aPath));
+				}
+			}
+		}
+
+		Map<String, Set<String>> aIndex = index(aLocations);
+
+		Properties aProperties = new Properties();
+
+		for (Map.Entry<String, Set<String>> aEntry : aIndex.entrySet()) {
+			aProperties.setProperty(aEntry.getKey(), Joiner.on(",").join(aEntry.getValue()));
+		}
+
+		File aFile = new File(theArgs[0]);
+
+		if (aFile.getParentFile() != null) {
+			aFile.getParentFile().mkdirs();
+		}
+
+		OutputStream aOut = new FileOutputStream(aFile);
+
+		try {
+			aProperties.store(aOut, "Empire annotation index, generated by " + AnnotationIndexer.class.getName());
+		}
+		finally {
+			aOut.close();
+		}
+
+		System.out.println("Indexed " + aIndex.size() + " annotations to " + aFile);
+	}
+
+	/**
+	 * Return the annotation index of the classes in the given directories and jars
+	 * @param theLocations the directories and jars
+	 * @return the names of the classes with each annotation, keyed by the name of the annotation, in name order
+	 * @throws IOException if there is an error reading the classes
+	 */
+	public static Map<String, Set<String>> index(final List<File> theLocations) throws IOException {
+		URL[] aURLs = new URL[theLocations.size()];
+
+		for (int i = 0; i < aURLs.length; i++) {
+			aURLs[i] = theLocations.get(i).toURI().toURL();
+		}
+
+		ClassLoader aLoader = new URLClassLoader(aURLs, AnnotationIndexer.class.getClassLoader());
+
+		Map<String, Set<String>> aIndex = Maps.newTreeMap();
+
+		for (File aLocation : theLocations) {
+			for (String aClassName : classNames(aLocation)) {
+				Class<?> aClass;
+
+				try {
+					aClass = Class.forName(aClassName, false, aLoader);
+				}
+				catch (Throwable e) {
+					System.err.println("Skipping " + aClassName + ": " + e);
+					continue;
+				}
+
+				if (aClass.isAnnotation()) {
+					continue;
+				}
+
+				for (Annotation aAnnotation : aClass.getDeclaredAnnotations()) {
+					String aName = aAnnotation.annotationType().getName();
+
+					if (!aIndex.containsKey(aName)) {
+						aIndex.put(aName, Sets.<String>newTreeSet());
+					}
+
+					aIndex.get(aName).add(aClassName);
+				}
+			}
+		}
+
+		return aIndex;
+	}
+
+	/**
+	 * Return the names of the classes in a directory or jar
+	 * @param theLocation the directory or jar
+	 * @return the class names
+	 * @throws IOException if there is an error reading the jar
+	 */
+	private static List<String> classNames(final File theLocation) throws IOException {
+		List<String> aNames = Lists.newArrayList();
+
+		if (theLocation.isDirectory()) {
+			addClassNames(theLocation, "", aNames);
+		}
+		else if (theLocation.isFile()) {
+			JarFile aJar = new JarFile(theLocation);
+
+			try {
+				Enumeration<JarEntry> aEntries = aJar.entries();
+
+				while (aEntries.hasMoreElements()) {
+					String aName = aEntries.nextElement().getName();
+
+					if (aName.endsWith(".class")) {
+						aNames.add(aName.substring(0, aName.length() - 6).replace('/', '.'));
+					}
+				}
+			}
+			finally {
+				aJar.close();
+			}
+		}
+
+		return aNames;
+	}
+
+	/**
+	 * Add the names of the classes in a directory, and its sub-directories, to a list
+	 * @param theDir the directory
+	 * @param thePackage the package of the classes in the directory, with a trailing dot, or the empty string
+	 * @param theNames the list to add the class names to
+	 */
+	private static void addClassNames(final File theDir, final String thePackage, final List<String> theNames) {
+		File[] aFiles = theDir.listFiles();
+
+		if (aFiles == null) {
+			return;
+		}
+
+		for (File aFile : aFiles) {
+			if (aFile.isDirectory()) {
+				addClassNames(aFile, thePackage + aFile.getName() + ".", theNames);
+			}
+			else if (aFile.getName().endsWith(".class")) {
+				theNames.add(thePackage + aFile.getName().substring(0, aFile.getName().length() - 6));
+			}
+		}
+	}
+}
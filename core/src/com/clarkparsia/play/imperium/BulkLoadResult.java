@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+/**
+ * <p>The outcome of an {@link Imperium#bulkLoad bulk load}: how much was written, and how quickly.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class BulkLoadResult {
+
+	/**
+	 * The number of entities written
+	 */
+	private final long mEntities;
+
+	/**
+	 * The number of statements added to the data source
+	 */
+	private final long mStatements;
+
+	/**
+	 * How long the load took, in milliseconds
+	 */
+	private final long mElapsed;
+
+	BulkLoadResult(final long theEntities, final long theStatements, final long theElapsed) {
+		mEntities = theEntities;
+		mStatements = theStatements;
+		mElapsed = theElapsed;
+	}
+
+	/**
+	 * Return the number of entities written
+	 * @return the number of entities
+	 */
+	public long getEntityCount() {
+		return mEntities;
+	}
+
+	/**
+	 * Return the number of statements added to the data source
+	 * @return the number of statements
+	 */
+	public long getStatementCount() {
+		return mStatements;
+	}
+
+	/**
+	 * Return how long the load took
+	 * @return the elapsed time, in milliseconds
+	 */
+	public long getElapsed() {
+		return mElapsed;
+	}
+
+	/**
+	 * Return the number of entities written per second
+	 * @return the throughput
+	 */
+	public double getThroughput() {
+		return mElapsed == 0 ? mEntities : mEntities * 1000d / mElapsed;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d entities (%d statements) in %d ms, %.1f entities/s", mEntities, mStatements, mElapsed, getThroughput());
+	}
+}
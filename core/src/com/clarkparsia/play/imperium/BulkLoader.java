@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.annotation.RdfGenerator;
+import com.clarkparsia.empire.ds.MutableDataSource;
+import com.clarkparsia.empire.ds.SupportsNamedGraphs;
+import com.clarkparsia.empire.util.EmpireUtil;
+
+import com.clarkparsia.openrdf.ExtGraph;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.openrdf.model.Resource;
+
+import javax.persistence.EntityManager;
+
+import play.db.jpa.JPA;
+import play.db.jpa.JPASupport;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Writes a large number of entities to the RDF database a chunk at a time.  The entities of a chunk are converted
+ * to RDF in parallel, unless they are attached to the JPA session of the calling thread, which only that thread can
+ * use, and their statements sent with a single add, without the per-entity existence checks and cascades of the
+ * {@link EntityManager}.  Only one chunk of entities and statements is held at once, so the input can be a lazily
+ * loaded sequence of any size.  Entities of classes kept in a {@link ModelGraphs named graph} of their own
+ * are added to that graph; entities with instance level named graphs go through the entity manager one at a time.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+final class BulkLoader {
+
+	/**
+	 * Configuration property for the number of entities written at a time
+	 */
+	static final String CHUNK_SIZE = "bulk.chunkSize";
+
+	/**
+	 * Configuration property for the number of threads converting entities to RDF
+	 */
+	static final String THREADS = "bulk.threads";
+
+	/**
+	 * The threads converting entities to RDF, shared by every load, or null when not started
+	 */
+	private static ExecutorService mExecutor;
+
+	/**
+	 * The number of threads of the executor
+	 */
+	private static int mThreads;
+
+	/**
+	 * The entity manager whose data source is written to
+	 */
+	private final EntityManager mManager;
+
+	/**
+	 * Whether or not the existing statements about each entity are removed before it is written
+	 */
+	private final boolean mReplace;
+
+	private long mEntities = 0;
+	private long mStatements = 0;
+
+	/**
+	 * Create a new BulkLoader
+	 * @param theManager the entity manager whose data source is written to
+	 * @param theReplace true to remove the statements already in the data source about each entity before writing it,
+	 * false if the entities are known not to be in the data source
+	 */
+	BulkLoader(final EntityManager theManager, final boolean theReplace) {
+		mManager = theManager;
+		mReplace = theReplace;
+	}
+
+	/**
+	 * Start the threads converting entities to RDF, if they are not already running
+	 */
+	static synchronized void start() {
+		if (mExecutor != null) {
+			return;
+		}
+
+		mThreads = Math.max(1, EmpirePlugin.getIntProperty(THREADS, Runtime.getRuntime().availableProcessors()));
+
+		mExecutor = Executors.newFixedThreadPool(mThreads, new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			public Thread newThread(final Runnable theRunnable) {
+				Thread aThread = new Thread(theRunnable, "imperium-bulk-load-" + mCount.getAndIncrement());
+				aThread.setDaemon(true);
+
+				return aThread;
+			}
+		});
+	}
+
+	/**
+	 * Stop the threads converting entities to RDF; loads still running are left to finish what they were given
+	 */
+	static synchronized void shutdown() {
+		if (mExecutor != null) {
+			mExecutor.shutdown();
+			mExecutor = null;
+		}
+	}
+
+	/**
+	 * Write the entities to the data source
+	 * @param theObjects the entities to write
+	 * @return the outcome of the load
+	 * @throws Exception if there is an error converting an entity to RDF or writing to the data source
+	 */
+	BulkLoadResult load(final Iterable<?> theObjects) throws Exception {
+		long aStart = System.currentTimeMillis();
+
+		ExecutorService aExecutor;
+		int aThreads;
+
+		synchronized (BulkLoader.class) {
+			start();
+
+			aExecutor = mExecutor;
+			aThreads = mThreads;
+		}
+
+		for (List<?> aChunk : Iterables.partition(theObjects, Math.max(1, EmpirePlugin.getIntProperty(CHUNK_SIZE, 1000)))) {
+			write(aChunk, aExecutor, aThreads);
+		}
+
+		return new BulkLoadResult(mEntities, mStatements, System.currentTimeMillis() - aStart);
+	}
+
+	/**
+	 * Write a chunk of entities
+	 * @param theChunk the entities
+	 * @param theExecutor the executor converting the entities to RDF
+	 * @param theThreads the number of threads of the executor
+	 * @throws Exception if there is an error converting an entity to RDF or writing to the data source
+	 */
+	private void write(final List<?> theChunk, final ExecutorService theExecutor, final int theThreads) throws Exception {
+		MutableDataSource aSource = (MutableDataSource) mManager.getDelegate();
+
+		// the entities to write directly, grouped by the named graph of their class, null for the default graph
+		Map<URI, List<Object>> aEntities = Maps.newLinkedHashMap();
+
+		for (Object aObj : theChunk) {
+			Imperium.invalidate(aObj);
+			EntitySnapshots.forget(aObj);
+
+			if (EmpireUtil.hasNamedGraphSpecified(aObj) && !ModelGraphs.isPartitioned(aObj.getClass(), aSource)) {
+				// the statements would lose their graph, these go through the entity manager
+				if (mReplace) {
+					try {
+						mManager.remove(aObj);
+					}
+					catch (IllegalArgumentException e) {
+						// if it doesn't exist, that's ok, we were removing it anyway
+					}
+				}
+
+				mManager.persist(aObj);
+
+				mEntities++;
+			}
+			else {
+				URI aGraph = ModelGraphs.isPartitioned(aObj.getClass(), aSource) ? ModelGraphs.graphOf(aObj.getClass()) : null;
+
+				List<Object> aGraphEntities = aEntities.get(aGraph);
+
+				if (aGraphEntities == null) {
+					aGraphEntities = Lists.newArrayList();
+					aEntities.put(aGraph, aGraphEntities);
+				}
+
+				aGraphEntities.add(aObj);
+			}
+		}
+
+		for (Map.Entry<URI, List<Object>> aGraphEntities : aEntities.entrySet()) {
+			write(aSource, aGraphEntities.getKey(), aGraphEntities.getValue(), theExecutor, theThreads);
+		}
+	}
+
+	/**
+	 * Write entities which all go in the same graph with a single add
+	 * @param theSource the data source to write to
+	 * @param theGraph the named graph of the entities, or null for the default graph
+	 * @param theEntities the entities
+	 * @param theExecutor the executor converting the entities to RDF
+	 * @param theThreads the number of threads of the executor
+	 * @throws Exception if there is an error converting an entity to RDF or writing to the data source
+	 */
+	private void write(final MutableDataSource theSource, final URI theGraph, final List<Object> theEntities,
+					   final ExecutorService theExecutor, final int theThreads) throws Exception {
+		ExtGraph aGraph = new ExtGraph();
+		List<Resource> aIds = Lists.newArrayList();
+
+		if (isJpaManaged(theEntities)) {
+			// converting these reads their lazy relations through the jpa session of this thread, which cannot be
+			// used from any other thread
+			Converted aConverted = new Convert(theEntities).call();
+
+			aGraph.addAll(aConverted.mGraph);
+			aIds.addAll(aConverted.mIds);
+		}
+		else {
+			List<Future<Converted>> aResults = Lists.newArrayList();
+
+			for (List<Object> aSlice : Lists.partition(theEntities, (theEntities.size() + theThreads - 1) / theThreads)) {
+				aResults.add(theExecutor.submit(new Convert(aSlice)));
+			}
+
+			for (Future<Converted> aResult : aResults) {
+				try {
+					aGraph.addAll(aResult.get().mGraph);
+					aIds.addAll(aResult.get().mIds);
+				}
+				catch (ExecutionException e) {
+					throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				}
+			}
+		}
+
+		if (mReplace) {
+			for (List<Resource> aBatch : Iterables.partition(aIds, Imperium.BATCH_SIZE)) {
+				ExtGraph aExisting = RdfQueries.describe(theSource, theGraph, aBatch);
+
+				if (aExisting.isEmpty()) {
+					continue;
+				}
+
+				if (theGraph != null) {
+					((SupportsNamedGraphs) theSource).remove(theGraph, aExisting);
+				}
+				else {
+					theSource.remove(aExisting);
+				}
+			}
+		}
+
+		if (theGraph != null) {
+			((SupportsNamedGraphs) theSource).add(theGraph, aGraph);
+		}
+		else {
+			theSource.add(aGraph);
+		}
+
+		mEntities += theEntities.size();
+		mStatements += aGraph.size();
+	}
+
+	/**
+	 * Return whether or not any of the entities is attached to the JPA entity manager of the current thread
+	 * @param theEntities the entities
+	 * @return true if one of them is managed by JPA, false otherwise
+	 */
+	private static boolean isJpaManaged(final List<Object> theEntities) {
+		if (!JPA.isEnabled() || JPA.local.get() == null) {
+			return false;
+		}
+
+		for (Object aObj : theEntities) {
+			if (aObj instanceof JPASupport && JPA.em().contains(aObj)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Converts a slice of a chunk to RDF
+	 */
+	private static class Convert implements Callable<Converted> {
+		private final List<Object> mEntities;
+
+		private Convert(final List<Object> theEntities) {
+			mEntities = theEntities;
+		}
+
+		public Converted call() throws Exception {
+			Converted aConverted = new Converted();
+
+			for (Object aObj : mEntities) {
+				if (Imperium.isReadOnly(aObj.getClass())) {
+					throw new ImperiumException("Cannot write " + aObj + ", " + aObj.getClass().getSimpleName() + " is read-only", null);
+				}
+
+				// assigns the rdf:ID if the entity does not have one yet
+				aConverted.mIds.add(RdfGenerator.id(aObj));
+				aConverted.mGraph.addAll(RdfGenerator.asRdf(aObj));
+			}
+
+			return aConverted;
+		}
+	}
+
+	/**
+	 * The RDF of a slice of a chunk
+	 */
+	private static class Converted {
+		private final ExtGraph mGraph = new ExtGraph();
+		private final List<Resource> mIds = Lists.newArrayList();
+	}
+}
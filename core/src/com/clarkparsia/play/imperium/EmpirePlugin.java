@@ -18,6 +18,25 @@ package com.clarkparsia.play.imperium;
 import play.Play;
 import play.PlayPlugin;
 import play.classloading.ApplicationClassloader;
+import play.jobs.JobsPlugin;
+import play.libs.Time;
+import play.mvc.Http;
+import play.vfs.VirtualFile;
+
+import com.clarkparsia.play.imperium.annotations.ReadOnly;
+import com.clarkparsia.play.imperium.jobs.CommitJournal;
+import com.clarkparsia.play.imperium.jobs.ConsistencyVerifier;
+import com.clarkparsia.play.imperium.jobs.SyncJob;
+import com.clarkparsia.play.imperium.jobs.SyncProgress;
+import com.clarkparsia.play.imperium.jobs.SyncScheduler;
+import com.clarkparsia.play.imperium.jobs.WriteBehindQueue;
+import com.clarkparsia.play.imperium.metrics.Metrics;
+import com.clarkparsia.play.imperium.models.ModelMetadata;
+import com.clarkparsia.play.imperium.models.RdfModel;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 import java.util.Map;
 import java.util.HashMap;
@@ -27,6 +46,11 @@ import java.util.Collections;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import com.clarkparsia.empire.Empire;
 import com.clarkparsia.empire.EmpireException;
@@ -34,6 +58,7 @@ import com.clarkparsia.empire.config.EmpireConfiguration;
 import com.clarkparsia.empire.config.ConfigKeys;
 import com.clarkparsia.empire.config.io.ConfigReader;
 import com.clarkparsia.empire.config.io.impl.PropertiesConfigReader;
+import com.clarkparsia.empire.util.PropertiesAnnotationProvider;
 import com.clarkparsia.empire.config.io.impl.XmlConfigReader;
 import com.clarkparsia.empire.util.EmpireModule;
 import com.clarkparsia.empire.util.DefaultEmpireModule;
@@ -54,6 +79,94 @@ public class EmpirePlugin extends PlayPlugin {
 
 	public static boolean AUTO_TX = System.getProperty("imperium.autotx") != null ? System.getProperty("imperium.autotx").equalsIgnoreCase("true") : true;
 
+	/**
+	 * Configuration property to buffer the RDF writes of a transaction and send them when it commits
+	 */
+	public static final String BATCH_WRITES = "writes.batch";
+
+	/**
+	 * Configuration property to initialize Empire the first time it is used rather than when the application starts
+	 */
+	public static final String LAZY = "lazy";
+
+	/**
+	 * Configuration property to treat every GET request as a read-only invocation
+	 */
+	public static final String READ_ONLY_GET = "readonly.get";
+
+	/**
+	 * Whether or not the current thread is running a Play! invocation
+	 */
+	private static ThreadLocal<Boolean> mInvocation = new ThreadLocal<Boolean>();
+
+	/**
+	 * Whether or not the Play! invocation running on the current thread is read-only
+	 */
+	private static ThreadLocal<Boolean> mReadOnly = new ThreadLocal<Boolean>();
+
+	/**
+	 * Whether or not the Play! invocation running on the current thread has failed
+	 */
+	private static ThreadLocal<Boolean> mFailed = new ThreadLocal<Boolean>();
+
+	/**
+	 * Periodically closes entity managers left idle in the pool
+	 */
+	private static ScheduledFuture<?> mEvictor;
+
+	/**
+	 * Periodically checks, and repairs, the consistency of the relational and RDF databases
+	 */
+	private static ScheduledFuture<?> mVerifier;
+
+	/**
+	 * Whether or not Empire has been initialized since the application last started
+	 */
+	private static volatile boolean mBootstrapped = false;
+
+	/**
+	 * The 'empire.' prefixed properties of the application configuration, without the prefix
+	 */
+	private static Map<String, String> mConfig = Collections.emptyMap();
+
+	/**
+	 * Return the value of an 'empire.' prefixed configuration property
+	 * @param theKey the name of the property, without the 'empire.' prefix
+	 * @param theDefault the value to use if the property is not set
+	 * @return the property value
+	 */
+	public static String getProperty(final String theKey, final String theDefault) {
+		String aValue = mConfig.get(theKey);
+
+		return aValue == null ? theDefault : aValue.trim();
+	}
+
+	/**
+	 * Return the value of an 'empire.' prefixed configuration property as a boolean
+	 * @param theKey the name of the property, without the 'empire.' prefix
+	 * @param theDefault the value to use if the property is not set
+	 * @return the property value
+	 */
+	public static boolean getBooleanProperty(final String theKey, final boolean theDefault) {
+		return Boolean.valueOf(getProperty(theKey, String.valueOf(theDefault)));
+	}
+
+	/**
+	 * Return the value of an 'empire.' prefixed configuration property as an int
+	 * @param theKey the name of the property, without the 'empire.' prefix
+	 * @param theDefault the value to use if the property is not set or is not a number
+	 * @return the property value
+	 */
+	public static int getIntProperty(final String theKey, final int theDefault) {
+		try {
+			return Integer.parseInt(getProperty(theKey, String.valueOf(theDefault)));
+		}
+		catch (NumberFormatException e) {
+			play.Logger.warn("Invalid value for empire.%s, using %s", theKey, theDefault);
+			return theDefault;
+		}
+	}
+
 	/**
 	 * @inheritDoc
 	 */
@@ -64,6 +177,15 @@ public class EmpirePlugin extends PlayPlugin {
 
 		Thread.currentThread().setContextClassLoader(Play.classloader);
 
+		// entity managers created by a previous start are bound to the old Empire configuration, and cached
+		// entities and model metadata to the old classes
+		EntityManagerPool.clear();
+		EntityCache.clear();
+		QueryCache.clear();
+		EntitySnapshots.clear();
+		ModelMetadata.clear();
+		ModelGraphs.clear();
+
 		Map<String, String> aConfig = new HashMap<String, String>();
 
 		for (Object aObj : Play.configuration.keySet()) {
@@ -74,6 +196,45 @@ public class EmpirePlugin extends PlayPlugin {
 			}
 		}
 
+		mConfig = aConfig;
+
+		Metrics.start();
+
+		// the bulk load threads of a previous start were sized by the old configuration
+		BulkLoader.shutdown();
+		BulkLoader.start();
+
+		mBootstrapped = false;
+
+		if (!getBooleanProperty(LAZY, false)) {
+			bootstrap();
+		}
+	}
+
+	/**
+	 * Make sure Empire has been initialized from the application configuration.  Unless 'empire.lazy' is true, this
+	 * is done when the application starts; otherwise it is done the first time Empire is used, so that starting, or
+	 * reloading, an application which does not use Empire straight away does not wait for it.
+	 */
+	public static void bootstrap() {
+		if (!mBootstrapped) {
+			synchronized (EmpirePlugin.class) {
+				if (!mBootstrapped) {
+					initEmpire();
+
+					mBootstrapped = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Initialize Empire: load the support modules, read the Empire configuration, and initialize Empire and the
+	 * read replica with them
+	 */
+	private static void initEmpire() {
+		Map<String, String> aConfig = mConfig;
+
 		Collection<EmpireModule> aModules = new ArrayList<EmpireModule>();
 
 		if (aConfig.containsKey("support")) {
@@ -98,13 +259,32 @@ public class EmpirePlugin extends PlayPlugin {
 		}
 
 		Map<String, String> aGlobalConfig = new HashMap<String, String>();
-//		aGlobalConfig.put(ConfigKeys.ANNOTATION_INDEX, "empire.config");
+
+		String aIndex = annotationIndex();
+
+		if (aIndex != null) {
+			aGlobalConfig.put(ConfigKeys.ANNOTATION_INDEX, aIndex);
+		}
 
 		EmpireConfiguration aEmpireConfig = DefaultEmpireModule.readConfiguration();
 
 		if (aEmpireConfig == null) {
-			aEmpireConfig = new EmpireConfiguration(aGlobalConfig,
-													Collections.singletonMap("imperium", aConfig));
+			Map<String, Map<String, String>> aUnits = new HashMap<String, Map<String, String>>();
+			Map<String, String> aReplicaConfig = new HashMap<String, String>();
+
+			for (Map.Entry<String, String> aEntry : aConfig.entrySet()) {
+				if (aEntry.getKey().startsWith(ReadReplica.PREFIX)) {
+					aReplicaConfig.put(aEntry.getKey().substring(ReadReplica.PREFIX.length()), aEntry.getValue());
+				}
+			}
+
+			aUnits.put("imperium", aConfig);
+
+			if (!aReplicaConfig.isEmpty()) {
+				aUnits.put(ReadReplica.UNIT, aReplicaConfig);
+			}
+
+			aEmpireConfig = new EmpireConfiguration(aGlobalConfig, aUnits);
 
 			try {
 				if (Play.configuration.containsKey("empire.config")) {
@@ -131,8 +311,99 @@ public class EmpirePlugin extends PlayPlugin {
 			}
 		}
 
+		if (aIndex != null) {
+			if (!aEmpireConfig.getGlobalConfig().containsKey(ConfigKeys.ANNOTATION_INDEX)) {
+				aEmpireConfig.getGlobalConfig().put(ConfigKeys.ANNOTATION_INDEX, aIndex);
+			}
+
+			// read the entity classes from the index instead of looking for them
+			aEmpireConfig.setAnnotationProvider(PropertiesAnnotationProvider.class);
+		}
+
 		Empire.init(aEmpireConfig,
 					aModules.toArray(new EmpireModule[aModules.size()]));
+
+		ReadReplica.configure(aEmpireConfig);
+	}
+
+	/**
+	 * Return the path of the precomputed Empire annotation index of the application, either the file named by
+	 * 'empire.annotation.index', or 'conf/empire.annotation.index' if the application has one
+	 * @return the path of the index, or null if there is none
+	 */
+	private static String annotationIndex() {
+		if (mConfig.containsKey(ConfigKeys.ANNOTATION_INDEX)) {
+			return mConfig.get(ConfigKeys.ANNOTATION_INDEX);
+		}
+
+		VirtualFile aIndex = Play.getVirtualFile("conf/" + AnnotationIndexer.DEFAULT_FILE);
+
+		return aIndex != null && aIndex.exists() ? aIndex.getRealFile().getAbsolutePath() : null;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void afterApplicationStart() {
+		// replay any rdf writes left in the outbox by a previous run of the application, and finish any full sync
+		// it was in the middle of
+		SyncJob.schedule();
+		SyncJob.resumeFullSync();
+
+		if (mEvictor == null) {
+			mEvictor = JobsPlugin.executor.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					EntityManagerPool.evictIdle();
+				}
+			}, 1, 1, TimeUnit.MINUTES);
+		}
+
+		if (mVerifier == null && getProperty(ConsistencyVerifier.EVERY, null) != null) {
+			int aEvery = Time.parseDuration(getProperty(ConsistencyVerifier.EVERY, null));
+
+			mVerifier = JobsPlugin.executor.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					new ConsistencyVerifier(true).now();
+				}
+			}, aEvery, aEvery, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getStatus() {
+		StringWriter aStatus = new StringWriter();
+		PrintWriter aOut = new PrintWriter(aStatus);
+
+		aOut.println("Imperium:");
+		aOut.println("~~~~~~~~~");
+		aOut.println("Live entity managers: " + Imperium.getLiveCount());
+		aOut.println("Idle entity managers: " + Imperium.getIdleCount());
+		aOut.println("Entity cache size: " + EntityCache.size());
+		aOut.println("Entity cache hits/misses: " + EntityCache.getHitCount() + "/" + EntityCache.getMissCount());
+		aOut.println("Query cache size: " + QueryCache.size());
+		aOut.println("Query cache hits/misses: " + QueryCache.getHitCount() + "/" + QueryCache.getMissCount());
+		aOut.println("Write-behind queue depth: " + WriteBehindQueue.getDepth());
+		aOut.println("Write-behind lag (ms): " + WriteBehindQueue.getLag());
+		aOut.println("Sync: " + SyncScheduler.getState());
+
+		try {
+			SyncProgress aProgress = SyncJob.getProgress();
+
+			aOut.println("Full sync: " + (aProgress == null ? "never run" : aProgress));
+		}
+		catch (RuntimeException e) {
+			aOut.println("Full sync: unknown, " + e.getMessage());
+		}
+
+		aOut.println("Consistency: " + (ConsistencyVerifier.getLastReport() == null ? "not checked" : ConsistencyVerifier.getLastReport()));
+
+		aOut.flush();
+
+		return aStatus.toString();
 	}
 
 	/**
@@ -140,9 +411,28 @@ public class EmpirePlugin extends PlayPlugin {
 	 */
     @Override
     public void beforeInvocation() {
-        startTx();
+		// the entity manager, and its transaction, are created when Imperium.em() is first used by the invocation
+		mInvocation.set(Boolean.TRUE);
+
+		Http.Request aRequest = Http.Request.current();
+
+		if (aRequest != null && "GET".equalsIgnoreCase(aRequest.method) && getBooleanProperty(READ_ONLY_GET, false)) {
+			mReadOnly.set(Boolean.TRUE);
+		}
+
+		Metrics.beginRequest(aRequest != null ? aRequest.method + " " + aRequest.path : "Job");
     }
 
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void beforeActionInvocation(final Method theAction) {
+		if (theAction.isAnnotationPresent(ReadOnly.class) || theAction.getDeclaringClass().isAnnotationPresent(ReadOnly.class)) {
+			mReadOnly.set(Boolean.TRUE);
+		}
+	}
+
 	/**
 	 * @inheritDoc
 	 */
@@ -165,6 +455,7 @@ public class EmpirePlugin extends PlayPlugin {
     @Override
     public void onInvocationException(Throwable e) {
 		e.printStackTrace();
+		mFailed.set(Boolean.TRUE);
         closeTx(true);
     }
 
@@ -173,20 +464,95 @@ public class EmpirePlugin extends PlayPlugin {
 	 */
     @Override
     public void invocationFinally() {
-        closeTx(true);
+		boolean aSucceeded = mFailed.get() == null;
+
+		try {
+			closeTx(true);
+		}
+		finally {
+			// always give the entity manager back, the thread may be pooled or never used again
+			Imperium.close();
+			mInvocation.remove();
+			mReadOnly.remove();
+			mFailed.remove();
+
+			Metrics.endRequest();
+
+			try {
+				if (aSucceeded) {
+					// the invocation, and its JPA transaction, completed, hand its rdf writes to the write-behind
+					// workers and apply the writes it journaled
+					WriteBehindQueue.publish();
+					CommitJournal.apply();
+				}
+			}
+			finally {
+				// whatever was not handed on was rolled back with the invocation, and must not leak into the next
+				// one run by this thread
+				WriteBehindQueue.discard();
+				CommitJournal.discard();
+			}
+		}
     }
 
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void onApplicationStop() {
+		if (mEvictor != null) {
+			mEvictor.cancel(false);
+			mEvictor = null;
+		}
+
+		if (mVerifier != null) {
+			mVerifier.cancel(false);
+			mVerifier = null;
+		}
+
+		WriteBehindQueue.shutdown();
+		SyncScheduler.reset();
+		BulkLoader.shutdown();
+
+		EntityManagerPool.clear();
+		ReadReplica.clear();
+
+		Metrics.stop();
+	}
+
+	/**
+	 * Return whether or not the current thread is running a Play! invocation
+	 * @return true if an invocation is running, false otherwise
+	 */
+	public static boolean isInvocationActive() {
+		return mInvocation.get() != null;
+	}
+
+	/**
+	 * Return whether or not the current thread is running a read-only Play! invocation, either an action annotated
+	 * with {@link ReadOnly}, or a GET request when 'empire.readonly.get' is true.  Read-only invocations do not begin
+	 * a transaction, cannot save or delete anything, and read from the {@link ReadReplica} if there is one.
+	 * @return true if the invocation is read-only, false otherwise
+	 */
+	public static boolean isReadOnly() {
+		return mReadOnly.get() != null;
+	}
+
     /**
      * Start a transaction
      */
     public static void startTx() {
         if (AUTO_TX) {
+			long aStart = Metrics.now();
+
 			if (Imperium.em().getTransaction() != null && Imperium.em().getTransaction().isActive()) {
 				Imperium.em().joinTransaction();
 			}
 			else {
             	Imperium.em().getTransaction().begin();
 			}
+
+			Metrics.record(Metrics.Operation.BEGIN, null, aStart);
         }
     }
 
@@ -195,7 +561,8 @@ public class EmpirePlugin extends PlayPlugin {
      * @param theRollback if current transaction be committed (false) or cancelled (true)
      */
     public static void closeTx(boolean theRollback) {
-        if (Imperium.get() == null) {
+        if (!Imperium.isInitialized()) {
+			// nothing used Empire during this invocation
             return;
         }
 
@@ -203,16 +570,32 @@ public class EmpirePlugin extends PlayPlugin {
 
 		if (AUTO_TX) {
 			if (aManager.getTransaction().isActive()) {
+				long aStart = Metrics.now();
+
 				if (theRollback || aManager.getTransaction().getRollbackOnly()) {
+					Imperium.get().discardWrites();
+
 					aManager.getTransaction().rollback();
+
+					Metrics.record(Metrics.Operation.ROLLBACK, null, aStart);
+				}
+				else if (flushWrites(aManager)) {
+					// the rdf writes could not be sent, and the transaction was rolled back instead
+					Metrics.record(Metrics.Operation.ROLLBACK, null, aStart);
 				}
 				else {
 					try {
 						if (AUTO_TX) {
 							aManager.getTransaction().commit();
 						}
+
+						Imperium.get().writesCommitted();
+
+						Metrics.record(Metrics.Operation.COMMIT, null, aStart);
 					}
 					catch (Throwable e) {
+						Metrics.event(Metrics.Event.COMMIT_FAILED);
+
 						for (int i = 0; i < 10; i++) {
 							if (e instanceof PersistenceException && e.getCause() != null) {
 								e = e.getCause();
@@ -230,4 +613,40 @@ public class EmpirePlugin extends PlayPlugin {
 			}
 		}
 	}
+
+	/**
+	 * Send the writes buffered during the current transaction to the RDF database.  If they cannot be sent, the
+	 * transaction is rolled back and the writes of any {@link RdfModel} are recorded in the sync outbox; the commit
+	 * only fails if writes of RDF-only models were lost.
+	 * @param theManager the current entity manager
+	 * @return true if the writes could not be sent and the transaction was rolled back, false if it can be committed
+	 */
+	private static boolean flushWrites(final EntityManager theManager) {
+		Collection<Object> aSaved = Imperium.get().bufferedEntities(false);
+		Collection<Object> aRemoved = Imperium.get().bufferedEntities(true);
+
+		try {
+			Imperium.get().flushWrites();
+		}
+		catch (PersistenceException e) {
+			play.Logger.error(e, "Could not write buffered changes to the RDF database");
+
+			Metrics.event(Metrics.Event.COMMIT_FAILED);
+
+			Imperium.get().discardWrites();
+
+			theManager.getTransaction().rollback();
+
+			SyncJob.recordFailures(Lists.newArrayList(Iterables.filter(aSaved, RdfModel.class)),
+								   Lists.newArrayList(Iterables.filter(aRemoved, RdfModel.class)));
+
+			if (!Iterables.all(Iterables.concat(aSaved, aRemoved), Predicates.instanceOf(RdfModel.class))) {
+				throw new ImperiumException("Cannot commit", e.getCause());
+			}
+
+			return true;
+		}
+
+		return false;
+	}
 }
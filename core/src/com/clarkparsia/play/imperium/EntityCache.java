@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.SupportsRdfId;
+import com.clarkparsia.empire.util.EmpireUtil;
+
+import com.clarkparsia.play.imperium.annotations.Cached;
+
+/**
+ * <p>Shared, bounded cache of the instances of {@link Cached} models loaded by rdf:ID, keyed by class and rdf:ID.  The
+ * least recently used instances are evicted once 'empire.cache.maxSize' instances are cached, and instances expire
+ * after the ttl of their class.  Saving or deleting an instance of a class, on any node, invalidates the cached
+ * instances of that class through its {@link WriteGenerations write generation}.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class EntityCache {
+
+	/**
+	 * Configuration property for the maximum number of cached instances
+	 */
+	public static final String MAX_SIZE = "cache.maxSize";
+
+	/**
+	 * Configuration property for the default number of seconds instances are cached for
+	 */
+	public static final String TTL = "cache.ttl";
+
+	/**
+	 * The cached instances
+	 */
+	private static final GenerationCache<Object> mCache = new GenerationCache<Object>(MAX_SIZE, 10000);
+
+	/**
+	 * No instances
+	 */
+	private EntityCache() {
+	}
+
+	/**
+	 * Return whether or not the instances of a class are cached
+	 * @param theClass the class
+	 * @return true if they are cached, false otherwise
+	 */
+	public static boolean isCached(final Class<?> theClass) {
+		return theClass.isAnnotationPresent(Cached.class);
+	}
+
+	/**
+	 * Return the cached instance of a class with the given rdf:ID
+	 * @param theClass the class of the instance
+	 * @param theId the rdf:ID of the instance
+	 * @param <T> the type of the instance
+	 * @return the cached instance, or null if it is not cached or is stale
+	 */
+	public static <T> T get(final Class<T> theClass, final Object theId) {
+		return theClass.cast(mCache.get(theClass, key(theClass, theId)));
+	}
+
+	/**
+	 * Cache an instance loaded from the RDF database.  It is not cached if the current transaction has written
+	 * instances of its class which are not committed yet.
+	 * @param theClass the class the instance was loaded as
+	 * @param theId the rdf:ID of the instance
+	 * @param theEntity the instance
+	 * @param theGeneration the {@link WriteGenerations#current write generation} of the class read before the instance
+	 * was loaded
+	 */
+	public static void put(final Class<?> theClass, final Object theId, final Object theEntity, final String theGeneration) {
+		mCache.put(theClass, key(theClass, theId), theEntity, theGeneration);
+	}
+
+	/**
+	 * Evict the cached copies of an instance which is being written from this node.  The copies cached by every node
+	 * are invalidated by moving the {@link WriteGenerations write generation} of its class on once the write commits.
+	 * @param theObj the instance being saved or deleted
+	 */
+	public static void invalidate(final Object theObj) {
+		if (!isCached(theObj.getClass())) {
+			return;
+		}
+
+		SupportsRdfId aId = EmpireUtil.asSupportsRdfId(theObj);
+
+		if (aId != null && aId.getRdfId() != null) {
+			for (Class<?> aClass = theObj.getClass(); aClass != null && isCached(aClass); aClass = aClass.getSuperclass()) {
+				mCache.remove(key(aClass, aId.getRdfId()));
+			}
+		}
+	}
+
+	/**
+	 * Remove everything from the cache
+	 */
+	public static void clear() {
+		mCache.clear();
+	}
+
+	/**
+	 * Return the number of lookups answered from the cache
+	 * @return the number of hits
+	 */
+	public static long getHitCount() {
+		return mCache.getHitCount();
+	}
+
+	/**
+	 * Return the number of lookups which had to go to the RDF database
+	 * @return the number of misses
+	 */
+	public static long getMissCount() {
+		return mCache.getMissCount();
+	}
+
+	/**
+	 * Return the number of cached instances
+	 * @return the cache size
+	 */
+	public static int size() {
+		return mCache.size();
+	}
+
+	/**
+	 * Return the cache key of an instance
+	 * @param theClass the class of the instance
+	 * @param theId the rdf:ID of the instance
+	 * @return the key
+	 */
+	private static String key(final Class<?> theClass, final Object theId) {
+		Object aId = theId instanceof SupportsRdfId.RdfKey ? ((SupportsRdfId.RdfKey) theId).value() : theId;
+
+		return theClass.getName() + "#" + aId;
+	}
+}
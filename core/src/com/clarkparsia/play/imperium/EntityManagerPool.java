@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.Empire;
+
+import javax.persistence.EntityManager;
+
+import com.google.common.collect.Lists;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Bounded pool of idle {@link Imperium} instances, and so of their {@link EntityManager EntityManagers} and data
+ * source connections, so they are not created through Guice for every invocation which uses Empire.  Instances which
+ * sit idle for longer than 'empire.pool.idleTimeout' milliseconds are closed.  'empire.pool.maxIdle' only bounds the
+ * idle instances; the instances in use are bounded by 'empire.pool.maxActive', if it is set, and invocations wait up
+ * to 'empire.pool.maxWait' milliseconds for one to be released once that many are open.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+final class EntityManagerPool {
+
+	/**
+	 * Configuration property for the maximum number of idle entity managers kept in the pool
+	 */
+	static final String MAX_IDLE = "pool.maxIdle";
+
+	/**
+	 * Configuration property for the number of milliseconds an entity manager can be idle before it is closed
+	 */
+	static final String IDLE_TIMEOUT = "pool.idleTimeout";
+
+	/**
+	 * Configuration property for the maximum number of open entity managers, idle or in use, or 0 for no limit
+	 */
+	static final String MAX_ACTIVE = "pool.maxActive";
+
+	/**
+	 * Configuration property for the number of milliseconds to wait for an entity manager when 'pool.maxActive' are
+	 * open
+	 */
+	static final String MAX_WAIT = "pool.maxWait";
+
+	/**
+	 * The idle instances, most recently released first
+	 */
+	private static final LinkedList<IdleEntry> mIdle = new LinkedList<IdleEntry>();
+
+	/**
+	 * The number of open entity managers created by the pool, idle or in use
+	 */
+	private static final AtomicInteger mLive = new AtomicInteger();
+
+	/**
+	 * No instances
+	 */
+	private EntityManagerPool() {
+	}
+
+	/**
+	 * Take an idle instance from the pool, or create a new one if there are none and fewer than 'pool.maxActive' are
+	 * open, waiting for one to be released otherwise
+	 * @return an instance with an open entity manager
+	 * @throws ImperiumException if no instance was released within 'pool.maxWait' milliseconds
+	 */
+	static Imperium acquire() {
+		evictIdle();
+
+		int aMaxActive = EmpirePlugin.getIntProperty(MAX_ACTIVE, 0);
+		long aDeadline = System.currentTimeMillis() + EmpirePlugin.getIntProperty(MAX_WAIT, 5000);
+
+		synchronized (mIdle) {
+			while (true) {
+				while (!mIdle.isEmpty()) {
+					Imperium aImperium = mIdle.removeFirst().mImperium;
+
+					if (aImperium.mEntityManager.isOpen()) {
+						return aImperium;
+					}
+
+					mLive.decrementAndGet();
+				}
+
+				if (aMaxActive <= 0 || mLive.get() < aMaxActive) {
+					// reserve the slot of the new instance before creating it outside of the lock
+					mLive.incrementAndGet();
+					break;
+				}
+
+				long aWait = aDeadline - System.currentTimeMillis();
+
+				if (aWait <= 0) {
+					throw new ImperiumException("Timed out waiting for an entity manager, " + aMaxActive + " are in use", null);
+				}
+
+				try {
+					mIdle.wait(aWait);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+
+					throw new ImperiumException("Interrupted while waiting for an entity manager", e);
+				}
+			}
+		}
+
+		try {
+			return Empire.get().instance(Imperium.class);
+		}
+		catch (RuntimeException e) {
+			closed();
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Return an instance to the pool.  The entity manager is cleared first; if it is still in a transaction, or the
+	 * pool is full, it is closed instead.
+	 * @param theImperium the instance to return
+	 */
+	static void release(final Imperium theImperium) {
+		EntityManager aManager = theImperium.mEntityManager;
+
+		theImperium.discardWrites();
+
+		if (!aManager.isOpen()) {
+			closed();
+			return;
+		}
+
+		try {
+			if (!aManager.getTransaction().isActive()) {
+				aManager.clear();
+
+				synchronized (mIdle) {
+					if (mIdle.size() < EmpirePlugin.getIntProperty(MAX_IDLE, 8)) {
+						mIdle.addFirst(new IdleEntry(theImperium));
+						mIdle.notify();
+						return;
+					}
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			play.Logger.warn(e, "Could not return an entity manager to the pool, closing it");
+		}
+
+		close(theImperium);
+	}
+
+	/**
+	 * Close the entity managers which have been idle for longer than the idle timeout
+	 */
+	static void evictIdle() {
+		long aCutoff = System.currentTimeMillis() - EmpirePlugin.getIntProperty(IDLE_TIMEOUT, 5 * 60 * 1000);
+
+		List<Imperium> aExpired = Lists.newArrayList();
+
+		synchronized (mIdle) {
+			// the oldest entries are at the end
+			while (!mIdle.isEmpty() && mIdle.getLast().mReleased < aCutoff) {
+				aExpired.add(mIdle.removeLast().mImperium);
+			}
+		}
+
+		for (Imperium aImperium : aExpired) {
+			close(aImperium);
+		}
+	}
+
+	/**
+	 * Close all the idle entity managers
+	 */
+	static void clear() {
+		List<Imperium> aIdle = Lists.newArrayList();
+
+		synchronized (mIdle) {
+			for (IdleEntry aEntry : mIdle) {
+				aIdle.add(aEntry.mImperium);
+			}
+
+			mIdle.clear();
+		}
+
+		for (Imperium aImperium : aIdle) {
+			close(aImperium);
+		}
+	}
+
+	/**
+	 * Return the number of open entity managers, idle or in use
+	 * @return the number of live entity managers
+	 */
+	static int getLiveCount() {
+		return mLive.get();
+	}
+
+	/**
+	 * Return the number of entity managers idle in the pool
+	 * @return the number of idle entity managers
+	 */
+	static int getIdleCount() {
+		synchronized (mIdle) {
+			return mIdle.size();
+		}
+	}
+
+	/**
+	 * Close the entity manager of an instance which is not going back in the pool
+	 * @param theImperium the instance
+	 */
+	private static void close(final Imperium theImperium) {
+		closed();
+
+		try {
+			if (theImperium.mEntityManager.isOpen()) {
+				theImperium.mEntityManager.close();
+			}
+		}
+		catch (RuntimeException e) {
+			play.Logger.warn(e, "Error while closing an entity manager");
+		}
+	}
+
+	/**
+	 * Count an entity manager as closed, and wake an invocation waiting for one
+	 */
+	private static void closed() {
+		synchronized (mIdle) {
+			mLive.decrementAndGet();
+			mIdle.notify();
+		}
+	}
+
+	/**
+	 * An idle instance and when it was returned to the pool
+	 */
+	private static class IdleEntry {
+		private final Imperium mImperium;
+		private final long mReleased = System.currentTimeMillis();
+
+		private IdleEntry(final Imperium theImperium) {
+			mImperium = theImperium;
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.annotation.InvalidRdfException;
+import com.clarkparsia.empire.annotation.RdfGenerator;
+import com.clarkparsia.empire.util.EmpireUtil;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Sets;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Statement;
+
+import javax.persistence.CascadeType;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.PostUpdate;
+import javax.persistence.PreUpdate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>The RDF of entities as it was when they were loaded from, or last written to, the RDF database, so a save of a
+ * modified entity only has to send the statements which changed instead of replacing all of them.  Snapshots are held
+ * weakly, by identity, so they go away with their entity.</p>
+ *
+ * <p>A snapshot is only used by the transaction which took it.  Once that transaction ends, other transactions, on
+ * this node or another, may have changed the entity in the RDF database, so an entity kept past the end of its
+ * transaction, in a cache or a session, is written in full the next time it is saved.</p>
+ *
+ * <p>Entities of classes which cascade merges to their relations, or have update callbacks, are not tracked, since
+ * writing their changes directly would skip those; neither are entities whose RDF contains blank nodes, which cannot
+ * be matched against the database, or which are kept in a named graph.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+final class EntitySnapshots {
+
+	/**
+	 * The snapshot of each tracked entity
+	 */
+	private static final ConcurrentMap<Object, Snapshot> mSnapshots = new MapMaker().weakKeys().makeMap();
+
+	/**
+	 * Whether or not each class can be tracked
+	 */
+	private static final ConcurrentMap<Class<?>, Boolean> mTracked = new ConcurrentHashMap<Class<?>, Boolean>();
+
+	/**
+	 * No instances
+	 */
+	private EntitySnapshots() {
+	}
+
+	/**
+	 * Record the current RDF of an entity as its snapshot, if it can be tracked
+	 * @param theObj the entity, as it is in the RDF database
+	 * @param theTransaction the transaction the snapshot can be used by
+	 */
+	static void take(final Object theObj, final Object theTransaction) {
+		if (theObj == null || !isTracked(theObj.getClass()) || EmpireUtil.hasNamedGraphSpecified(theObj)) {
+			return;
+		}
+
+		Set<Statement> aStatements = statements(theObj);
+
+		if (aStatements != null) {
+			mSnapshots.put(theObj, new Snapshot(theTransaction, aStatements));
+		}
+		else {
+			mSnapshots.remove(theObj);
+		}
+	}
+
+	/**
+	 * Record the given statements as the snapshot of an entity
+	 * @param theObj the entity
+	 * @param theTransaction the transaction the snapshot can be used by
+	 * @param theStatements its RDF, as it is in the RDF database
+	 */
+	static void put(final Object theObj, final Object theTransaction, final Set<Statement> theStatements) {
+		mSnapshots.put(theObj, new Snapshot(theTransaction, theStatements));
+	}
+
+	/**
+	 * Return the snapshot of an entity
+	 * @param theObj the entity
+	 * @param theTransaction the current transaction
+	 * @return its snapshot, or null if it is not tracked, or the snapshot was taken by another transaction
+	 */
+	static Set<Statement> get(final Object theObj, final Object theTransaction) {
+		Snapshot aSnapshot = mSnapshots.get(theObj);
+
+		return aSnapshot != null && aSnapshot.mTransaction == theTransaction ? aSnapshot.mStatements : null;
+	}
+
+	/**
+	 * Forget the snapshot of an entity, it no longer reflects the RDF database
+	 * @param theObj the entity
+	 */
+	static void forget(final Object theObj) {
+		mSnapshots.remove(theObj);
+	}
+
+	/**
+	 * Forget every snapshot and class
+	 */
+	static void clear() {
+		mSnapshots.clear();
+		mTracked.clear();
+	}
+
+	/**
+	 * Return the RDF of an entity
+	 * @param theObj the entity
+	 * @return its statements, or null if they contain blank nodes or the entity cannot be converted to RDF
+	 */
+	static Set<Statement> statements(final Object theObj) {
+		try {
+			Set<Statement> aStatements = Sets.newHashSet(RdfGenerator.asRdf(theObj));
+
+			for (Statement aStmt : aStatements) {
+				if (aStmt.getSubject() instanceof BNode || aStmt.getObject() instanceof BNode) {
+					return null;
+				}
+			}
+
+			return aStatements;
+		}
+		catch (InvalidRdfException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Return whether or not writes of the instances of a class can be limited to the changed statements
+	 * @param theClass the class
+	 * @return true if its instances can be tracked, false otherwise
+	 */
+	static boolean isTracked(final Class<?> theClass) {
+		Boolean aTracked = mTracked.get(theClass);
+
+		if (aTracked == null) {
+			aTracked = !cascadesMerge(theClass) && !hasUpdateCallbacks(theClass);
+
+			mTracked.put(theClass, aTracked);
+		}
+
+		return aTracked;
+	}
+
+	private static boolean cascadesMerge(final Class<?> theClass) {
+		for (Class<?> aClass = theClass; aClass != null; aClass = aClass.getSuperclass()) {
+			for (Field aField : aClass.getDeclaredFields()) {
+				CascadeType[] aCascade = null;
+
+				if (aField.isAnnotationPresent(OneToOne.class)) {
+					aCascade = aField.getAnnotation(OneToOne.class).cascade();
+				}
+				else if (aField.isAnnotationPresent(OneToMany.class)) {
+					aCascade = aField.getAnnotation(OneToMany.class).cascade();
+				}
+				else if (aField.isAnnotationPresent(ManyToOne.class)) {
+					aCascade = aField.getAnnotation(ManyToOne.class).cascade();
+				}
+				else if (aField.isAnnotationPresent(ManyToMany.class)) {
+					aCascade = aField.getAnnotation(ManyToMany.class).cascade();
+				}
+
+				if (aCascade != null && (Arrays.asList(aCascade).contains(CascadeType.ALL)
+										 || Arrays.asList(aCascade).contains(CascadeType.MERGE))) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean hasUpdateCallbacks(final Class<?> theClass) {
+		for (Class<?> aClass = theClass; aClass != null; aClass = aClass.getSuperclass()) {
+			for (Method aMethod : aClass.getDeclaredMethods()) {
+				if (aMethod.isAnnotationPresent(PreUpdate.class) || aMethod.isAnnotationPresent(PostUpdate.class)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * The RDF of an entity and the transaction it was recorded by
+	 */
+	private static class Snapshot {
+		private final Object mTransaction;
+		private final Set<Statement> mStatements;
+
+		private Snapshot(final Object theTransaction, final Set<Statement> theStatements) {
+			mTransaction = theTransaction;
+			mStatements = theStatements;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.play.imperium.annotations.Cached;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Bounded map of values read from the RDF database for the instances of {@link Cached} models, which backs both
+ * the {@link EntityCache} and the {@link QueryCache}.  Each value is tagged with the {@link WriteGenerations write
+ * generation} of its class when it was read, and is stale once that generation moves on or the ttl of the class has
+ * passed.  The least recently used values are evicted once the configured maximum number are cached.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+final class GenerationCache<V> {
+
+	/**
+	 * Configuration property for the maximum number of cached values
+	 */
+	private final String mMaxSizeProperty;
+
+	/**
+	 * The maximum number of cached values if the property is not set
+	 */
+	private final int mDefaultMaxSize;
+
+	/**
+	 * The cached values, created the first time one is cached
+	 */
+	private ConcurrentMap<String, Entry<V>> mCache;
+
+	private final AtomicLong mHits = new AtomicLong();
+	private final AtomicLong mMisses = new AtomicLong();
+
+	/**
+	 * Create a new GenerationCache
+	 * @param theMaxSizeProperty the configuration property for the maximum number of cached values
+	 * @param theDefaultMaxSize the maximum number of cached values if the property is not set
+	 */
+	GenerationCache(final String theMaxSizeProperty, final int theDefaultMaxSize) {
+		mMaxSizeProperty = theMaxSizeProperty;
+		mDefaultMaxSize = theDefaultMaxSize;
+	}
+
+	/**
+	 * Return a cached value if it is still current
+	 * @param theClass the class the value was read for
+	 * @param theKey the key of the value
+	 * @return the value, or null if it is not cached or is stale
+	 */
+	V get(final Class<?> theClass, final String theKey) {
+		Entry<V> aEntry = cache().get(theKey);
+
+		if (aEntry != null && aEntry.mExpires > System.currentTimeMillis()
+			&& Objects.equal(aEntry.mGeneration, WriteGenerations.current(theClass))) {
+
+			mHits.incrementAndGet();
+
+			return aEntry.mValue;
+		}
+
+		if (aEntry != null) {
+			cache().remove(theKey, aEntry);
+		}
+
+		mMisses.incrementAndGet();
+
+		return null;
+	}
+
+	/**
+	 * Cache a value until the ttl of its class has passed.  The value is tagged with the generation read before it
+	 * was, so that a write which commits while it is being read makes it stale.  Nothing is cached while the current
+	 * transaction has writes to the class which are not committed, since what it reads may include them.
+	 * @param theClass the class the value was read for
+	 * @param theKey the key of the value
+	 * @param theValue the value
+	 * @param theGeneration the write generation of the class before the value was read
+	 */
+	void put(final Class<?> theClass, final String theKey, final V theValue, final String theGeneration) {
+		if (Imperium.hasPendingWrites(theClass)) {
+			return;
+		}
+
+		int aTtl = theClass.getAnnotation(Cached.class).ttl();
+
+		if (aTtl < 0) {
+			aTtl = EmpirePlugin.getIntProperty(EntityCache.TTL, 600);
+		}
+
+		cache().put(theKey, new Entry<V>(theValue, theGeneration, System.currentTimeMillis() + aTtl * 1000L));
+	}
+
+	/**
+	 * Remove a value from the cache
+	 * @param theKey the key of the value
+	 */
+	void remove(final String theKey) {
+		cache().remove(theKey);
+	}
+
+	/**
+	 * Remove everything from the cache
+	 */
+	synchronized void clear() {
+		mCache = null;
+	}
+
+	/**
+	 * Return the number of lookups answered from the cache
+	 * @return the number of hits
+	 */
+	long getHitCount() {
+		return mHits.get();
+	}
+
+	/**
+	 * Return the number of lookups which were not
+	 * @return the number of misses
+	 */
+	long getMissCount() {
+		return mMisses.get();
+	}
+
+	/**
+	 * Return the number of cached values
+	 * @return the cache size
+	 */
+	synchronized int size() {
+		return mCache == null ? 0 : mCache.size();
+	}
+
+	/**
+	 * Return the cache, creating it if necessary
+	 * @return the cache
+	 */
+	private synchronized ConcurrentMap<String, Entry<V>> cache() {
+		if (mCache == null) {
+			Cache<String, Entry<V>> aCache = CacheBuilder.newBuilder()
+					.maximumSize(EmpirePlugin.getIntProperty(mMaxSizeProperty, mDefaultMaxSize))
+					.build(new CacheLoader<String, Entry<V>>() {
+						public Entry<V> load(final String theKey) {
+							// entries are only ever put explicitly
+							throw new UnsupportedOperationException();
+						}
+					});
+
+			mCache = aCache.asMap();
+		}
+
+		return mCache;
+	}
+
+	/**
+	 * A cached value, with the write generation of its class when it was read, and when it expires
+	 */
+	private static class Entry<V> {
+		private final V mValue;
+		private final String mGeneration;
+		private final long mExpires;
+
+		private Entry(final V theValue, final String theGeneration, final long theExpires) {
+			mValue = theValue;
+			mGeneration = theGeneration;
+			mExpires = theExpires;
+		}
+	}
+}
@@ -15,12 +15,42 @@
 
 package com.clarkparsia.play.imperium;
 
-import com.clarkparsia.empire.Empire;
+import com.clarkparsia.empire.SupportsRdfId;
+import com.clarkparsia.empire.annotation.RdfGenerator;
+import com.clarkparsia.empire.ds.DataSource;
+import com.clarkparsia.empire.ds.DataSourceException;
+import com.clarkparsia.empire.ds.MutableDataSource;
+import com.clarkparsia.empire.impl.RdfQuery;
+import com.clarkparsia.empire.util.EmpireUtil;
+
+import com.clarkparsia.play.imperium.annotations.ReadOnly;
+import com.clarkparsia.play.imperium.metrics.Metrics;
+
+import com.clarkparsia.openrdf.ExtGraph;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.impl.ValueFactoryImpl;
 
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
 
 import javax.persistence.PersistenceContext;
 
+import java.net.URI;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * <p>Component to provide thread local access to an {@link EntityManager}.</p>
  *
@@ -29,6 +59,11 @@ import javax.persistence.PersistenceContext;
  * @version 0.1
  */
 public class Imperium {
+	/**
+	 * The maximum number of ids described by a single query in {@link #findAll}
+	 */
+	public static final int BATCH_SIZE = 500;
+
 	/**
 	 * A thread-local reference to an instance of Empire
 	 */
@@ -40,6 +75,32 @@ public class Imperium {
 	@PersistenceContext(name="imperium")
 	public EntityManager mEntityManager;
 
+	/**
+	 * The RDF writes made during the current transaction which have not yet been sent to the data source
+	 */
+	private final RdfWriteBuffer mWriteBuffer = new RdfWriteBuffer();
+
+	/**
+	 * The entities whose {@link EntitySnapshots snapshots} were changed by writes made during the current transaction
+	 */
+	private final List<Object> mTouched = Lists.newArrayList();
+
+	/**
+	 * Identifies the current transaction; the {@link EntitySnapshots snapshots} taken during it are only used by it
+	 */
+	private Object mTransaction = new Object();
+
+	/**
+	 * The {@link EntityCache cached} classes written during the current transaction, whose {@link WriteGenerations write
+	 * generations} move on once it commits
+	 */
+	private final Set<Class<?>> mWrittenClasses = Sets.newHashSet();
+
+	/**
+	 * Whether or not the entity manager reads from the {@link ReadReplica read replica}
+	 */
+	boolean mReplica;
+
 	/**
 	 * Return whether or not Empire has been initialized for the local thread context
 	 * @return true if it has been initialized, false otherwise
@@ -49,7 +110,9 @@ public class Imperium {
 	}
 
 	/**
-	 * Return the thread local entity manager
+	 * Return the thread local entity manager.  The entity manager is only acquired the first time it is needed, and
+	 * when that happens during a Play! invocation which is not {@link EmpirePlugin#isReadOnly read-only}, a transaction
+	 * is begun on it.
 	 * @return the entity manager
 	 */
 	static Imperium get() {
@@ -57,6 +120,10 @@ public class Imperium {
 		
 		if (aEmpire == null) {
 			aEmpire = create();
+
+			if (EmpirePlugin.isInvocationActive() && !EmpirePlugin.isReadOnly()) {
+				EmpirePlugin.startTx();
+			}
 		}
 
 		return aEmpire;
@@ -71,17 +138,590 @@ public class Imperium {
 	}
 
 	/**
-	 * Create an instance of Imperium using the persistence context injected into here via Empire.
+	 * Find an object by its rdf:ID.  Objects of {@link com.clarkparsia.play.imperium.annotations.Cached} classes are
+	 * returned from the shared {@link EntityCache} when possible.
+	 * @param theClass the class of the object
+	 * @param theId the rdf:ID of the object
+	 * @param <T> the type of the object
+	 * @return the object, or null if it does not exist
+	 */
+	public static <T> T find(final Class<T> theClass, final Object theId) {
+		long aStart = Metrics.now();
+
+		boolean aCached = EntityCache.isCached(theClass);
+
+		T aResult = aCached ? EntityCache.get(theClass, theId) : null;
+
+		if (aResult == null) {
+			// read before the load, so a write committed while it runs makes the loaded object stale
+			String aGeneration = aCached ? WriteGenerations.current(theClass) : null;
+
+			aResult = em().find(theClass, theId);
+
+			if (!EmpirePlugin.isReadOnly()) {
+				EntitySnapshots.take(aResult, get().mTransaction);
+			}
+
+			if (aCached && aResult != null) {
+				EntityCache.put(theClass, theId, aResult, aGeneration);
+			}
+		}
+
+		Metrics.record(Metrics.Operation.FIND, aResult != null ? aResult : String.valueOf(theId), aStart);
+
+		return aResult;
+	}
+
+	/**
+	 * Find the objects with the given rdf:IDs.  The objects are described with one query per {@link #BATCH_SIZE} ids,
+	 * rather than one query per id, and built from the statements it returns; ids it returns nothing about do not exist.
+	 * @param theClass the class of the objects
+	 * @param theIds the rdf:IDs of the objects
+	 * @param <T> the type of the objects
+	 * @return the objects found, keyed by their id, in the order of the ids; ids which do not exist are absent
+	 */
+	public static <T> Map<String, T> findAll(final Class<T> theClass, final Collection<String> theIds) {
+		long aStart = Metrics.now();
+
+		Map<String, T> aResults = Maps.newLinkedHashMap();
+
+		Map<Resource, String> aToLoad = Maps.newLinkedHashMap();
+
+		for (String aId : theIds) {
+			T aCached = EntityCache.isCached(theClass) ? EntityCache.get(theClass, aId) : null;
+
+			if (aCached != null) {
+				aResults.put(aId, aCached);
+			}
+			else if (isURI(aId)) {
+				aToLoad.put(ValueFactoryImpl.getInstance().createURI(aId), aId);
+			}
+			else {
+				// not something we can put in a query, fall back to finding it on its own
+				T aResult = find(theClass, aId);
+
+				if (aResult != null) {
+					aResults.put(aId, aResult);
+				}
+			}
+		}
+
+		String aGeneration = EntityCache.isCached(theClass) ? WriteGenerations.current(theClass) : null;
+
+		try {
+			DataSource aSource = (DataSource) em().getDelegate();
+
+			URI aGraph = ModelGraphs.isPartitioned(theClass, aSource) ? ModelGraphs.graphOf(theClass) : null;
+
+			for (List<Resource> aBatch : Iterables.partition(aToLoad.keySet(), BATCH_SIZE)) {
+				ExtGraph aDescribed = RdfQueries.describe(aSource, aGraph, aBatch);
+
+				PrefetchedDataSource aPrefetched = new PrefetchedDataSource(aSource, aGraph, aDescribed);
+
+				try {
+					for (Resource aResource : aBatch) {
+						if (!aDescribed.match(aResource, null, null).hasNext()) {
+							continue;
+						}
+
+						String aId = aToLoad.get(aResource);
+
+						T aResult = RdfGenerator.fromRdf(theClass, aId, aPrefetched);
+
+						if (!EmpirePlugin.isReadOnly()) {
+							EntitySnapshots.take(aResult, get().mTransaction);
+						}
+
+						if (EntityCache.isCached(theClass)) {
+							EntityCache.put(theClass, aId, aResult, aGeneration);
+						}
+
+						aResults.put(aId, aResult);
+					}
+				}
+				finally {
+					aPrefetched.release();
+				}
+			}
+		}
+		catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+
+		// put the results back in the order the ids were given
+		Map<String, T> aOrdered = Maps.newLinkedHashMap();
+
+		for (String aId : theIds) {
+			if (aResults.containsKey(aId)) {
+				aOrdered.put(aId, aResults.get(aId));
+			}
+		}
+
+		Metrics.record(Metrics.Operation.FIND, aOrdered.size() + " of " + theIds.size() + " " + theClass.getSimpleName(), aStart);
+
+		return aOrdered;
+	}
+
+	/**
+	 * Run a query for objects of a class.  The results for {@link com.clarkparsia.play.imperium.annotations.Cached}
+	 * classes are kept in the {@link QueryCache} as the rdf:IDs of the objects, and the objects themselves in the
+	 * {@link EntityCache}, so running the same query again does not go to the RDF database until an object of the
+	 * class is written.
+	 * @param theClass the class of the objects
+	 * @param theQuery the query, in the query language of the data source, with the objects bound to the projection
+	 * variable
+	 * @param theParams the values of the unnamed parameters of the query, in order
+	 * @param <T> the type of the objects
+	 * @return the objects matched by the query
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> List<T> query(final Class<T> theClass, final String theQuery, final Object... theParams) {
+		String aKey = QueryCache.isCached(theClass) ? QueryCache.key(theClass, theQuery, theParams) : null;
+
+		if (aKey != null) {
+			List<String> aIds = QueryCache.get(theClass, aKey);
+
+			if (aIds != null) {
+				return Lists.newArrayList(findAll(theClass, aIds).values());
+			}
+		}
+
+		// read before the query runs, so a write committed while it runs makes its results stale
+		String aGeneration = aKey != null ? WriteGenerations.current(theClass) : null;
+
+		long aStart = Metrics.now();
+
+		Query aQuery = em().createQuery(theQuery);
+
+		aQuery.setHint(RdfQuery.HINT_ENTITY_CLASS, theClass);
+
+		for (int i = 0; i < theParams.length; i++) {
+			aQuery.setParameter(i + 1, theParams[i]);
+		}
+
+		List<T> aResults = Lists.newArrayList((List<T>) aQuery.getResultList());
+
+		if (!EmpirePlugin.isReadOnly()) {
+			for (T aResult : aResults) {
+				EntitySnapshots.take(aResult, get().mTransaction);
+			}
+		}
+
+		if (aKey != null) {
+			List<String> aIds = Lists.newArrayListWithCapacity(aResults.size());
+
+			for (T aResult : aResults) {
+				SupportsRdfId aId = EmpireUtil.asSupportsRdfId(aResult);
+
+				if (aId == null || aId.getRdfId() == null || !isURI(aId.getRdfId().value().toString())) {
+					// the results cannot all be found again by id
+					aIds = null;
+					break;
+				}
+
+				aIds.add(aId.getRdfId().value().toString());
+
+				EntityCache.put(theClass, aId.getRdfId(), aResult, aGeneration);
+			}
+
+			if (aIds != null) {
+				QueryCache.put(theClass, aKey, Collections.unmodifiableList(aIds), aGeneration);
+			}
+		}
+
+		Metrics.record(Metrics.Operation.FIND, aResults.size() + " " + theClass.getSimpleName() + " queried", aStart);
+
+		return aResults;
+	}
+
+	/**
+	 * Return whether or not objects of the class are {@link ReadOnly read-only}
+	 * @param theClass the class
+	 * @return true if the class, or one of its superclasses, is read-only
+	 */
+	public static boolean isReadOnly(final Class<?> theClass) {
+		for (Class<?> aClass = theClass; aClass != null; aClass = aClass.getSuperclass()) {
+			if (aClass.isAnnotationPresent(ReadOnly.class)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Fail if the object cannot be written, either because its class or the current invocation is read-only
+	 * @param theObj the object about to be written
+	 * @throws ImperiumException if the object cannot be written
+	 */
+	private static void assertWritable(final Object theObj) {
+		if (EmpirePlugin.isReadOnly()) {
+			throw new ImperiumException("Cannot write " + theObj + ", the current invocation is read-only", null);
+		}
+
+		if (isReadOnly(theObj.getClass())) {
+			throw new ImperiumException("Cannot write " + theObj + ", " + theObj.getClass().getSimpleName() + " is read-only", null);
+		}
+	}
+
+	/**
+	 * Return whether or not the id is an absolute URI
+	 * @param theId the id
+	 * @return true if it is an absolute URI, false otherwise
+	 */
+	private static boolean isURI(final String theId) {
+		try {
+			return URI.create(theId).isAbsolute();
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Save an object to the RDF database, persisting it if it is new and merging it otherwise.  If the object was loaded
+	 * through Imperium, only the statements which changed since it was loaded, or last saved, are sent.  If write
+	 * batching is enabled, with 'empire.writes.batch', and a transaction is active, the write is buffered and sent to
+	 * the data source, along with every other write of the transaction, when the transaction commits.
+	 * @param theObj the object to save
+	 */
+	public static void save(final Object theObj) {
+		assertWritable(theObj);
+
+		long aStart = Metrics.now();
+
+		Imperium aImperium = get();
+
+		invalidate(theObj);
+
+		try {
+			if (aImperium.isBuffering(theObj)) {
+				EntitySnapshots.forget(theObj);
+
+				aImperium.mWriteBuffer.save(theObj);
+			}
+			else if (!aImperium.saveChanges(theObj)) {
+				if (aImperium.getEntityManager().contains(theObj)) {
+					aImperium.getEntityManager().merge(theObj);
+				}
+				else {
+					aImperium.getEntityManager().persist(theObj);
+				}
+
+				aImperium.touched(theObj);
+				EntitySnapshots.take(theObj, aImperium.mTransaction);
+			}
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+		finally {
+			Metrics.record(Metrics.Operation.SAVE, theObj, aStart);
+		}
+	}
+
+	/**
+	 * Remove an object from the RDF database.  If write batching is enabled and a transaction is active, the removal is
+	 * buffered until the transaction commits.
+	 * @param theObj the object to remove
+	 */
+	public static void remove(final Object theObj) {
+		assertWritable(theObj);
+
+		long aStart = Metrics.now();
+
+		Imperium aImperium = get();
+
+		invalidate(theObj);
+		EntitySnapshots.forget(theObj);
+
+		try {
+			if (aImperium.isBuffering(theObj)) {
+				aImperium.mWriteBuffer.remove(theObj);
+			}
+			else {
+				aImperium.getEntityManager().remove(theObj);
+			}
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+		finally {
+			Metrics.record(Metrics.Operation.DELETE, theObj, aStart);
+		}
+	}
+
+	/**
+	 * Write the current state of an object to the RDF database, comparing it with the statements already in the
+	 * database so that only the statements which changed are sent.  Unlike {@link #save}, this does not rely on the
+	 * object having been loaded through Imperium, so it can be used for objects loaded from elsewhere, such as the
+	 * relational database.
+	 * @param theObj the object to write
+	 */
+	public static void sync(final Object theObj) {
+		assertWritable(theObj);
+
+		long aStart = Metrics.now();
+
+		Imperium aImperium = get();
+
+		invalidate(theObj);
+		EntitySnapshots.forget(theObj);
+
+		try {
+			if (EmpireUtil.hasNamedGraphSpecified(theObj)) {
+				// the statements of the object cannot be read back from the default graph, replace them all
+				try {
+					aImperium.getEntityManager().remove(theObj);
+				}
+				catch (IllegalArgumentException e) {
+					// if it doesn't exist, that's ok, we were removing it anyway
+				}
+
+				aImperium.getEntityManager().persist(theObj);
+			}
+			else if (aImperium.isBuffering(theObj)) {
+				aImperium.mWriteBuffer.save(theObj);
+			}
+			else {
+				RdfWriteBuffer aBuffer = new RdfWriteBuffer();
+				aBuffer.save(theObj);
+				aBuffer.flush(aImperium.getEntityManager());
+			}
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+		finally {
+			Metrics.record(Metrics.Operation.SAVE, theObj, aStart);
+		}
+	}
+
+	/**
+	 * Write a large number of new objects to the RDF database.  See {@link #bulkLoad(Iterable, boolean)}.
+	 * @param theObjects the objects to write
+	 * @return how many objects and statements were written, and how quickly
+	 */
+	public static BulkLoadResult bulkLoad(final Iterable<?> theObjects) {
+		return bulkLoad(theObjects, false);
+	}
+
+	/**
+	 * Write a large number of objects to the RDF database.  The objects are written 'empire.bulk.chunkSize' (1000 by
+	 * default) at a time; the objects of a chunk are converted to RDF on 'empire.bulk.threads' threads and their
+	 * statements sent to the data source with a single add.  Unlike {@link #save}, the objects are not checked for
+	 * existence one by one and no cascades or lifecycle callbacks are applied.  Since only one chunk is held in memory
+	 * at once, the objects can be a lazily loaded sequence.
+	 * @param theObjects the objects to write
+	 * @param theReplace true to remove the statements already in the database about each object before writing it,
+	 * false if the objects are known to be new
+	 * @return how many objects and statements were written, and how quickly
+	 */
+	public static BulkLoadResult bulkLoad(final Iterable<?> theObjects, final boolean theReplace) {
+		if (EmpirePlugin.isReadOnly()) {
+			throw new ImperiumException("Cannot bulk load, the current invocation is read-only", null);
+		}
+
+		long aStart = Metrics.now();
+
+		try {
+			BulkLoadResult aResult = new BulkLoader(get().getEntityManager(), theReplace).load(theObjects);
+
+			play.Logger.info("Bulk loaded %s", aResult);
+
+			Metrics.record(Metrics.Operation.SAVE, aResult, aStart);
+
+			return aResult;
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Send any buffered writes of the current transaction to the RDF database
+	 * @throws PersistenceException if the writes cannot be sent
+	 */
+	public static void flush() {
+		if (isInitialized()) {
+			mLocalInst.get().flushWrites();
+		}
+	}
+
+	/**
+	 * Return whether or not writes of the object should be buffered until the transaction commits.  Objects which are
+	 * kept in a named graph are always written immediately.
+	 * @param theObj the object being written
+	 * @return true if the write should be buffered, false otherwise
+	 */
+	private boolean isBuffering(final Object theObj) {
+		return EmpirePlugin.getBooleanProperty(EmpirePlugin.BATCH_WRITES, false)
+			   && getEntityManager().getTransaction().isActive()
+			   && !EmpireUtil.hasNamedGraphSpecified(theObj);
+	}
+
+	/**
+	 * Write only the statements of an object which changed since its snapshot was taken by the current transaction
+	 * @param theObj the object to write
+	 * @return true if the changes were written, false if the object has no snapshot from the current transaction and
+	 * must be written in full
+	 * @throws DataSourceException if there is an error while writing to the data source
+	 */
+	private boolean saveChanges(final Object theObj) throws DataSourceException {
+		Set<Statement> aBefore = EntitySnapshots.get(theObj, mTransaction);
+
+		if (aBefore == null || EmpireUtil.hasNamedGraphSpecified(theObj)) {
+			return false;
+		}
+
+		Set<Statement> aAfter = EntitySnapshots.statements(theObj);
+
+		if (aAfter == null) {
+			return false;
+		}
+
+		RdfWriteBuffer.write((MutableDataSource) getEntityManager().getDelegate(), aBefore, aAfter);
+
+		touched(theObj);
+		EntitySnapshots.put(theObj, mTransaction, aAfter);
+
+		return true;
+	}
+
+	/**
+	 * Remember that the snapshot of an object was changed by the current transaction, so it can be forgotten if the
+	 * transaction rolls back
+	 * @param theObj the object
+	 */
+	private void touched(final Object theObj) {
+		mTouched.add(theObj);
+	}
+
+	/**
+	 * Evict the cached copies of an object which is being written from this node's {@link EntityCache}.  The cached
+	 * copies on the other nodes are invalidated through the write generation of its class once the write is committed,
+	 * so that nothing read before the commit can be cached as current.
+	 * @param theObj the object being saved or deleted
+	 */
+	static void invalidate(final Object theObj) {
+		if (!EntityCache.isCached(theObj.getClass())) {
+			return;
+		}
+
+		EntityCache.invalidate(theObj);
+
+		Imperium aImperium = get();
+
+		if (aImperium.getEntityManager().getTransaction().isActive()) {
+			aImperium.mWrittenClasses.add(theObj.getClass());
+		}
+		else {
+			// the write is not part of a transaction, it is already in the RDF database
+			WriteGenerations.advance(theObj.getClass());
+		}
+	}
+
+	/**
+	 * Return whether or not the current transaction has written instances of a {@link EntityCache cached} class, or of
+	 * one of its subclasses, and not committed them yet
+	 * @param theClass the class
+	 * @return true if it has, false otherwise
+	 */
+	static boolean hasPendingWrites(final Class<?> theClass) {
+		Imperium aImperium = mLocalInst.get();
+
+		if (aImperium == null) {
+			return false;
+		}
+
+		for (Class<?> aClass : aImperium.mWrittenClasses) {
+			if (theClass.isAssignableFrom(aClass)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * The current transaction committed, the snapshots it changed are now those of the RDF database, and the write
+	 * generations of the cached classes it wrote move on
+	 */
+	void writesCommitted() {
+		mTouched.clear();
+		mTransaction = new Object();
+
+		for (Class<?> aClass : mWrittenClasses) {
+			WriteGenerations.advance(aClass);
+		}
+
+		mWrittenClasses.clear();
+	}
+
+	/**
+	 * Send the buffered writes to the data source
+	 * @throws PersistenceException if the writes cannot be sent
+	 */
+	void flushWrites() {
+		try {
+			mWriteBuffer.flush(getEntityManager());
+		}
+		catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Return the entities whose writes are buffered
+	 * @param theRemoved true to return the entities being removed, false to return the entities being saved
+	 * @return the buffered entities
+	 */
+	Collection<Object> bufferedEntities(final boolean theRemoved) {
+		return mWriteBuffer.entities(theRemoved);
+	}
+
+	/**
+	 * Discard the buffered writes, the snapshots changed by the current transaction and the classes it wrote
+	 */
+	void discardWrites() {
+		mWriteBuffer.clear();
+
+		// whatever these writes did is being rolled back
+		for (Object aObj : mTouched) {
+			EntitySnapshots.forget(aObj);
+		}
+
+		mTouched.clear();
+		mWrittenClasses.clear();
+		mTransaction = new Object();
+	}
+
+	/**
+	 * Create an instance of Imperium using the persistence context injected into here via Empire, re-using an idle
+	 * one from the {@link EntityManagerPool} if possible.  Read-only invocations use the {@link ReadReplica} when
+	 * one is configured.
 	 * @return this instance
 	 */
 	private static Imperium create() {
-		if (mLocalInst.get() != null) {
-			mLocalInst.get().getEntityManager().close();
+		close();
 
-			mLocalInst.remove();
-		}
+		EmpirePlugin.bootstrap();
 
-		Imperium aEmpire = Empire.get().instance(Imperium.class);
+		Imperium aEmpire = EmpirePlugin.isReadOnly() && ReadReplica.isConfigured()
+						   ? ReadReplica.acquire()
+						   : EntityManagerPool.acquire();
 
 		mLocalInst.set(aEmpire);
 
@@ -97,12 +737,32 @@ public class Imperium {
 	}
 
 	/**
-	 * Close Empire
+	 * Return the number of open Empire entity managers, both in use by a thread and idle in the pool
+	 * @return the number of live entity managers
+	 */
+	public static int getLiveCount() {
+		return EntityManagerPool.getLiveCount();
+	}
+
+	/**
+	 * Return the number of Empire entity managers idle in the pool
+	 * @return the number of idle entity managers
+	 */
+	public static int getIdleCount() {
+		return EntityManagerPool.getIdleCount();
+	}
+
+	/**
+	 * Close Empire for the local thread context, returning its entity manager to the pool.  This is done automatically
+	 * at the end of every Play! invocation; code which uses Imperium on its own threads must call it when it is done.
 	 */
 	public static void close() {
 		if (mLocalInst.get() != null) {
-			if (mLocalInst.get().getEntityManager().isOpen()) {
-				mLocalInst.get().getEntityManager().close();
+			if (mLocalInst.get().mReplica) {
+				ReadReplica.release(mLocalInst.get());
+			}
+			else {
+				EntityManagerPool.release(mLocalInst.get());
 			}
 
 			mLocalInst.remove();
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.annotation.NamedGraph;
+import com.clarkparsia.empire.ds.DataSource;
+import com.clarkparsia.empire.ds.DataSourceException;
+import com.clarkparsia.empire.ds.SupportsNamedGraphs;
+
+import com.google.common.base.Optional;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Resolves the named graph the instances of a model class are kept in.  A class annotated with
+ * {@code @NamedGraph(type = NamedGraphType.Static, value = "...")} has all of its instances written to that graph by
+ * Empire; Imperium then scopes the queries it makes for the class to the graph, writes bulk loads to it with a single
+ * add, and can clear every instance of the class by dropping the graph.  Classes with instance level named graphs, or
+ * none, are not partitioned.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class ModelGraphs {
+
+	/**
+	 * The graph of each class which has been asked about, absent if the class is not partitioned
+	 */
+	private static final ConcurrentMap<Class<?>, Optional<URI>> mGraphs = new ConcurrentHashMap<Class<?>, Optional<URI>>();
+
+	/**
+	 * No instances
+	 */
+	private ModelGraphs() {
+	}
+
+	/**
+	 * Return the named graph all the instances of a class are kept in
+	 * @param theClass the class
+	 * @return the graph, or null if the class is not partitioned
+	 */
+	public static URI graphOf(final Class<?> theClass) {
+		Optional<URI> aGraph = mGraphs.get(theClass);
+
+		if (aGraph == null) {
+			// same lookup as Empire's, which does not inherit the annotation
+			NamedGraph aNamedGraph = theClass.getAnnotation(NamedGraph.class);
+
+			aGraph = aNamedGraph != null && aNamedGraph.type() == NamedGraph.NamedGraphType.Static
+					 ? Optional.of(URI.create(aNamedGraph.value()))
+					 : Optional.<URI>absent();
+
+			mGraphs.put(theClass, aGraph);
+		}
+
+		return aGraph.orNull();
+	}
+
+	/**
+	 * Return whether or not the instances of a class are kept in a graph of their own, and the data source can write
+	 * to it directly
+	 * @param theClass the class
+	 * @param theSource the data source
+	 * @return true if the class is partitioned, false otherwise
+	 */
+	public static boolean isPartitioned(final Class<?> theClass, final DataSource theSource) {
+		return graphOf(theClass) != null && theSource instanceof SupportsNamedGraphs;
+	}
+
+	/**
+	 * Remove every statement in the named graph of a class, in one operation.  Other classes kept in the same graph are
+	 * cleared too.  The cached instances and query results of the class are invalidated.
+	 * @param theClass the class
+	 * @throws ImperiumException if the class is not partitioned, or the graph cannot be dropped
+	 */
+	public static void drop(final Class<?> theClass) {
+		DataSource aSource = (DataSource) Imperium.em().getDelegate();
+
+		if (!isPartitioned(theClass, aSource)) {
+			throw new ImperiumException(theClass.getName() + " is not kept in a named graph of its own", null);
+		}
+
+		try {
+			((SupportsNamedGraphs) aSource).remove(graphOf(theClass));
+		}
+		catch (DataSourceException e) {
+			throw new ImperiumException("Could not drop the graph of " + theClass.getName(), e);
+		}
+
+		WriteGenerations.advance(theClass);
+	}
+
+	/**
+	 * Forget the graphs of all classes, they may have been reloaded
+	 */
+	public static void clear() {
+		mGraphs.clear();
+	}
+}
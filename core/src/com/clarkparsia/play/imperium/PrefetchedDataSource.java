@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.ds.DataSource;
+import com.clarkparsia.empire.ds.QueryException;
+import com.clarkparsia.empire.ds.ResultSet;
+import com.clarkparsia.empire.ds.impl.AbstractResultSet;
+import com.clarkparsia.empire.ds.impl.DelegatingDataSource;
+
+import com.clarkparsia.openrdf.ExtGraph;
+
+import com.google.common.collect.Lists;
+
+import info.aduna.iteration.CloseableIteration;
+
+import org.openrdf.model.Graph;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.impl.EmptyBindingSet;
+import org.openrdf.query.parser.ParsedQuery;
+import org.openrdf.query.parser.QueryParser;
+import org.openrdf.query.parser.serql.SeRQLParser;
+import org.openrdf.query.parser.sparql.SPARQLParser;
+import org.openrdf.sail.SailConnection;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>Data source which answers queries from statements already fetched from another data source, so that Empire can
+ * build a batch of entities from the result of one query rather than describing each of them on its own.  The fetched
+ * statements are kept in an in-memory store; a query they give no answer to, such as one about a related entity which
+ * was not fetched, is sent to the data source they were fetched from.  Once {@link #release released}, every query is
+ * sent there, so the lazily loaded relations of the entities keep working after the batch is built.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+final class PrefetchedDataSource extends DelegatingDataSource {
+
+	/**
+	 * The fetched statements, or null once released
+	 */
+	private MemoryStore mStore;
+
+	/**
+	 * Create a new PrefetchedDataSource
+	 * @param theSource the data source the statements were fetched from
+	 * @param theGraph the named graph the statements were fetched from, or null if they were read from the whole data
+	 * source
+	 * @param theStatements the fetched statements
+	 * @throws QueryException if the statements cannot be kept
+	 */
+	PrefetchedDataSource(final DataSource theSource, final java.net.URI theGraph, final Collection<Statement> theStatements) throws QueryException {
+		super(theSource);
+
+		try {
+			mStore = new MemoryStore();
+			mStore.initialize();
+
+			Resource[] aContext = theGraph == null
+								  ? new Resource[0]
+								  : new Resource[] { mStore.getValueFactory().createURI(theGraph.toString()) };
+
+			SailConnection aConn = mStore.getConnection();
+
+			try {
+				for (Statement aStmt : theStatements) {
+					aConn.addStatement(aStmt.getSubject(), aStmt.getPredicate(), aStmt.getObject(), aContext);
+				}
+
+				aConn.commit();
+			}
+			finally {
+				aConn.close();
+			}
+		}
+		catch (Exception e) {
+			throw new QueryException(e);
+		}
+	}
+
+	/**
+	 * Drop the fetched statements; from now on every query is sent to the data source they were fetched from
+	 */
+	synchronized void release() {
+		if (mStore != null) {
+			try {
+				mStore.shutDown();
+			}
+			catch (Exception e) {
+				play.Logger.warn(e, "Could not shut down the store of prefetched statements");
+			}
+
+			mStore = null;
+		}
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public ResultSet selectQuery(final String theQuery) throws QueryException {
+		List<BindingSet> aResults = evaluate(theQuery);
+
+		if (aResults == null || aResults.isEmpty()) {
+			return super.selectQuery(theQuery);
+		}
+
+		return new AbstractResultSet(aResults) {
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public Graph graphQuery(final String theQuery) throws QueryException {
+		List<BindingSet> aResults = evaluate(theQuery);
+
+		if (aResults == null || aResults.isEmpty()) {
+			return super.graphQuery(theQuery);
+		}
+
+		ExtGraph aGraph = new ExtGraph();
+
+		for (BindingSet aBinding : aResults) {
+			Value aSubject = aBinding.getValue("subject");
+			Value aPredicate = aBinding.getValue("predicate");
+			Value aObject = aBinding.getValue("object");
+
+			if (aSubject instanceof Resource && aPredicate instanceof URI && aObject != null) {
+				aGraph.add((Resource) aSubject, (URI) aPredicate, aObject);
+			}
+		}
+
+		return aGraph;
+	}
+
+	/**
+	 * Evaluate a select or construct query against the fetched statements
+	 * @param theQuery the query, in the language of the data source the statements were fetched from
+	 * @return the solutions of the query, or null if the statements have been released.  The solutions of a construct
+	 * query bind the subject, predicate and object of each statement it constructs.
+	 * @throws QueryException if the query cannot be parsed or evaluated
+	 */
+	private synchronized List<BindingSet> evaluate(final String theQuery) throws QueryException {
+		if (mStore == null) {
+			return null;
+		}
+
+		QueryParser aParser = RdfQueries.isSerql(getDelegate()) ? new SeRQLParser() : new SPARQLParser();
+
+		try {
+			ParsedQuery aQuery = aParser.parseQuery(theQuery, null);
+
+			SailConnection aConn = mStore.getConnection();
+
+			try {
+				CloseableIteration<? extends BindingSet, QueryEvaluationException> aIter
+						= aConn.evaluate(aQuery.getTupleExpr(), aQuery.getDataset(), EmptyBindingSet.getInstance(), false);
+
+				try {
+					List<BindingSet> aResults = Lists.newArrayList();
+
+					while (aIter.hasNext()) {
+						aResults.add(aIter.next());
+					}
+
+					return aResults;
+				}
+				finally {
+					aIter.close();
+				}
+			}
+			finally {
+				aConn.close();
+			}
+		}
+		catch (Exception e) {
+			throw new QueryException(e);
+		}
+	}
+}
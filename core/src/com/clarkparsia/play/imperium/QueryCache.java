@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.play.imperium.annotations.Cached;
+import com.clarkparsia.play.imperium.metrics.Metrics;
+
+import java.util.Arrays;
+
+/**
+ * <p>Shared, bounded cache of the results of queries against the RDF database for the instances of {@link Cached}
+ * models, keyed by class, query text and parameters.  Results are usually the rdf:IDs of the matching instances, which
+ * are then loaded through the {@link EntityCache}, so a repeated query for reference data does not touch the RDF
+ * database at all.  The least recently used results are evicted once 'empire.queryCache.maxSize' results are cached,
+ * and results expire after the ttl of their class.  Saving or deleting an instance of a class, on any node,
+ * invalidates the cached results of that class through its {@link WriteGenerations write generation}.</p>
+ *
+ * <p>Only the write generation of the class a query is cached under is checked, so a query whose results depend on
+ * the instances of other classes may return stale results until they expire.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class QueryCache {
+
+	/**
+	 * Configuration property for the maximum number of cached results, 0 turns the cache off
+	 */
+	public static final String MAX_SIZE = "queryCache.maxSize";
+
+	/**
+	 * The cached results
+	 */
+	private static final GenerationCache<Object> mCache = new GenerationCache<Object>(MAX_SIZE, 1000);
+
+	/**
+	 * No instances
+	 */
+	private QueryCache() {
+	}
+
+	/**
+	 * Return whether or not the results of queries for a class are cached
+	 * @param theClass the class
+	 * @return true if they are cached, false otherwise
+	 */
+	public static boolean isCached(final Class<?> theClass) {
+		return EntityCache.isCached(theClass) && EmpirePlugin.getIntProperty(MAX_SIZE, 1000) > 0;
+	}
+
+	/**
+	 * Return the key a query is cached under
+	 * @param theClass the class the query is for
+	 * @param theQuery the text of the query, or any string which identifies it
+	 * @param theParams the parameters of the query
+	 * @return the key
+	 */
+	public static String key(final Class<?> theClass, final String theQuery, final Object... theParams) {
+		return theClass.getName() + "\n" + theQuery + "\n" + Arrays.deepToString(theParams);
+	}
+
+	/**
+	 * Return the cached result of a query
+	 * @param theClass the class the query is for
+	 * @param theKey the {@link #key key} of the query
+	 * @param <V> the type of the result
+	 * @return the cached result, or null if it is not cached or is stale
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> V get(final Class<?> theClass, final String theKey) {
+		Object aResult = mCache.get(theClass, theKey);
+
+		Metrics.event(aResult != null ? Metrics.Event.QUERY_CACHE_HIT : Metrics.Event.QUERY_CACHE_MISS);
+
+		return (V) aResult;
+	}
+
+	/**
+	 * Cache the result of a query.  The result is shared by every invocation which runs the query, it must not be
+	 * modified once it is cached.
+	 * @param theClass the class the query is for
+	 * @param theKey the {@link #key key} of the query
+	 * @param theResult the result of the query
+	 * @param theGeneration the {@link WriteGenerations#current write generation} of the class read before the query ran
+	 */
+	public static void put(final Class<?> theClass, final String theKey, final Object theResult, final String theGeneration) {
+		mCache.put(theClass, theKey, theResult, theGeneration);
+	}
+
+	/**
+	 * Remove everything from the cache
+	 */
+	public static void clear() {
+		mCache.clear();
+	}
+
+	/**
+	 * Return the number of queries answered from the cache
+	 * @return the number of hits
+	 */
+	public static long getHitCount() {
+		return mCache.getHitCount();
+	}
+
+	/**
+	 * Return the number of queries which had to go to the RDF database
+	 * @return the number of misses
+	 */
+	public static long getMissCount() {
+		return mCache.getMissCount();
+	}
+
+	/**
+	 * Return the number of cached results
+	 * @return the cache size
+	 */
+	public static int size() {
+		return mCache.size();
+	}
+}
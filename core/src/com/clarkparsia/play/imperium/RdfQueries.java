@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.Dialect;
+import com.clarkparsia.empire.ds.DataSource;
+import com.clarkparsia.empire.ds.QueryException;
+import com.clarkparsia.empire.ds.ResultSet;
+import com.clarkparsia.empire.impl.serql.SerqlDialect;
+
+import com.clarkparsia.openrdf.ExtGraph;
+
+import com.google.common.collect.Lists;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>Utility methods for building queries against an Empire {@link DataSource} which cover many resources in a single
+ * round trip, written in whichever of SPARQL or SeRQL the data source speaks.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class RdfQueries {
+
+	/**
+	 * No instances
+	 */
+	private RdfQueries() {
+	}
+
+	/**
+	 * Return whether or not the data source uses the SeRQL query language rather than SPARQL
+	 * @param theSource the data source
+	 * @return true if the source uses SeRQL, false otherwise
+	 */
+	public static boolean isSerql(final DataSource theSource) {
+		return theSource.getQueryFactory().getDialect() instanceof SerqlDialect;
+	}
+
+	/**
+	 * Return a filter expression which matches the given variable against any of the resources
+	 * @param theSource the data source the filter will be used with
+	 * @param theVar the name of the variable, without any dialect specific prefix
+	 * @param theResources the resources to match
+	 * @return the filter expression
+	 */
+	public static String anyOf(final DataSource theSource, final String theVar, final Collection<? extends Resource> theResources) {
+		Dialect aDialect = theSource.getQueryFactory().getDialect();
+
+		String aVar = isSerql(theSource) ? theVar : "?" + theVar;
+		String aOr = isSerql(theSource) ? " or " : " || ";
+
+		StringBuffer aFilter = new StringBuffer();
+
+		for (Resource aResource : theResources) {
+			if (aFilter.length() > 0) {
+				aFilter.append(aOr);
+			}
+
+			aFilter.append(aVar).append(" = ").append(aDialect.asQueryString(aResource));
+		}
+
+		return aFilter.toString();
+	}
+
+	/**
+	 * Return all the statements in the data source which have one of the given resources as their subject.
+	 * @param theSource the data source to query
+	 * @param theResources the subjects to describe
+	 * @return the statements about the resources
+	 * @throws QueryException if there is an error while querying
+	 */
+	public static ExtGraph describe(final DataSource theSource, final Collection<? extends Resource> theResources) throws QueryException {
+		return describe(theSource, null, theResources);
+	}
+
+	/**
+	 * Return all the statements in a named graph of the data source which have one of the given resources as their
+	 * subject.
+	 * @param theSource the data source to query
+	 * @param theGraph the graph to look in, or null to look in the whole data source
+	 * @param theResources the subjects to describe
+	 * @return the statements about the resources
+	 * @throws QueryException if there is an error while querying
+	 */
+	public static ExtGraph describe(final DataSource theSource, final java.net.URI theGraph, final Collection<? extends Resource> theResources) throws QueryException {
+		if (theResources.isEmpty()) {
+			return new ExtGraph();
+		}
+
+		String aQuery;
+
+		if (isSerql(theSource)) {
+			aQuery = "construct {s} p {o}\nfrom " + graph(theSource, theGraph) + "{s} p {o} where " + anyOf(theSource, "s", theResources);
+		}
+		else {
+			aQuery = "construct {?s ?p ?o}\n" + graph(theSource, theGraph) + "where {?s ?p ?o. filter(" + anyOf(theSource, "s", theResources) + ") }";
+		}
+
+		return new ExtGraph(theSource.graphQuery(aQuery));
+	}
+
+	/**
+	 * Return a select query for the values of some of the properties of every instance of a type, in a named graph if
+	 * one is given.  Each result binds an instance to the variable 's', one of the properties to 'p' and one of its
+	 * values to 'v', so an instance has one result per value of the properties, rather than one per combination of
+	 * their values; an instance without a value for any of them has a single result with 'p' and 'v' unbound.
+	 * @param theSource the data source the query will be run against
+	 * @param theGraph the graph to look in, or null to look in the whole data source
+	 * @param theType the type
+	 * @param theProperties the properties to select
+	 * @return the query
+	 */
+	public static String projection(final DataSource theSource, final java.net.URI theGraph, final Resource theType,
+									final List<? extends Resource> theProperties) {
+		Dialect aDialect = theSource.getQueryFactory().getDialect();
+
+		StringBuffer aQuery = new StringBuffer();
+
+		if (isSerql(theSource)) {
+			aQuery.append("select s, p, v\nfrom ").append(graph(theSource, theGraph)).append("{s} ").append(aDialect.asQueryString(RDF.TYPE)).append(" {").append(aDialect.asQueryString(theType)).append("}");
+
+			if (!theProperties.isEmpty()) {
+				aQuery.append(",\n[{s} p {v} where ");
+
+				for (int i = 0; i < theProperties.size(); i++) {
+					aQuery.append(i > 0 ? " or " : "").append("p = ").append(aDialect.asQueryString(theProperties.get(i)));
+				}
+
+				aQuery.append("]");
+			}
+		}
+		else {
+			aQuery.append("select ?s ?p ?v\n").append(graph(theSource, theGraph)).append("where {?s ").append(aDialect.asQueryString(RDF.TYPE)).append(" ").append(aDialect.asQueryString(theType)).append(".");
+
+			if (!theProperties.isEmpty()) {
+				aQuery.append("\noptional {?s ?p ?v. filter(");
+
+				for (int i = 0; i < theProperties.size(); i++) {
+					aQuery.append(i > 0 ? " || " : "").append("?p = ").append(aDialect.asQueryString(theProperties.get(i)));
+				}
+
+				aQuery.append(")}");
+			}
+
+			aQuery.append(" }");
+		}
+
+		return aQuery.toString();
+	}
+
+	/**
+	 * Return a page of the instances of a type, ordered by their id.  Pages can be selected by offset, or, which stays
+	 * cheap however deep the page, by giving the id of the last instance of the previous page.
+	 * @param theSource the data source to query
+	 * @param theType the type
+	 * @param theAfter only instances whose id sorts after this one are returned, or null to start with the first
+	 * @param theOffset the number of instances to skip
+	 * @param theLimit the maximum number of instances to return
+	 * @return the instances, in order
+	 * @throws QueryException if there is an error while querying
+	 */
+	public static List<Resource> instances(final DataSource theSource, final Resource theType, final String theAfter,
+										   final int theOffset, final int theLimit) throws QueryException {
+		return instances(theSource, null, theType, theAfter, theOffset, theLimit);
+	}
+
+	/**
+	 * Return a page of the instances of a type in a named graph, ordered by their id.  See
+	 * {@link #instances(DataSource, Resource, String, int, int)}.
+	 * @param theSource the data source to query
+	 * @param theGraph the graph to look in, or null to look in the whole data source
+	 * @param theType the type
+	 * @param theAfter only instances whose id sorts after this one are returned, or null to start with the first
+	 * @param theOffset the number of instances to skip
+	 * @param theLimit the maximum number of instances to return
+	 * @return the instances, in order
+	 * @throws QueryException if there is an error while querying
+	 */
+	public static List<Resource> instances(final DataSource theSource, final java.net.URI theGraph, final Resource theType,
+										   final String theAfter, final int theOffset, final int theLimit) throws QueryException {
+		Dialect aDialect = theSource.getQueryFactory().getDialect();
+
+		String aType = aDialect.asQueryString(RDF.TYPE) + " " + (isSerql(theSource) ? "{" + aDialect.asQueryString(theType) + "}" : aDialect.asQueryString(theType));
+		String aAfter = theAfter == null ? null : aDialect.asQueryString(ValueFactoryImpl.getInstance().createLiteral(theAfter));
+
+		String aQuery;
+
+		if (isSerql(theSource)) {
+			aQuery = "select distinct s\nfrom " + graph(theSource, theGraph) + "{s} " + aType
+					 + (aAfter != null ? "\nwhere str(s) > " + aAfter : "")
+					 + "\norder by s";
+		}
+		else {
+			aQuery = "select distinct ?s\n" + graph(theSource, theGraph) + "where {?s " + aType + "."
+					 + (aAfter != null ? " filter(str(?s) > " + aAfter + ")" : "")
+					 + " }\norder by ?s";
+		}
+
+		aQuery += "\nlimit " + theLimit + (theOffset > 0 ? "\noffset " + theOffset : "");
+
+		List<Resource> aInstances = Lists.newArrayList();
+
+		ResultSet aResults = theSource.selectQuery(aQuery);
+
+		try {
+			while (aResults.hasNext()) {
+				Value aValue = aResults.next().getValue("s");
+
+				if (aValue instanceof Resource) {
+					aInstances.add((Resource) aValue);
+				}
+			}
+		}
+		finally {
+			aResults.close();
+		}
+
+		return aInstances;
+	}
+
+	/**
+	 * Return the clause which scopes a query to a named graph: a SeRQL context, which goes after 'from', or a SPARQL
+	 * dataset, which goes before 'where'
+	 * @param theSource the data source the query will be run against
+	 * @param theGraph the graph, or null for the whole data source
+	 * @return the clause, or the empty string if there is no graph
+	 */
+	private static String graph(final DataSource theSource, final java.net.URI theGraph) {
+		if (theGraph == null) {
+			return "";
+		}
+
+		String aGraph = theSource.getQueryFactory().getDialect().asQueryString(ValueFactoryImpl.getInstance().createURI(theGraph.toString()));
+
+		return isSerql(theSource) ? "context " + aGraph + " " : "from " + aGraph + "\n";
+	}
+
+	/**
+	 * Run the cheapest possible query against the data source, to check that it is up and answering queries
+	 * @param theSource the data source
+	 * @throws QueryException if the query fails
+	 */
+	public static void ping(final DataSource theSource) throws QueryException {
+		String aQuery = isSerql(theSource)
+						? "select s\nfrom {s} p {o}\nlimit 1"
+						: "select ?s\nwhere {?s ?p ?o}\nlimit 1";
+
+		theSource.selectQuery(aQuery).close();
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.annotation.InvalidRdfException;
+import com.clarkparsia.empire.annotation.RdfGenerator;
+import com.clarkparsia.empire.ds.DataSourceException;
+import com.clarkparsia.empire.ds.MutableDataSource;
+
+import com.clarkparsia.openrdf.ExtGraph;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+
+import javax.persistence.EntityManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Buffers the RDF writes made during a transaction so they can be sent to the data source as a single combined
+ * remove and a single combined add when the transaction commits.  Repeated writes of the same entity, by rdf:ID, are
+ * merged so only its final state is written.</p>
+ *
+ * <p>Buffered writes do not go through the {@link EntityManager}, so they are not visible to queries until they are
+ * flushed, and cascades and entity lifecycle callbacks are not applied to them.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+final class RdfWriteBuffer {
+
+	/**
+	 * The pending writes, keyed by the rdf:ID of the entity, in the order they were first made
+	 */
+	private final Map<Resource, PendingWrite> mWrites = Maps.newLinkedHashMap();
+
+	/**
+	 * Buffer the save of an entity
+	 * @param theObj the entity to save
+	 * @throws InvalidRdfException if the entity is not a valid Empire entity
+	 */
+	void save(final Object theObj) throws InvalidRdfException {
+		mWrites.put(RdfGenerator.id(theObj), new PendingWrite(theObj, false));
+	}
+
+	/**
+	 * Buffer the removal of an entity
+	 * @param theObj the entity to remove
+	 * @throws InvalidRdfException if the entity is not a valid Empire entity
+	 */
+	void remove(final Object theObj) throws InvalidRdfException {
+		mWrites.put(RdfGenerator.id(theObj), new PendingWrite(theObj, true));
+	}
+
+	/**
+	 * Return whether or not there are any buffered writes
+	 * @return true if there are no buffered writes, false otherwise
+	 */
+	boolean isEmpty() {
+		return mWrites.isEmpty();
+	}
+
+	/**
+	 * Return the entities with buffered writes
+	 * @param theRemoved true to return the entities being removed, false to return the entities being saved
+	 * @return the buffered entities
+	 */
+	Collection<Object> entities(final boolean theRemoved) {
+		List<Object> aEntities = Lists.newArrayList();
+
+		for (PendingWrite aWrite : mWrites.values()) {
+			if (aWrite.mRemove == theRemoved) {
+				aEntities.add(aWrite.mEntity);
+			}
+		}
+
+		return aEntities;
+	}
+
+	/**
+	 * Discard all the buffered writes
+	 */
+	void clear() {
+		mWrites.clear();
+	}
+
+	/**
+	 * Send the buffered writes to the data source of the entity manager.  The current state of every buffered entity
+	 * is read with one query, then the statements which are no longer true are removed and the new statements are
+	 * added.  The buffer is empty afterwards, whether or not the flush succeeds.
+	 * @param theManager the entity manager whose data source the writes are sent to
+	 * @throws DataSourceException if there is an error reading from or writing to the data source
+	 * @throws InvalidRdfException if a buffered entity cannot be converted to RDF
+	 */
+	void flush(final EntityManager theManager) throws DataSourceException, InvalidRdfException {
+		if (mWrites.isEmpty()) {
+			return;
+		}
+
+		try {
+			MutableDataSource aSource = (MutableDataSource) theManager.getDelegate();
+
+			Set<Statement> aCurrent = Sets.newHashSet(RdfQueries.describe(aSource, mWrites.keySet()));
+			Set<Statement> aNew = Sets.newHashSet();
+
+			for (PendingWrite aWrite : mWrites.values()) {
+				if (!aWrite.mRemove) {
+					aNew.addAll(RdfGenerator.asRdf(aWrite.mEntity));
+				}
+			}
+
+			write(aSource, aCurrent, aNew);
+		}
+		finally {
+			mWrites.clear();
+		}
+	}
+
+	/**
+	 * Change the statements in the data source from one set to another, removing the statements which are no longer
+	 * true and adding the new ones, with at most one remove and one add.
+	 * @param theSource the data source to write to
+	 * @param theCurrent the statements currently in the data source
+	 * @param theNew the statements which should be in the data source
+	 * @return true if anything was written, false if the statements were unchanged
+	 * @throws DataSourceException if there is an error while writing to the data source
+	 */
+	static boolean write(final MutableDataSource theSource, final Set<Statement> theCurrent, final Set<Statement> theNew)
+			throws DataSourceException {
+		ExtGraph aRemove = new ExtGraph();
+		ExtGraph aAdd = new ExtGraph();
+
+		for (Statement aStmt : theCurrent) {
+			if (!theNew.contains(aStmt)) {
+				aRemove.add(aStmt);
+			}
+		}
+
+		for (Statement aStmt : theNew) {
+			if (!theCurrent.contains(aStmt)) {
+				aAdd.add(aStmt);
+			}
+		}
+
+		if (!aRemove.isEmpty()) {
+			theSource.remove(aRemove);
+		}
+
+		if (!aAdd.isEmpty()) {
+			theSource.add(aAdd);
+		}
+
+		return !aRemove.isEmpty() || !aAdd.isEmpty();
+	}
+
+	/**
+	 * A buffered write of an entity
+	 */
+	private static class PendingWrite {
+		private final Object mEntity;
+		private final boolean mRemove;
+
+		private PendingWrite(final Object theEntity, final boolean theRemove) {
+			mEntity = theEntity;
+			mRemove = theRemove;
+		}
+	}
+}
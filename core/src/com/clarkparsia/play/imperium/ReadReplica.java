@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.Empire;
+import com.clarkparsia.empire.config.EmpireConfiguration;
+
+import javax.persistence.EntityManagerFactory;
+
+import java.util.Collections;
+
+/**
+ * <p>Optional read replica of the RDF database, used by read-only invocations.  The replica is the Empire persistence
+ * unit named 'imperium-replica'; when Imperium builds the Empire configuration from the Play! configuration, it is
+ * made from the properties prefixed 'empire.replica.'.  Entity managers on the replica are not pooled.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+final class ReadReplica {
+
+	/**
+	 * The name of the persistence unit of the replica
+	 */
+	static final String UNIT = "imperium-replica";
+
+	/**
+	 * The prefix, after 'empire.', of the Play! configuration properties of the replica
+	 */
+	static final String PREFIX = "replica.";
+
+	/**
+	 * The factory for entity managers on the replica, or null if there is no replica
+	 */
+	private static EntityManagerFactory mFactory;
+
+	/**
+	 * No instances
+	 */
+	private ReadReplica() {
+	}
+
+	/**
+	 * Set up the replica, if the configuration has one
+	 * @param theConfig the Empire configuration
+	 */
+	static synchronized void configure(final EmpireConfiguration theConfig) {
+		clear();
+
+		if (theConfig != null && theConfig.hasUnit(UNIT)) {
+			mFactory = Empire.get().persistenceProvider().createEntityManagerFactory(UNIT, Collections.emptyMap());
+		}
+	}
+
+	/**
+	 * Return whether or not a replica is configured
+	 * @return true if there is a replica, false otherwise
+	 */
+	static synchronized boolean isConfigured() {
+		return mFactory != null;
+	}
+
+	/**
+	 * Create an instance of Imperium whose entity manager reads from the replica
+	 * @return the new instance
+	 */
+	static synchronized Imperium acquire() {
+		Imperium aImperium = new Imperium();
+
+		aImperium.mEntityManager = mFactory.createEntityManager();
+		aImperium.mReplica = true;
+
+		return aImperium;
+	}
+
+	/**
+	 * Close the entity manager of an instance created by {@link #acquire}
+	 * @param theImperium the instance
+	 */
+	static void release(final Imperium theImperium) {
+		try {
+			if (theImperium.mEntityManager.isOpen()) {
+				theImperium.mEntityManager.close();
+			}
+		}
+		catch (RuntimeException e) {
+			play.Logger.warn(e, "Error while closing a read replica entity manager");
+		}
+	}
+
+	/**
+	 * Close the replica
+	 */
+	static synchronized void clear() {
+		if (mFactory != null) {
+			try {
+				mFactory.close();
+			}
+			catch (RuntimeException e) {
+				play.Logger.warn(e, "Error while closing the read replica");
+			}
+
+			mFactory = null;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.clarkparsia.play.imperium;
+
+import play.PlayPlugin;
+
+import com.clarkparsia.play.imperium.jobs.WriteBehindQueue;
+
+/**
+ * <p>Drains the {@link WriteBehindQueue} when the application stops.  Play! stops its plugins in the order of their
+ * index, and the JPA plugin closes the entity manager factory at index 4, so this plugin has to be registered with a
+ * lower index than that for the writes which were not applied to be recorded in the sync outbox:</p>
+ *
+ * <pre>3:com.clarkparsia.play.imperium.WriteBehindPlugin</pre>
+ *
+ * <p>Play! itself uses every index below 4, so this shares index 3 with the DB plugin, and the order of the two is
+ * left to the order Play! reads them in.  That is harmless: the DB plugin does nothing when the application stops,
+ * and this plugin does nothing else.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class WriteBehindPlugin extends PlayPlugin {
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void onApplicationStop() {
+		WriteBehindQueue.shutdown();
+	}
+}
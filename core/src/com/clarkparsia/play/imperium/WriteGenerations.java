@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.play.imperium.models.EmpireModel;
+import com.clarkparsia.play.imperium.models.RdfModel;
+
+import play.cache.Cache;
+import play.libs.Codec;
+
+/**
+ * <p>Tracks a write generation for each model class: an opaque token which changes every time an instance of the class,
+ * or of one of its subclasses, is saved or deleted.  Anything cached from the RDF database is tagged with the generation
+ * it was read at, and is stale once the generation moves on.  Generations are kept in the Play! {@link Cache}, so when
+ * the cache is shared, e.g. memcached, a write on any node invalidates what every node has cached.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class WriteGenerations {
+
+	/**
+	 * Prefix of the Play! cache keys holding the generations
+	 */
+	private static final String KEY_PREFIX = "imperium.generation.";
+
+	/**
+	 * No instances
+	 */
+	private WriteGenerations() {
+	}
+
+	/**
+	 * Return the current write generation of a class
+	 * @param theClass the class
+	 * @return the current generation
+	 */
+	public static String current(final Class<?> theClass) {
+		String aKey = KEY_PREFIX + theClass.getName();
+
+		String aGeneration = (String) Cache.get(aKey);
+
+		if (aGeneration == null) {
+			// no writes seen, or the generation was evicted; either way start a new one
+			Cache.add(aKey, Codec.UUID());
+
+			aGeneration = (String) Cache.get(aKey);
+		}
+
+		return aGeneration;
+	}
+
+	/**
+	 * Move the write generation of a class, and of each of its model superclasses, forward because one of its
+	 * instances was written
+	 * @param theClass the class of the instance written
+	 */
+	public static void advance(final Class<?> theClass) {
+		for (Class<?> aClass = theClass; aClass != null && !isBaseClass(aClass); aClass = aClass.getSuperclass()) {
+			Cache.set(KEY_PREFIX + aClass.getName(), Codec.UUID());
+		}
+	}
+
+	/**
+	 * Return whether or not the class is one of the base classes no application model is queried as
+	 * @param theClass the class
+	 * @return true if it is a base class, false otherwise
+	 */
+	private static boolean isBaseClass(final Class<?> theClass) {
+		return theClass.equals(Object.class) || theClass.equals(EmpireModel.class) || theClass.equals(RdfModel.class);
+	}
+}
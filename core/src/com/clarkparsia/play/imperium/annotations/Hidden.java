@@ -21,7 +21,8 @@ import java.lang.annotation.Target;
 import java.lang.annotation.ElementType;
 
 /**
- * <p>Mark a field as hidden so it does not show up in the edit form.</p>
+ * <p>Mark a field as hidden so it does not show up in the edit form, or in the rows returned by
+ * {@link com.clarkparsia.play.imperium.models.EmpireModel#project} unless it is asked for by name.</p>
  *
  * @author Michael Grove
  * @since 0.1
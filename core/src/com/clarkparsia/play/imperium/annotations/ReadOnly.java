@@ -21,7 +21,9 @@ import java.lang.annotation.Target;
 import java.lang.annotation.ElementType;
 
 /**
- * <p>Mark a field as read-only.</p>
+ * <p>Mark a field as read-only.  On a model class, instances of the class cannot be saved or deleted through
+ * Imperium; on a controller, or one of its actions, the invocation is read-only: no transaction is begun, nothing can
+ * be written, and reads go to the read replica if one is configured.</p>
  *
  * @author Michael Grove
  * @since 0.1
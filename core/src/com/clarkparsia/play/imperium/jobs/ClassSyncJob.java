@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import play.jobs.Job;
+import play.Logger;
+import play.db.jpa.JPA;
+
+import java.util.Date;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import javax.persistence.Entity;
+
+import com.clarkparsia.play.imperium.models.RdfModel;
+import com.clarkparsia.play.imperium.models.SyncCheckpoint;
+
+import com.clarkparsia.play.imperium.Imperium;
+
+/**
+ * <p>Job to wipe and re-load the next page of the instances of a single {@link RdfModel} class into the RDF database,
+ * as part of a full sync run.  The page starts after the last row recorded in the {@link SyncCheckpoint} of the class,
+ * and the checkpoint is moved past it in the same transaction, so a run which is interrupted resumes after the last
+ * page which was committed.  Like any other Play! job, it runs with its own JPA and Empire transactions, which are
+ * committed when it completes and rolled back if it fails.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class ClassSyncJob extends Job<Boolean> {
+
+	/**
+	 * The class to synchronize
+	 */
+	private final Class<? extends RdfModel> mClass;
+
+	/**
+	 * The number of instances to load at a time
+	 */
+	private final int mPageSize;
+
+	/**
+	 * The id of the run the page belongs to
+	 */
+	private final String mRunId;
+
+	/**
+	 * Create a new ClassSyncJob
+	 * @param theClass the class to synchronize
+	 * @param thePageSize the number of instances to load at a time
+	 * @param theRunId the id of the full sync run
+	 */
+	public ClassSyncJob(final Class<? extends RdfModel> theClass, final int thePageSize, final String theRunId) {
+		mClass = theClass;
+		mPageSize = thePageSize;
+		mRunId = theRunId;
+	}
+
+	/**
+	 * Wipe and re-load the next page of instances of the model class, ordered by id, and {@link Imperium#bulkLoad bulk
+	 * load} it.
+	 * @return true if there may be more instances to load, false if the class is done
+	 */
+	@Override
+	public Boolean doJobWithResult() {
+		SyncCheckpoint aCheckpoint = SyncCheckpoint.find(mRunId, mClass.getName());
+
+		if (aCheckpoint == null || aCheckpoint.completed) {
+			return false;
+		}
+
+		if (aCheckpoint.lastId == null) {
+			Logger.info("Synchronizing %s", mClass.getName());
+		}
+
+		List<?> aPage = JPA.em().createQuery("select e from " + entityName(mClass) + " e where e.id > :last order by e.id")
+				.setParameter("last", aCheckpoint.lastId == null ? Long.MIN_VALUE : aCheckpoint.lastId)
+				.setMaxResults(mPageSize)
+				.getResultList();
+
+		List<RdfModel> aUnidentified = Lists.newArrayList();
+
+		for (Object aObj : aPage) {
+			if (((RdfModel) aObj).rdfid == null) {
+				aUnidentified.add((RdfModel) aObj);
+			}
+		}
+
+		// the rdf side of the whole page is replaced in one go, or just added if the graph of the class was emptied
+		// when the run started
+		Imperium.bulkLoad(aPage, !aCheckpoint.reload);
+
+		if (!aUnidentified.isEmpty()) {
+			// play only flushes the changes of the models which are being saved, so the rdfids the load assigned are
+			// flushed the same way, rather than through RdfModel.save() which would write the rdf side again
+			for (RdfModel aModel : aUnidentified) {
+				aModel.willBeSaved = true;
+			}
+
+			try {
+				JPA.em().flush();
+			}
+			finally {
+				for (RdfModel aModel : aUnidentified) {
+					aModel.willBeSaved = false;
+				}
+			}
+		}
+
+		if (!aPage.isEmpty()) {
+			aCheckpoint.lastId = ((RdfModel) aPage.get(aPage.size() - 1)).getId();
+		}
+
+		aCheckpoint.synced += aPage.size();
+		aCheckpoint.completed = aPage.size() < mPageSize;
+		aCheckpoint.updated = new Date();
+		aCheckpoint.save();
+
+		return !aCheckpoint.completed;
+	}
+
+	/**
+	 * Run the job for the next page, in its own transactions.  Unlike {@link #call}, which logs and swallows any
+	 * failure, the failure of the page is rethrown.
+	 * @return true if there may be more instances to load, false if the class is done
+	 * @throws Exception if the page could not be synchronized, in which case its transactions were rolled back
+	 */
+	boolean next() throws Exception {
+		Boolean aMore = call();
+
+		if (wasError) {
+			if (lastException instanceof Exception) {
+				throw (Exception) lastException;
+			}
+			else {
+				throw new RuntimeException(lastException);
+			}
+		}
+
+		return Boolean.TRUE.equals(aMore);
+	}
+
+	/**
+	 * Return the JPQL entity name of a model class
+	 * @param theClass the model class
+	 * @return the entity name
+	 */
+	static String entityName(final Class<?> theClass) {
+		Entity aEntity = theClass.getAnnotation(Entity.class);
+
+		if (aEntity != null && aEntity.name().length() > 0) {
+			return aEntity.name();
+		}
+		else {
+			return theClass.getSimpleName();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import play.Logger;
+import play.db.jpa.JPA;
+import play.db.jpa.JPAPlugin;
+
+import java.util.List;
+
+import com.clarkparsia.play.imperium.EmpirePlugin;
+import com.clarkparsia.play.imperium.Imperium;
+import com.clarkparsia.play.imperium.models.RdfModel;
+import com.clarkparsia.play.imperium.models.SyncLogEntry;
+
+import com.google.common.collect.Lists;
+
+/**
+ * <p>Orders the two writes of an {@link RdfModel} save or delete made during an invocation: the RDF write is first
+ * prepared, by recording it in the {@link SyncLogEntry} journal in the same JPA transaction as the change to the
+ * model, so it is durable exactly when the model change is; the JPA transaction then commits; and finally, before the
+ * invocation returns, the RDF write is applied and its journal entry removed.  If the application stops, or the RDF
+ * database fails, between the commit and the apply, the entry is still in the journal and the {@link SyncJob} replays
+ * just that write.</p>
+ *
+ * <p>Ordered writes are off by default, so RdfModel writes go to the RDF database during the invocation, and can be
+ * turned on with 'empire.writes.ordered'.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class CommitJournal {
+
+	/**
+	 * Configuration property to turn ordered writes on or off
+	 */
+	public static final String ENABLED = "writes.ordered";
+
+	/**
+	 * The ids of the journal entries prepared by the current invocation
+	 */
+	private static final ThreadLocal<List<Long>> mPrepared = new ThreadLocal<List<Long>>();
+
+	/**
+	 * No instances
+	 */
+	private CommitJournal() {
+	}
+
+	/**
+	 * Return whether or not writes made now can be ordered; they must be made inside an invocation with a JPA
+	 * transaction which the journal entry can join.
+	 * @return true if writes are ordered, false if they should be written to the RDF database immediately
+	 */
+	public static boolean isEnabled() {
+		return EmpirePlugin.getBooleanProperty(ENABLED, false)
+			   && EmpirePlugin.isInvocationActive()
+			   && JPA.isEnabled()
+			   && JPA.local.get() != null;
+	}
+
+	/**
+	 * Prepare the RDF write of a model by journaling it in the current JPA transaction
+	 * @param theModel the model written
+	 * @param theOperation the write made
+	 */
+	public static void prepare(final RdfModel theModel, final SyncLogEntry.Operation theOperation) {
+		List<Long> aPrepared = mPrepared.get();
+
+		if (aPrepared == null) {
+			aPrepared = Lists.newArrayList();
+			mPrepared.set(aPrepared);
+		}
+
+		aPrepared.add(SyncLogEntry.record(theModel, theOperation).getId());
+	}
+
+	/**
+	 * Forget the writes prepared by the current invocation, because it failed; its JPA transaction, and so the journal
+	 * entries, are rolled back.
+	 */
+	public static void discard() {
+		mPrepared.remove();
+	}
+
+	/**
+	 * Apply the writes prepared by the current invocation, once its JPA transaction has committed, and remove their
+	 * journal entries.  They are applied before the invocation returns, with JPA and Empire transactions of their own;
+	 * the Empire transaction is committed before the journal entries are removed, so an entry can only be lost once its
+	 * write is in the RDF database.  If they cannot be applied, the entries are left in the journal for the
+	 * {@link SyncJob} to replay.
+	 */
+	public static void apply() {
+		List<Long> aPrepared = mPrepared.get();
+
+		mPrepared.remove();
+
+		if (aPrepared == null || aPrepared.isEmpty()) {
+			return;
+		}
+
+		boolean aApplied = false;
+
+		JPAPlugin.startTx(false);
+
+		try {
+			EmpirePlugin.startTx();
+
+			List<SyncLogEntry> aEntries = Lists.newArrayList();
+
+			for (Long aId : aPrepared) {
+				SyncLogEntry aEntry = JPA.em().find(SyncLogEntry.class, aId);
+
+				if (aEntry == null) {
+					// already replayed by the sync job
+					continue;
+				}
+
+				SyncJob.apply(aEntry.entityClass, aEntry.entityId, aEntry.rdfid, aEntry.operation);
+
+				aEntries.add(aEntry);
+			}
+
+			EmpirePlugin.closeTx(false);
+
+			for (SyncLogEntry aEntry : aEntries) {
+				JPA.em().remove(aEntry);
+			}
+
+			JPAPlugin.closeTx(false);
+
+			aApplied = true;
+		}
+		catch (Throwable e) {
+			Logger.warn(e, "Could not apply %s journaled RDF writes, they will be replayed", aPrepared.size());
+		}
+		finally {
+			if (!aApplied) {
+				try {
+					EmpirePlugin.closeTx(true);
+				}
+				finally {
+					JPAPlugin.closeTx(true);
+				}
+
+				SyncJob.schedule();
+			}
+
+			Imperium.close();
+		}
+	}
+}
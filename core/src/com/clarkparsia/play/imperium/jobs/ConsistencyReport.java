@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>The outcome of a {@link ConsistencyVerifier} run: for each {@link com.clarkparsia.play.imperium.models.RdfModel}
+ * class, how many entities were compared and how many of them had drifted between the relational and the RDF
+ * database.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class ConsistencyReport {
+
+	/**
+	 * When the run started
+	 */
+	private final Date mStarted = new Date();
+
+	/**
+	 * When the run finished
+	 */
+	private Date mFinished;
+
+	/**
+	 * The drift of each class, in the order they were checked
+	 */
+	private final List<ClassDrift> mClasses = Lists.newArrayList();
+
+	ConsistencyReport() {
+	}
+
+	void add(final ClassDrift theDrift) {
+		mClasses.add(theDrift);
+	}
+
+	void finish() {
+		mFinished = new Date();
+	}
+
+	/**
+	 * Return when the run started
+	 * @return the start time
+	 */
+	public Date getStarted() {
+		return mStarted;
+	}
+
+	/**
+	 * Return when the run finished
+	 * @return the finish time, or null if the run did not finish
+	 */
+	public Date getFinished() {
+		return mFinished;
+	}
+
+	/**
+	 * Return the drift of each class which was checked
+	 * @return the drift of each class
+	 */
+	public List<ClassDrift> getClasses() {
+		return Collections.unmodifiableList(mClasses);
+	}
+
+	/**
+	 * Return the total number of entities which differ between the two databases
+	 * @return the number of divergent entities
+	 */
+	public long getDriftCount() {
+		long aCount = 0;
+
+		for (ClassDrift aDrift : mClasses) {
+			aCount += aDrift.getDriftCount();
+		}
+
+		return aCount;
+	}
+
+	/**
+	 * Return the total number of divergent entities which were written again
+	 * @return the number of repaired entities
+	 */
+	public long getRepairedCount() {
+		long aCount = 0;
+
+		for (ClassDrift aDrift : mClasses) {
+			aCount += aDrift.getRepairedCount();
+		}
+
+		return aCount;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String toString() {
+		return mClasses.size() + " classes, " + getDriftCount() + " divergent entities, " + getRepairedCount() + " repaired"
+			   + (mFinished == null ? "" : " (" + (mFinished.getTime() - mStarted.getTime()) + " ms)");
+	}
+
+	/**
+	 * The drift of the entities of a single class
+	 */
+	public static final class ClassDrift {
+		private final String mClass;
+		private final long mRelationalCount;
+		private final long mRdfCount;
+
+		int divergentBuckets;
+		int missing;
+		int changed;
+		int orphaned;
+		int repaired;
+
+		ClassDrift(final String theClass, final long theRelationalCount, final long theRdfCount) {
+			mClass = theClass;
+			mRelationalCount = theRelationalCount;
+			mRdfCount = theRdfCount;
+		}
+
+		/**
+		 * Return the name of the class
+		 * @return the class name
+		 */
+		public String getClassName() {
+			return mClass;
+		}
+
+		/**
+		 * Return the number of entities of the class in the relational database
+		 * @return the number of relational entities
+		 */
+		public long getRelationalCount() {
+			return mRelationalCount;
+		}
+
+		/**
+		 * Return the number of entities of the class in the RDF database
+		 * @return the number of RDF entities
+		 */
+		public long getRdfCount() {
+			return mRdfCount;
+		}
+
+		/**
+		 * Return the number of hash buckets whose entities differ, and had to be compared one by one
+		 * @return the number of divergent buckets
+		 */
+		public int getDivergentBuckets() {
+			return divergentBuckets;
+		}
+
+		/**
+		 * Return the number of relational entities which are not in the RDF database
+		 * @return the number of missing entities
+		 */
+		public int getMissingCount() {
+			return missing;
+		}
+
+		/**
+		 * Return the number of entities whose RDF is not what the relational entity would be written as
+		 * @return the number of changed entities
+		 */
+		public int getChangedCount() {
+			return changed;
+		}
+
+		/**
+		 * Return the number of entities in the RDF database which are no longer in the relational database
+		 * @return the number of orphaned entities
+		 */
+		public int getOrphanedCount() {
+			return orphaned;
+		}
+
+		/**
+		 * Return the number of divergent entities
+		 * @return the number of missing, changed and orphaned entities
+		 */
+		public int getDriftCount() {
+			return missing + changed + orphaned;
+		}
+
+		/**
+		 * Return the number of divergent entities which were written again
+		 * @return the number of repaired entities
+		 */
+		public int getRepairedCount() {
+			return repaired;
+		}
+
+		/**
+		 * @inheritDoc
+		 */
+		@Override
+		public String toString() {
+			return mClass + ": " + mRelationalCount + " relational/" + mRdfCount + " rdf, " + missing + " missing, "
+				   + changed + " changed, " + orphaned + " orphaned, " + repaired + " repaired";
+		}
+	}
+}
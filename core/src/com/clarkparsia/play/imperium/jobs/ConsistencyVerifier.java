@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import play.jobs.Job;
+import play.Play;
+import play.Logger;
+import play.db.jpa.JPA;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.lang.reflect.Modifier;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+
+import com.clarkparsia.empire.annotation.NamedGraph;
+import com.clarkparsia.empire.annotation.RdfGenerator;
+import com.clarkparsia.empire.ds.DataSource;
+import com.clarkparsia.empire.util.BeanReflectUtil;
+
+import com.clarkparsia.play.imperium.EmpirePlugin;
+import com.clarkparsia.play.imperium.Imperium;
+import com.clarkparsia.play.imperium.ModelGraphs;
+import com.clarkparsia.play.imperium.RdfQueries;
+import com.clarkparsia.play.imperium.models.EmpireModel;
+import com.clarkparsia.play.imperium.models.ModelMetadata;
+import com.clarkparsia.play.imperium.models.RdfModel;
+import com.clarkparsia.play.imperium.models.SyncLease;
+import com.clarkparsia.play.imperium.models.SyncLogEntry;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>Job which checks that the RDF database holds exactly what the relational database would be written as, and,
+ * optionally, writes again only the entities which have drifted.</p>
+ *
+ * <p>For each {@link RdfModel} class, both sides are first summarized into a {@link DigestTree}: the RDF each
+ * relational row would be written as, and the RDF each instance of the class actually has in the RDF database.  Only
+ * the buckets whose hashes differ are then compared entity by entity, so the memory used, and the number of entities
+ * written again, follow the amount of drift rather than the size of the tables.  Entities missing from, or different
+ * in, the RDF database are written again from their relational row; entities which are only in the RDF database are
+ * removed from it, unless their rdfs:Class is shared with another model class.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class ConsistencyVerifier extends Job<ConsistencyReport> {
+
+	/**
+	 * Configuration property for the number of buckets the entities of a class are hashed into
+	 */
+	public static final String BUCKETS = "verify.buckets";
+
+	/**
+	 * Configuration property for how often the consistency of the two databases is checked and repaired, e.g. '6h';
+	 * they are not checked periodically unless it is set
+	 */
+	public static final String EVERY = "verify.every";
+
+	/**
+	 * The name of the lease consistency checks are coordinated with
+	 */
+	static final String LEASE_NAME = "imperium.verify";
+
+	/**
+	 * The report of the last check to complete on this node
+	 */
+	private static volatile ConsistencyReport mLastReport;
+
+	/**
+	 * Whether or not divergent entities are written again
+	 */
+	private final boolean mRepair;
+
+	/**
+	 * Whether or not this job holds the verify lease
+	 */
+	private boolean mLeased = false;
+
+	/**
+	 * Create a new ConsistencyVerifier
+	 * @param theRepair true to write the divergent entities again, false to only report them
+	 */
+	public ConsistencyVerifier(final boolean theRepair) {
+		mRepair = theRepair;
+	}
+
+	/**
+	 * Check the consistency of the two databases now, without changing either of them
+	 * @return the report of the check, or null if it ran on another node
+	 */
+	public static Future<ConsistencyReport> check() {
+		return new ConsistencyVerifier(false).now();
+	}
+
+	/**
+	 * Check the consistency of the two databases now, and write the divergent entities again
+	 * @return the report of the check, or null if it ran on another node
+	 */
+	public static Future<ConsistencyReport> repair() {
+		return new ConsistencyVerifier(true).now();
+	}
+
+	/**
+	 * Return the report of the last check to complete on this node
+	 * @return the last report, or null if there has not been a check
+	 */
+	public static ConsistencyReport getLastReport() {
+		return mLastReport;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public ConsistencyReport doJobWithResult() throws Exception {
+		if (SyncJob.isLeased()) {
+			mLeased = SyncLease.acquire(LEASE_NAME, SyncJob.node(), EmpirePlugin.getIntProperty(SyncJob.LEASE_TTL, 10 * 60 * 1000), false);
+
+			if (!mLeased) {
+				Logger.info("Not starting ConsistencyVerifier, it is running on another node");
+				return null;
+			}
+		}
+
+		ConsistencyReport aReport = new ConsistencyReport();
+
+		List<Class<? extends RdfModel>> aClasses = Lists.newArrayList();
+
+		for (Class<?> aClass : Play.classloader.getAssignableClasses(RdfModel.class)) {
+			if (RdfModel.class.isAssignableFrom(aClass) && !aClass.isInterface() && !Modifier.isAbstract(aClass.getModifiers())) {
+				aClasses.add(aClass.asSubclass(RdfModel.class));
+			}
+		}
+
+		Set<URI> aSharedTypes = sharedTypes(aClasses);
+
+		for (Class<? extends RdfModel> aClass : aClasses) {
+			if (ModelMetadata.rdfTypeOf(aClass) == null) {
+				Logger.info("Not checking %s, it has no rdfs:Class", aClass.getName());
+				continue;
+			}
+
+			if (BeanReflectUtil.hasAnnotation(aClass, NamedGraph.class) && ModelGraphs.graphOf(aClass) == null) {
+				// the statements of each instance are in their own graph, which a describe does not reliably reach
+				Logger.info("Not checking %s, its instances are kept in named graphs of their own", aClass.getName());
+				continue;
+			}
+
+			boolean aShared = aSharedTypes.contains(ModelMetadata.rdfTypeOf(aClass));
+
+			if (aShared) {
+				Logger.info("Not looking for orphans of %s, its rdfs:Class is shared with another model class", aClass.getName());
+			}
+
+			ConsistencyReport.ClassDrift aDrift = verify(aClass, !aShared);
+
+			if (aDrift.getDriftCount() > 0) {
+				Logger.warn("Consistency check: %s", aDrift);
+			}
+
+			aReport.add(aDrift);
+		}
+
+		aReport.finish();
+
+		Logger.info("Consistency check: %s", aReport);
+
+		mLastReport = aReport;
+
+		return aReport;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void _finally() {
+		super._finally();
+
+		if (mLeased) {
+			mLeased = false;
+
+			try {
+				SyncLease.release(LEASE_NAME, SyncJob.node());
+			}
+			catch (RuntimeException e) {
+				Logger.warn(e, "Could not release the verify lease, it will expire");
+			}
+		}
+	}
+
+	/**
+	 * Return the rdfs:Classes which are used by more than one model class, or by an {@link EmpireModel}.  The
+	 * instances of such a type in the RDF database are not all rows of a single relational table, so those without a
+	 * row cannot be taken to be orphans.
+	 * @param theClasses the concrete {@link RdfModel} classes
+	 * @return the shared types
+	 */
+	private static Set<URI> sharedTypes(final List<Class<? extends RdfModel>> theClasses) {
+		Set<URI> aTypes = Sets.newHashSet();
+		Set<URI> aShared = Sets.newHashSet();
+
+		for (Class<? extends RdfModel> aClass : theClasses) {
+			URI aType = ModelMetadata.rdfTypeOf(aClass);
+
+			if (aType != null && !aTypes.add(aType)) {
+				aShared.add(aType);
+			}
+		}
+
+		for (Class<?> aClass : Play.classloader.getAssignableClasses(EmpireModel.class)) {
+			URI aType = ModelMetadata.rdfTypeOf(aClass);
+
+			if (aType != null) {
+				aShared.add(aType);
+			}
+		}
+
+		return aShared;
+	}
+
+	/**
+	 * Compare, and optionally repair, the entities of a single class
+	 * @param theClass the class
+	 * @param theFindOrphans true to look for, and remove, instances in the RDF database with no relational row; false
+	 * if the rdfs:Class of the class is shared, and such instances may belong to another class
+	 * @return the drift of the class
+	 * @throws Exception if either database cannot be read, or the RDF of an entity cannot be generated
+	 */
+	private ConsistencyReport.ClassDrift verify(final Class<? extends RdfModel> theClass, final boolean theFindOrphans) throws Exception {
+		int aBuckets = Math.max(1, EmpirePlugin.getIntProperty(BUCKETS, 256));
+
+		URI aType = ModelMetadata.rdfTypeOf(theClass);
+
+		DigestTree aRelational = new DigestTree(aBuckets);
+		DigestTree aRdf = new DigestTree(aBuckets);
+
+		scanRelational(theClass, aRelational, null);
+		scanRdf(ModelGraphs.graphOf(theClass), aType, aRdf);
+
+		ConsistencyReport.ClassDrift aDrift = new ConsistencyReport.ClassDrift(theClass.getName(), aRelational.size(), aRdf.size());
+
+		BitSet aDivergent = aRelational.diff(aRdf);
+
+		aDrift.divergentBuckets = aDivergent.cardinality();
+
+		if (aDivergent.isEmpty()) {
+			return aDrift;
+		}
+
+		// second pass, entity by entity, over the divergent buckets only
+		aRelational = new DigestTree(aBuckets, aDivergent);
+		aRdf = new DigestTree(aBuckets, aDivergent);
+
+		Map<String, Long> aIds = Maps.newHashMap();
+
+		scanRelational(theClass, aRelational, aIds);
+		scanRdf(ModelGraphs.graphOf(theClass), aType, aRdf);
+
+		List<String> aRewrite = Lists.newArrayList();
+		List<String> aRemove = Lists.newArrayList();
+
+		for (Map.Entry<String, Long> aEntity : aRelational.entities().entrySet()) {
+			Long aRdfDigest = aRdf.entities().get(aEntity.getKey());
+
+			if (aRdfDigest == null) {
+				aDrift.missing++;
+				aRewrite.add(aEntity.getKey());
+			}
+			else if (!aRdfDigest.equals(aEntity.getValue())) {
+				aDrift.changed++;
+				aRewrite.add(aEntity.getKey());
+			}
+		}
+
+		for (String aId : aRdf.entities().keySet()) {
+			if (theFindOrphans && !aRelational.entities().containsKey(aId)) {
+				aDrift.orphaned++;
+				aRemove.add(aId);
+			}
+		}
+
+		if (mRepair) {
+			for (String aId : aRewrite) {
+				aDrift.repaired += repair(theClass, aIds.get(aId), aId, SyncLogEntry.Operation.SAVE);
+			}
+
+			for (String aId : aRemove) {
+				// the row is looked up again by rdf:ID, it may have been written since the scan
+				aDrift.repaired += repair(theClass, null, aId, SyncLogEntry.Operation.DELETE);
+			}
+
+			Imperium.em().flush();
+		}
+
+		return aDrift;
+	}
+
+	/**
+	 * Write a single divergent entity again, from its relational row if it still has one
+	 * @param theClass the class of the entity
+	 * @param theId the relational id of the entity, or null if it has no relational row
+	 * @param theRdfId the rdf:ID of the entity
+	 * @param theOperation the write to make
+	 * @return 1 if the entity was written, 0 otherwise
+	 */
+	private int repair(final Class<? extends RdfModel> theClass, final Long theId, final String theRdfId,
+					   final SyncLogEntry.Operation theOperation) {
+		try {
+			SyncJob.apply(theClass.getName(), theId, theRdfId, theOperation);
+
+			return 1;
+		}
+		catch (Exception e) {
+			Logger.error(e, "Could not repair %s %s", theClass.getName(), theRdfId);
+
+			return 0;
+		}
+	}
+
+	/**
+	 * Add the RDF each relational row of a class would be written as to a tree.  Rows are read in pages by id, and
+	 * the entity manager is cleared after each page so memory use does not grow with the size of the table.
+	 * @param theClass the class
+	 * @param theTree the tree
+	 * @param theIds if not null, receives the relational id of each row added to the tree, keyed by rdf:ID
+	 * @throws Exception if the RDF of a row cannot be generated
+	 */
+	private void scanRelational(final Class<? extends RdfModel> theClass, final DigestTree theTree, final Map<String, Long> theIds) throws Exception {
+		int aPageSize = EmpirePlugin.getIntProperty(SyncJob.PAGE_SIZE, SyncJob.DEFAULT_PAGE_SIZE);
+
+		String aQuery = "select e from " + ClassSyncJob.entityName(theClass) + " e where e.id > :last order by e.id";
+
+		Long aLastId = Long.MIN_VALUE;
+
+		while (true) {
+			List<?> aPage = JPA.em().createQuery(aQuery)
+					.setParameter("last", aLastId)
+					.setMaxResults(aPageSize)
+					.getResultList();
+
+			for (Object aObj : aPage) {
+				RdfModel aModel = (RdfModel) aObj;
+
+				aLastId = aModel.getId();
+
+				if (aModel.rdfid == null || !theTree.tracks(aModel.rdfid)) {
+					continue;
+				}
+
+				theTree.add(aModel.rdfid, RdfGenerator.asRdf(aModel));
+
+				if (theIds != null) {
+					theIds.put(aModel.rdfid, aModel.getId());
+				}
+			}
+
+			JPA.em().clear();
+
+			if (aPage.size() < aPageSize) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Add the RDF of every instance of a type in the RDF database to a tree.  Instances are read in pages by id, and
+	 * only those the tree tracks are described.
+	 * @param theGraph the named graph the instances are kept in, or null if they are not partitioned
+	 * @param theType the type
+	 * @param theTree the tree
+	 * @throws Exception if the RDF database cannot be queried
+	 */
+	private void scanRdf(final java.net.URI theGraph, final URI theType, final DigestTree theTree) throws Exception {
+		DataSource aSource = (DataSource) Imperium.em().getDelegate();
+
+		int aPageSize = EmpirePlugin.getIntProperty(SyncJob.PAGE_SIZE, SyncJob.DEFAULT_PAGE_SIZE);
+
+		String aAfter = null;
+
+		while (true) {
+			List<Resource> aPage = RdfQueries.instances(aSource, theGraph, theType, aAfter, 0, aPageSize);
+
+			List<Resource> aTracked = Lists.newArrayList();
+
+			for (Resource aResource : aPage) {
+				if (theTree.tracks(aResource.stringValue())) {
+					aTracked.add(aResource);
+				}
+			}
+
+			Map<Resource, Collection<Statement>> aStatements = Maps.newHashMap();
+
+			for (Statement aStmt : RdfQueries.describe(aSource, theGraph, aTracked)) {
+				Collection<Statement> aSubject = aStatements.get(aStmt.getSubject());
+
+				if (aSubject == null) {
+					aSubject = Sets.newHashSet();
+					aStatements.put(aStmt.getSubject(), aSubject);
+				}
+
+				aSubject.add(aStmt);
+			}
+
+			for (Resource aResource : aTracked) {
+				theTree.add(aResource.stringValue(), aStatements.get(aResource));
+			}
+
+			if (!aPage.isEmpty()) {
+				aAfter = aPage.get(aPage.size() - 1).stringValue();
+			}
+
+			if (aPage.size() < aPageSize) {
+				break;
+			}
+		}
+	}
+}
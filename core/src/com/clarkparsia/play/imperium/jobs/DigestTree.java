@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Two level hash tree of the RDF of the entities of one class, as found on one side of the sync: the entities are
+ * spread over a fixed number of buckets by rdf:ID, and each bucket hashes the digests of its entities.  Comparing the
+ * buckets of two trees narrows down where they differ, so only the entities of the differing buckets need to be
+ * compared, and kept in memory, one by one.</p>
+ *
+ * <p>A tree either summarizes every entity into its buckets, or, given the buckets to look at, records the digest of
+ * each entity in those buckets.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+final class DigestTree {
+
+	/**
+	 * The hash of each bucket
+	 */
+	private final long[] mBuckets;
+
+	/**
+	 * The buckets whose entities are recorded, or null if the tree only summarizes
+	 */
+	private final BitSet mDetail;
+
+	/**
+	 * The digest of each recorded entity, keyed by rdf:ID
+	 */
+	private final Map<String, Long> mEntities = Maps.newHashMap();
+
+	/**
+	 * The number of entities added to the tree
+	 */
+	private long mCount = 0;
+
+	/**
+	 * Create a tree which summarizes every entity
+	 * @param theBuckets the number of buckets
+	 */
+	DigestTree(final int theBuckets) {
+		this(theBuckets, null);
+	}
+
+	/**
+	 * Create a tree which records the entities of some of the buckets
+	 * @param theBuckets the number of buckets
+	 * @param theDetail the buckets whose entities are recorded
+	 */
+	DigestTree(final int theBuckets, final BitSet theDetail) {
+		mBuckets = new long[theBuckets];
+		mDetail = theDetail;
+	}
+
+	/**
+	 * Return whether or not the tree is interested in an entity
+	 * @param theId the rdf:ID of the entity
+	 * @return true if the entity should be added to the tree, false otherwise
+	 */
+	boolean tracks(final String theId) {
+		return mDetail == null || mDetail.get(bucket(theId));
+	}
+
+	/**
+	 * Add an entity to the tree.  Only the statements whose subject is the entity count towards its digest.
+	 * @param theId the rdf:ID of the entity
+	 * @param theStatements the RDF of the entity
+	 */
+	void add(final String theId, final Collection<Statement> theStatements) {
+		if (theStatements == null || !tracks(theId)) {
+			return;
+		}
+
+		List<Statement> aStatements = Lists.newArrayList();
+
+		for (Statement aStmt : theStatements) {
+			if (aStmt.getSubject().stringValue().equals(theId)) {
+				aStatements.add(aStmt);
+			}
+		}
+
+		if (aStatements.isEmpty()) {
+			// an entity without statements is no different from one which is not there at all
+			return;
+		}
+
+		long aDigest = digest(aStatements);
+
+		if (mDetail != null) {
+			mEntities.put(theId, aDigest);
+		}
+		else {
+			mBuckets[bucket(theId)] += hash(theId) * 31 + aDigest;
+		}
+
+		mCount++;
+	}
+
+	/**
+	 * Return the number of entities added to the tree
+	 * @return the number of entities
+	 */
+	long size() {
+		return mCount;
+	}
+
+	/**
+	 * Return the buckets whose hash differs from the same bucket of another tree
+	 * @param theOther the other tree
+	 * @return the differing buckets
+	 */
+	BitSet diff(final DigestTree theOther) {
+		BitSet aDiff = new BitSet(mBuckets.length);
+
+		for (int i = 0; i < mBuckets.length; i++) {
+			if (mBuckets[i] != theOther.mBuckets[i]) {
+				aDiff.set(i);
+			}
+		}
+
+		return aDiff;
+	}
+
+	/**
+	 * Return the digests of the recorded entities
+	 * @return the digest of each recorded entity, keyed by rdf:ID
+	 */
+	Map<String, Long> entities() {
+		return mEntities;
+	}
+
+	/**
+	 * Return the bucket of an entity
+	 * @param theId the rdf:ID of the entity
+	 * @return the bucket
+	 */
+	private int bucket(final String theId) {
+		return (theId.hashCode() & Integer.MAX_VALUE) % mBuckets.length;
+	}
+
+	/**
+	 * Return the digest of a set of statements, which does not depend on their order.  Blank nodes are all treated
+	 * alike, since their ids differ from one store to the next.
+	 * @param theStatements the statements
+	 * @return the digest
+	 */
+	static long digest(final Collection<Statement> theStatements) {
+		long aDigest = 0;
+
+		for (Statement aStmt : theStatements) {
+			aDigest += hash(term(aStmt.getSubject()) + " " + term(aStmt.getPredicate()) + " " + term(aStmt.getObject()));
+		}
+
+		return aDigest;
+	}
+
+	/**
+	 * Return the text a value is hashed as
+	 * @param theValue the value
+	 * @return its text
+	 */
+	private static String term(final Value theValue) {
+		if (theValue instanceof BNode) {
+			return "_:";
+		}
+		else if (theValue instanceof Literal) {
+			Literal aLiteral = (Literal) theValue;
+
+			return "\"" + aLiteral.getLabel() + "\"@" + aLiteral.getLanguage() + "^^" + aLiteral.getDatatype();
+		}
+		else {
+			return "<" + theValue.stringValue() + ">";
+		}
+	}
+
+	/**
+	 * Return a 64 bit hash of a string
+	 * @param theString the string
+	 * @return the first 64 bits of its MD5 hash
+	 */
+	private static long hash(final String theString) {
+		try {
+			byte[] aHash = MessageDigest.getInstance("MD5").digest(theString.getBytes("UTF-8"));
+
+			long aResult = 0;
+
+			for (int i = 0; i < 8; i++) {
+				aResult = (aResult << 8) | (aHash[i] & 0xff);
+			}
+
+			return aResult;
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -23,95 +23,636 @@ import play.Logger;
 import play.db.jpa.JPA;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Modifier;
 
+import com.clarkparsia.empire.ds.DataSource;
+
+import com.clarkparsia.play.imperium.models.EmpireModel;
 import com.clarkparsia.play.imperium.models.RdfModel;
+import com.clarkparsia.play.imperium.models.SyncCheckpoint;
+import com.clarkparsia.play.imperium.models.SyncLease;
+import com.clarkparsia.play.imperium.models.SyncLogEntry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.clarkparsia.play.imperium.EmpirePlugin;
 
 import com.clarkparsia.play.imperium.Imperium;
+import com.clarkparsia.play.imperium.ModelGraphs;
+import com.clarkparsia.play.imperium.metrics.Metrics;
 
 /**
- * <p>Simple Job to synchronize the data from the normal relational database to the RDF database.</p>
+ * <p>Job to synchronize the data from the normal relational database to the RDF database.  By default, the job
+ * replays only the RDF writes recorded in the {@link SyncLogEntry} outbox.  A full wipe-and-load of every
+ * {@link RdfModel} is available as an explicit administrative operation via {@link #scheduleFullSync}.</p>
  *
  * @author Michael Grove
  * @since 0.1
- * @version 0.1
+ * @version 0.2
  */
-public class SyncJob extends Job {
-	private static Lock mLock = new ReentrantLock();
-	private static boolean mScheduled = false;
+public class SyncJob extends Job<Void> {
+
+	/**
+	 * Configuration property for the number of rows read at a time by a full sync
+	 */
+	public static final String PAGE_SIZE = "sync.pageSize";
+
+	/**
+	 * The default number of rows read at a time by a full sync
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 500;
+
+	/**
+	 * Configuration property for the number of model classes a full sync will synchronize at the same time
+	 */
+	public static final String CONCURRENCY = "sync.concurrency";
+
+	/**
+	 * Configuration property to coordinate sync jobs between the nodes of a cluster with a {@link SyncLease}
+	 */
+	public static final String LEASE = "sync.lease";
+
+	/**
+	 * Configuration property for the number of milliseconds a node holds the sync lease for before renewing it
+	 */
+	public static final String LEASE_TTL = "sync.leaseTtl";
+
+	/**
+	 * Configuration property for the name identifying this node as the holder of the sync lease
+	 */
+	public static final String NODE = "sync.node";
+
+	/**
+	 * The name of the lease sync jobs are coordinated with
+	 */
+	static final String LEASE_NAME = "imperium.sync";
+
+	/**
+	 * Whether or not this job re-copies every model rather than replaying the outbox
+	 */
+	private final boolean mFullSync;
+
+	/**
+	 * Whether or not this job holds the sync lease
+	 */
+	private boolean mLeased = false;
+
+	/**
+	 * Keeps the sync lease from expiring while this job runs
+	 */
+	private ScheduledFuture<?> mRenewer;
+
+	/**
+	 * The outcome of this job, if it is a replay, or null until it has one
+	 */
+	private SyncScheduler.Result mResult;
 
+	/**
+	 * Create a new SyncJob which replays the outbox
+	 */
+	public SyncJob() {
+		this(false);
+	}
+
+	/**
+	 * Create a new SyncJob
+	 * @param theFullSync true to re-copy every model to the RDF database, false to only replay the outbox
+	 */
+	public SyncJob(final boolean theFullSync) {
+		mFullSync = theFullSync;
+	}
+
+	/**
+	 * Schedule a replay of the outbox of failed RDF writes.  When the replay runs is up to the {@link SyncScheduler};
+	 * only one replay is scheduled at a time on each node, and when the nodes share the {@link SyncLease}, the
+	 * requests of all of them are coalesced into the first replay to run.
+	 */
 	public static void schedule() {
-		mLock.lock();
+		if (isLeased()) {
+			try {
+				SyncLease.trigger(LEASE_NAME);
+			}
+			catch (RuntimeException e) {
+				Logger.warn(e, "Could not record the sync request in the sync lease");
+			}
+		}
+
+		SyncScheduler.trigger();
+	}
 
-		if (!mScheduled) {
+	/**
+	 * Submit a replay of the outbox to the Play! jobs executor
+	 * @param theDelay the number of milliseconds to wait before starting it
+	 * @return the future result of the replay
+	 */
+	static Future<?> submit(final long theDelay) {
+		SyncJob aJob = new SyncJob();
 
-			SyncJob aJob = new SyncJob();
+		Future<?> aFuture = JobsPlugin.executor.schedule((Callable<Void>) aJob, theDelay, TimeUnit.MILLISECONDS);
 
-			// TODO: can this just be done with new SyncJob.in(60 * 1000); ??
-			JobsPlugin.executor.schedule((Callable) aJob, 60, TimeUnit.SECONDS);
+		aJob.executor = JobsPlugin.executor;
+
+		return aFuture;
+	}
 
-			aJob.executor = JobsPlugin.executor;
+	/**
+	 * Start a full re-synchronization of every {@link RdfModel} in the relational database to the RDF database.  This
+	 * is expensive on large databases, it should only be used when the two have diverged in ways the outbox does not
+	 * capture, such as changes made to the database outside of the application.
+	 * @return the future result of the sync
+	 */
+	public static Future<?> scheduleFullSync() {
+		Metrics.event(Metrics.Event.SYNC_SCHEDULED);
 
-			mScheduled = true;
+		return new SyncJob(true).now();
+	}
+
+	/**
+	 * Record, in their own transaction, the RDF writes of models which could not be sent to the RDF database, and
+	 * schedule a replay of them.
+	 * @param theSaved the models whose saves failed
+	 * @param theDeleted the models whose deletes failed
+	 */
+	public static void recordFailures(final Collection<RdfModel> theSaved, final Collection<RdfModel> theDeleted) {
+		if (theSaved.isEmpty() && theDeleted.isEmpty()) {
+			return;
 		}
 
-		mLock.unlock();
+		new Job<Void>() {
+			@Override
+			public void doJob() {
+				for (RdfModel aModel : theSaved) {
+					SyncLogEntry.record(aModel, SyncLogEntry.Operation.SAVE);
+				}
+
+				for (RdfModel aModel : theDeleted) {
+					SyncLogEntry.record(aModel, SyncLogEntry.Operation.DELETE);
+				}
+
+				schedule();
+			}
+		}.now();
 	}
 
 	@Override
 	public void doJob() {
+		if (!mFullSync) {
+			// let other replays get scheduled now that we are running one
+			SyncScheduler.started();
+
+			if (!SyncScheduler.isStoreAvailable()) {
+				// leave the triggers on the lease for when the database is back
+				Logger.warn("Not starting SyncJob, the RDF database is not available");
+
+				mResult = SyncScheduler.Result.STORE_UNAVAILABLE;
+				return;
+			}
+		}
+
+		if (isLeased()) {
+			final long aTtl = EmpirePlugin.getIntProperty(LEASE_TTL, 10 * 60 * 1000);
+
+			// a replay only runs if one was requested since the lease was last taken, otherwise another node has
+			// already done it
+			mLeased = SyncLease.acquire(LEASE_NAME, node(), aTtl, !mFullSync);
+
+			if (!mLeased) {
+				Logger.info("Not starting SyncJob, it is running on another node or has already run");
+
+				mResult = SyncScheduler.Result.SKIPPED;
+				return;
+			}
+
+			mRenewer = JobsPlugin.executor.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						SyncLease.renew(LEASE_NAME, node(), aTtl);
+					}
+					catch (RuntimeException e) {
+						Logger.warn(e, "Could not renew the sync lease");
+					}
+				}
+			}, aTtl / 3, aTtl / 3, TimeUnit.MILLISECONDS);
+		}
+
 		Logger.info("Starting SyncJob");
 
-		// let other sync jobs get scheduled now that we are running one
-		mLock.lock();
+		if (mFullSync) {
+			fullSync();
+		}
+		else {
+			mResult = replay() == 0 ? SyncScheduler.Result.SUCCEEDED : SyncScheduler.Result.FAILED;
+		}
+
+		Logger.info("Completing SyncJob");
+
+		JPA.em().flush();
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void onException(final Throwable theError) {
+		mResult = SyncScheduler.Result.FAILED;
 
-		mScheduled = false;
+		super.onException(theError);
+	}
 
-		mLock.unlock();
+	/**
+	 * Report the outcome of a replay to the {@link SyncScheduler}, and give up the sync lease once the job, and its
+	 * transaction, have completed.  If another sync was requested while the job ran, schedule it.
+	 */
+	@Override
+	public void _finally() {
+		super._finally();
 
-		List<Class> classesToSynch = Play.classloader.getAssignableClasses(RdfModel.class);
+		if (!mFullSync) {
+			SyncScheduler.finished(mResult != null ? mResult : SyncScheduler.Result.FAILED);
+		}
+
+		if (mRenewer != null) {
+			mRenewer.cancel(false);
+			mRenewer = null;
+		}
+
+		if (mLeased) {
+			mLeased = false;
+
+			try {
+				if (!mFullSync && mResult != SyncScheduler.Result.SUCCEEDED) {
+					// the writes which could not be replayed still need to be, by whichever node retries first
+					SyncLease.trigger(LEASE_NAME);
+				}
+
+				if (SyncLease.release(LEASE_NAME, node())) {
+					schedule();
+				}
+			}
+			catch (RuntimeException e) {
+				Logger.warn(e, "Could not release the sync lease, it will expire");
+			}
+		}
+	}
+
+	/**
+	 * Return whether or not sync jobs are coordinated through the {@link SyncLease}
+	 * @return true if they are, false if each node runs its own
+	 */
+	static boolean isLeased() {
+		return JPA.isEnabled() && EmpirePlugin.getBooleanProperty(LEASE, true);
+	}
+
+	/**
+	 * Return the name of this node as the holder of the sync lease
+	 * @return the node name, 'empire.sync.node' if it is set and the JVM name, usually pid@host, otherwise
+	 */
+	static String node() {
+		return EmpirePlugin.getProperty(NODE, ManagementFactory.getRuntimeMXBean().getName());
+	}
+
+	/**
+	 * Replay the writes recorded in the outbox against the RDF database.  Only the most recent entry for each model
+	 * is replayed, entries which replay successfully are removed from the outbox.
+	 * @return the number of models whose writes could not be replayed
+	 */
+	private int replay() {
+		@SuppressWarnings("unchecked")
+		List<SyncLogEntry> aEntries = JPA.em().createQuery("select e from SyncLogEntry e order by e.id").getResultList();
+
+		Map<String, List<SyncLogEntry>> aEntriesByModel = Maps.newLinkedHashMap();
+
+		for (SyncLogEntry aEntry : aEntries) {
+			// re-insert so the iteration order follows the latest entry for each model
+			List<SyncLogEntry> aModelEntries = aEntriesByModel.remove(aEntry.modelKey());
+
+			if (aModelEntries == null) {
+				aModelEntries = Lists.newArrayList();
+			}
+
+			aModelEntries.add(aEntry);
+			aEntriesByModel.put(aEntry.modelKey(), aModelEntries);
+		}
+
+		Logger.info("Replaying %s RDF writes for %s models", aEntries.size(), aEntriesByModel.size());
+
+		int aFailed = 0;
+
+		for (List<SyncLogEntry> aModelEntries : aEntriesByModel.values()) {
+			SyncLogEntry aLatest = aModelEntries.get(aModelEntries.size() - 1);
+
+			try {
+				replay(aLatest);
+
+				for (SyncLogEntry aEntry : aModelEntries) {
+					aEntry.delete();
+				}
+			}
+			catch (Exception e) {
+				Logger.error(e, "Could not replay %s of %s", aLatest.operation, aLatest.modelKey());
+
+				aLatest.attempts++;
+				aLatest.save();
+
+				aFailed++;
+			}
+		}
 
-		for (Class aClass : classesToSynch) {
+		return aFailed;
+	}
+
+	/**
+	 * Apply a single outbox entry to the RDF database
+	 * @param theEntry the entry to replay
+	 * @throws Exception if the entry cannot be replayed
+	 */
+	private void replay(final SyncLogEntry theEntry) throws Exception {
+		apply(theEntry.entityClass, theEntry.entityId, theEntry.rdfid, theEntry.operation);
+	}
+
+	/**
+	 * Write the current relational state of a model to the RDF database.  If the model no longer exists in the
+	 * relational database, neither by its id nor by its rdf:ID, it is removed from the RDF database.  Must be called
+	 * with both a JPA and an Empire context.
+	 * @param theClass the name of the model class
+	 * @param theId the relational id of the model
+	 * @param theRdfId the rdf:ID of the model
+	 * @param theOperation the write made to the model
+	 * @throws Exception if the model cannot be written
+	 */
+	static void apply(final String theClass, final Long theId, final String theRdfId,
+					  final SyncLogEntry.Operation theOperation) throws Exception {
+		Class<? extends RdfModel> aClass = Play.classloader.loadClass(theClass).asSubclass(RdfModel.class);
+
+		RdfModel aModel = null;
+
+		if (theOperation == SyncLogEntry.Operation.SAVE && theId != null) {
+			aModel = JPA.em().find(aClass, theId);
+		}
+
+		if (aModel == null && theRdfId != null) {
+			// the row may not be known by its id, look it up by rdf:ID before treating the model as deleted
+			List<?> aRows = JPA.em().createQuery("select e from " + ClassSyncJob.entityName(aClass) + " e where e.rdfid = :rdfid")
+					.setParameter("rdfid", theRdfId)
+					.setMaxResults(1)
+					.getResultList();
+
+			if (!aRows.isEmpty()) {
+				aModel = (RdfModel) aRows.get(0);
+			}
+		}
+
+		if (aModel != null) {
+			// only the statements which changed are written
+			Imperium.sync(aModel);
+		}
+		else if (theRdfId != null) {
+			// the model was deleted, or has since been deleted, from the relational database
+			Object aRdfModel = Imperium.em().find(aClass, theRdfId);
+
+			if (aRdfModel != null) {
+				Imperium.remove(aRdfModel);
+			}
+		}
+	}
+
+	/**
+	 * Wipe and re-load every {@link RdfModel} in the relational database into the RDF database.  Each model class is
+	 * copied a page at a time by {@link ClassSyncJob ClassSyncJobs}, each in its own transaction, at most
+	 * 'empire.sync.concurrency' classes at a time, so a failure in one class does not undo the work done for the
+	 * others.  Progress is recorded in a {@link SyncCheckpoint} per class; if the last run did not complete, it is
+	 * resumed rather than started over.  A new run drops the {@link ModelGraphs named graphs} of the classes first, and
+	 * their pages are then added without the per-page removal.
+	 */
+	private void fullSync() {
+		final int aPageSize = EmpirePlugin.getIntProperty(PAGE_SIZE, DEFAULT_PAGE_SIZE);
+		int aConcurrency = Math.max(1, EmpirePlugin.getIntProperty(CONCURRENCY, Runtime.getRuntime().availableProcessors()));
+
+		final List<Class<? extends RdfModel>> aClasses = Lists.newArrayList();
+
+		for (Class<?> aClass : Play.classloader.getAssignableClasses(RdfModel.class)) {
 			if (RdfModel.class.isAssignableFrom(aClass) && !aClass.isInterface() && !Modifier.isAbstract(aClass.getModifiers())) {
-				try {
-					List aList = (List) aClass.asSubclass(RdfModel.class).getMethod("findAll").invoke(null);
+				aClasses.add(aClass.asSubclass(RdfModel.class));
+			}
+		}
 
-					for (Object aObj : aList) {
-						RdfModel aModel = (RdfModel) aObj;
+		Map<String, Future<?>> aResults = Maps.newLinkedHashMap();
 
-						try {
-							Imperium.em().remove(aModel);
-						}
-						catch (IllegalArgumentException e) {
-							// if it doesn't exist, that's ok, we were removing it anyway
-						}
+		ExecutorService aExecutor = Executors.newFixedThreadPool(aConcurrency);
+
+		try {
+			// the checkpoints have to be committed before the pages which update them can see them
+			final Throwable[] aError = new Throwable[1];
+
+			final String aRunId = aExecutor.submit((Callable<String>) new Job<String>() {
+				@Override
+				public String doJobWithResult() {
+					return startRun(aClasses);
+				}
+
+				@Override
+				public void onException(final Throwable e) {
+					aError[0] = e;
 
-						Imperium.em().persist(aModel);
+					super.onException(e);
+				}
+			}).get();
+
+			if (aRunId == null) {
+				throw new RuntimeException("Could not start the full sync", aError[0]);
+			}
+
+			for (final Class<? extends RdfModel> aClass : aClasses) {
+				aResults.put(aClass.getName(), aExecutor.submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						while (new ClassSyncJob(aClass, aPageSize, aRunId).next()) {
+							// one page per transaction until the class is done, or one of them fails
+						}
 
-						// persist the rdfid of these things
-						aModel.save();
+						return null;
 					}
+				}));
+			}
+
+			for (Map.Entry<String, Future<?>> aResult : aResults.entrySet()) {
+				try {
+					aResult.getValue().get();
 				}
-				catch (Exception e) {
-					e.printStackTrace();
+				catch (ExecutionException e) {
+					Logger.error(e.getCause(), "Could not synchronize %s, it will be resumed by the next full sync", aResult.getKey());
+				}
+			}
+
+			@SuppressWarnings("unchecked")
+			List<SyncCheckpoint> aCheckpoints = JPA.em().createQuery("select c from SyncCheckpoint c where c.runId = :run")
+					.setParameter("run", aRunId)
+					.getResultList();
 
-					Imperium.em().getTransaction().rollback();
+			List<String> aSynced = Lists.newArrayList();
 
-					throw new RuntimeException(e);
+			for (SyncCheckpoint aCheckpoint : aCheckpoints) {
+				if (aCheckpoint.completed) {
+					aSynced.add(aCheckpoint.entityClass);
 				}
 			}
+
+			Logger.info("Synchronized %s of %s model classes", aSynced.size(), aCheckpoints.size());
+
+			if (!aSynced.isEmpty()) {
+				// everything recorded for these classes before the run started has been re-copied
+				JPA.em().createQuery("delete from SyncLogEntry e where e.timestamp < :start and e.entityClass in (:classes)")
+						.setParameter("start", aCheckpoints.get(0).started)
+						.setParameter("classes", aSynced)
+						.executeUpdate();
+			}
 		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 
-		Logger.info("Completing SyncJob");
+			throw new RuntimeException(e);
+		}
+		finally {
+			aExecutor.shutdown();
+		}
+	}
 
-		JPA.em().flush();
+	/**
+	 * Return the run to continue, which is the last run if it did not complete, or a new run with a checkpoint for each
+	 * class otherwise.  The checkpoints of older runs are removed.  Must be called with a JPA context.
+	 * @param theClasses the model classes to synchronize
+	 * @return the id of the run
+	 */
+	private static String startRun(final List<Class<? extends RdfModel>> theClasses) {
+		String aRunId = SyncCheckpoint.unfinishedRun();
+
+		boolean aResumed = aRunId != null;
+
+		if (aResumed) {
+			Logger.info("Resuming full sync %s", aRunId);
+		}
+		else {
+			aRunId = UUID.randomUUID().toString();
+
+			Logger.info("Starting full sync %s", aRunId);
+		}
+
+		JPA.em().createQuery("delete from SyncCheckpoint c where c.runId <> :run")
+				.setParameter("run", aRunId)
+				.executeUpdate();
+
+		Date aStarted = new Date();
+
+		for (Class<? extends RdfModel> aClass : theClasses) {
+			SyncCheckpoint aCheckpoint = SyncCheckpoint.find(aRunId, aClass.getName());
+
+			if (aCheckpoint != null) {
+				aStarted = aCheckpoint.started;
+			}
+		}
+
+		Set<java.net.URI> aDropped = aResumed ? Collections.<java.net.URI>emptySet() : dropGraphs(theClasses);
+
+		for (Class<? extends RdfModel> aClass : theClasses) {
+			if (SyncCheckpoint.find(aRunId, aClass.getName()) == null) {
+				// a class which is new since the run started is copied in full as part of it
+				SyncCheckpoint aCheckpoint = new SyncCheckpoint();
+				aCheckpoint.runId = aRunId;
+				aCheckpoint.entityClass = aClass.getName();
+				aCheckpoint.started = aStarted;
+				aCheckpoint.reload = aDropped.contains(ModelGraphs.graphOf(aClass));
+				aCheckpoint.total = (Long) JPA.em().createQuery("select count(e) from " + ClassSyncJob.entityName(aClass) + " e").getSingleResult();
+				aCheckpoint.save();
+			}
+		}
+
+		return aRunId;
+	}
+
+	/**
+	 * Empty the named graphs the model classes are kept in, so that they can be re-loaded without removing the
+	 * statements about each model first.  A graph is only dropped if every class kept in it is synchronized; graphs
+	 * shared with {@link EmpireModel EmpireModels}, which are not in the relational database, are left alone.  Must
+	 * be called with an Empire context.
+	 * @param theClasses the model classes to synchronize
+	 * @return the graphs which were dropped
+	 */
+	private static Set<java.net.URI> dropGraphs(final List<Class<? extends RdfModel>> theClasses) {
+		Set<java.net.URI> aGraphs = Sets.newHashSet();
+		Map<java.net.URI, Class<?>> aToDrop = Maps.newHashMap();
 
-		// TODO: do we need to lock the db while doing the sync since it is effectively a wipe and load?
+		DataSource aSource = (DataSource) Imperium.em().getDelegate();
 
+		for (Class<? extends RdfModel> aClass : theClasses) {
+			if (ModelGraphs.isPartitioned(aClass, aSource)) {
+				aToDrop.put(ModelGraphs.graphOf(aClass), aClass);
+			}
+		}
+
+		for (Class<?> aClass : Play.classloader.getAssignableClasses(EmpireModel.class)) {
+			aToDrop.remove(ModelGraphs.graphOf(aClass));
+		}
+
+		for (Map.Entry<java.net.URI, Class<?>> aGraph : aToDrop.entrySet()) {
+			Logger.info("Dropping graph %s to re-load it", aGraph.getKey());
+
+			ModelGraphs.drop(aGraph.getValue());
+
+			aGraphs.add(aGraph.getKey());
+		}
+
+		return aGraphs;
+	}
+
+	/**
+	 * Return the progress of the latest full sync run
+	 * @return its progress, or null if there has not been a full sync
+	 */
+	public static SyncProgress getProgress() {
+		if (!JPA.isEnabled()) {
+			return null;
+		}
+
+		List<SyncCheckpoint> aCheckpoints = SyncCheckpoint.latestRun();
+
+		return aCheckpoints.isEmpty() ? null : new SyncProgress(aCheckpoints);
+	}
+
+	/**
+	 * Resume the last full sync run if it did not complete, for instance because the application was stopped while it
+	 * was running
+	 */
+	public static void resumeFullSync() {
+		SyncProgress aProgress;
+
+		try {
+			aProgress = getProgress();
+		}
+		catch (RuntimeException e) {
+			Logger.warn(e, "Could not read the full sync checkpoints, is SyncCheckpoint one of the jpa.entities?");
+			return;
+		}
+
+		if (aProgress != null && !aProgress.isCompleted()) {
+			Logger.info("The last full sync did not complete, resuming it");
+
+			scheduleFullSync();
+		}
 	}
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import com.clarkparsia.play.imperium.models.SyncCheckpoint;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>The progress of a full sync run, summed over the {@link SyncCheckpoint checkpoints} of its classes, with an
+ * estimate of when it will complete based on the rate at which it has copied rows so far.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class SyncProgress {
+	private final String mRunId;
+	private final Date mStarted;
+	private final Date mUpdated;
+	private final long mSynced;
+	private final long mTotal;
+	private final int mClasses;
+	private final int mCompletedClasses;
+
+	/**
+	 * Create the progress of a run from its checkpoints
+	 * @param theCheckpoints the checkpoints of the run, there must be at least one
+	 */
+	SyncProgress(final List<SyncCheckpoint> theCheckpoints) {
+		Date aUpdated = null;
+		long aSynced = 0;
+		long aTotal = 0;
+		int aCompleted = 0;
+
+		for (SyncCheckpoint aCheckpoint : theCheckpoints) {
+			aSynced += aCheckpoint.synced;
+			aTotal += aCheckpoint.total;
+
+			if (aCheckpoint.completed) {
+				aCompleted++;
+			}
+
+			if (aCheckpoint.updated != null && (aUpdated == null || aCheckpoint.updated.after(aUpdated))) {
+				aUpdated = aCheckpoint.updated;
+			}
+		}
+
+		mRunId = theCheckpoints.get(0).runId;
+		mStarted = theCheckpoints.get(0).started;
+		mUpdated = aUpdated;
+		mSynced = aSynced;
+		mTotal = aTotal;
+		mClasses = theCheckpoints.size();
+		mCompletedClasses = aCompleted;
+	}
+
+	/**
+	 * Return the id of the run
+	 * @return the run id
+	 */
+	public String getRunId() {
+		return mRunId;
+	}
+
+	/**
+	 * Return when the run started
+	 * @return the start time
+	 */
+	public Date getStarted() {
+		return mStarted;
+	}
+
+	/**
+	 * Return when a page of rows was last copied
+	 * @return the time of the last update, or null if nothing has been copied yet
+	 */
+	public Date getUpdated() {
+		return mUpdated;
+	}
+
+	/**
+	 * Return the number of rows copied so far
+	 * @return the number of rows copied
+	 */
+	public long getSynced() {
+		return mSynced;
+	}
+
+	/**
+	 * Return the number of rows there were to copy when the run started
+	 * @return the total number of rows
+	 */
+	public long getTotal() {
+		return mTotal;
+	}
+
+	/**
+	 * Return whether or not every class of the run has been copied
+	 * @return true if the run has completed, false otherwise
+	 */
+	public boolean isCompleted() {
+		return mCompletedClasses == mClasses;
+	}
+
+	/**
+	 * Return how much of the run is done
+	 * @return the fraction of the rows copied, between 0 and 1
+	 */
+	public double getFraction() {
+		if (isCompleted()) {
+			return 1;
+		}
+
+		return mTotal == 0 ? 0 : Math.min(1, (double) mSynced / mTotal);
+	}
+
+	/**
+	 * Return when the run is expected to complete, at the rate it has copied rows so far
+	 * @return the estimated completion time, the time the run completed, or null if there is nothing to estimate from
+	 */
+	public Date getEstimatedCompletion() {
+		if (isCompleted()) {
+			return mUpdated;
+		}
+
+		if (mUpdated == null || mSynced == 0) {
+			return null;
+		}
+
+		double aRate = (double) mSynced / Math.max(1, mUpdated.getTime() - mStarted.getTime());
+
+		long aRemaining = Math.max(0, mTotal - mSynced);
+
+		return new Date(System.currentTimeMillis() + (long) (aRemaining / aRate));
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String toString() {
+		Date aEta = getEstimatedCompletion();
+
+		return "run " + mRunId + ": " + mSynced + "/" + mTotal + " rows, " + mCompletedClasses + "/" + mClasses + " classes"
+			   + (isCompleted() ? ", completed " + aEta : aEta != null ? ", eta " + aEta : "");
+	}
+}
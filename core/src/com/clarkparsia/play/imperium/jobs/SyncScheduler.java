@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import play.Logger;
+
+import com.clarkparsia.empire.ds.DataSource;
+
+import com.clarkparsia.play.imperium.EmpirePlugin;
+import com.clarkparsia.play.imperium.Imperium;
+import com.clarkparsia.play.imperium.RdfQueries;
+import com.clarkparsia.play.imperium.metrics.Metrics;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Decides when the {@link SyncJob} replays the outbox.  Requests for a replay made while one is already scheduled
+ * are coalesced into it.  After a replay fails, or finds the RDF database unavailable, the next one is put off for
+ * twice as long as the last, up to a maximum, with some random jitter so that the nodes of a cluster do not retry in
+ * step; a successful replay resets the delay.  Replays never start less than 'empire.sync.minInterval' milliseconds
+ * apart.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class SyncScheduler {
+
+	/**
+	 * Configuration property for the number of milliseconds between a request for a replay and the replay
+	 */
+	public static final String DELAY = "sync.delay";
+
+	/**
+	 * Configuration property for the longest delay, in milliseconds, backing off after failures can lead to
+	 */
+	public static final String MAX_DELAY = "sync.maxDelay";
+
+	/**
+	 * Configuration property for the least number of milliseconds between the start of two replays
+	 */
+	public static final String MIN_INTERVAL = "sync.minInterval";
+
+	/**
+	 * Configuration property for the largest random amount, as a percentage of the delay, added to each delay
+	 */
+	public static final String JITTER = "sync.jitter";
+
+	/**
+	 * The outcome of a replay
+	 */
+	public enum Result {
+		/**
+		 * Every recorded write was replayed
+		 */
+		SUCCEEDED,
+
+		/**
+		 * Some recorded writes could not be replayed, or the job failed
+		 */
+		FAILED,
+
+		/**
+		 * The RDF database did not answer the health check, nothing was replayed
+		 */
+		STORE_UNAVAILABLE,
+
+		/**
+		 * Another node ran, or was running, the replay
+		 */
+		SKIPPED
+	}
+
+	private static final Random mRandom = new Random();
+
+	/**
+	 * The scheduled replay, or null if none is scheduled
+	 */
+	private static Future<?> mScheduled;
+
+	/**
+	 * When the scheduled replay will start
+	 */
+	private static long mNextRun;
+
+	/**
+	 * When the last replay started, and its outcome
+	 */
+	private static long mLastRun;
+	private static Result mLastResult;
+
+	/**
+	 * The number of replays in a row which have not succeeded
+	 */
+	private static int mFailures;
+
+	/**
+	 * The number of requests for a replay since the last one started
+	 */
+	private static int mPendingTriggers;
+
+	/**
+	 * No instances
+	 */
+	private SyncScheduler() {
+	}
+
+	/**
+	 * Request a replay of the outbox.  If none is scheduled, one is scheduled after the current delay.
+	 */
+	static synchronized void trigger() {
+		mPendingTriggers++;
+
+		if (mScheduled == null) {
+			scheduleIn(delay());
+		}
+	}
+
+	/**
+	 * Record that a replay is starting; requests made from now on schedule another one
+	 */
+	static synchronized void started() {
+		mScheduled = null;
+		mNextRun = 0;
+		mLastRun = System.currentTimeMillis();
+		mPendingTriggers = 0;
+	}
+
+	/**
+	 * Record the outcome of a replay.  If it did not succeed, another is scheduled, backing off from the last one.
+	 * @param theResult the outcome
+	 */
+	static synchronized void finished(final Result theResult) {
+		mLastResult = theResult;
+
+		if (theResult == Result.SUCCEEDED || theResult == Result.SKIPPED) {
+			mFailures = 0;
+		}
+		else {
+			mFailures++;
+
+			if (mScheduled == null) {
+				scheduleIn(delay());
+			}
+		}
+	}
+
+	/**
+	 * Return whether or not the RDF database is answering queries
+	 * @return true if it is, false otherwise
+	 */
+	static boolean isStoreAvailable() {
+		try {
+			RdfQueries.ping((DataSource) Imperium.em().getDelegate());
+
+			return true;
+		}
+		catch (Exception e) {
+			Logger.warn("The RDF database is not available: %s", e.getMessage());
+
+			return false;
+		}
+	}
+
+	/**
+	 * Return the current state of the scheduler
+	 * @return the state
+	 */
+	public static synchronized State getState() {
+		return new State(mNextRun == 0 ? null : new Date(mNextRun), mLastRun == 0 ? null : new Date(mLastRun),
+						 mLastResult, mFailures, mPendingTriggers);
+	}
+
+	/**
+	 * Forget the state of the scheduler, such as when the application stops and its scheduled jobs are dropped
+	 */
+	public static synchronized void reset() {
+		if (mScheduled != null) {
+			mScheduled.cancel(false);
+		}
+
+		mScheduled = null;
+		mNextRun = 0;
+		mLastRun = 0;
+		mLastResult = null;
+		mFailures = 0;
+		mPendingTriggers = 0;
+	}
+
+	/**
+	 * Schedule a replay
+	 * @param theDelay the number of milliseconds from now to start it in, unless that is sooner than the minimum interval
+	 * after the last replay allows
+	 */
+	private static void scheduleIn(final long theDelay) {
+		long aNow = System.currentTimeMillis();
+
+		mNextRun = Math.max(aNow + theDelay, mLastRun + EmpirePlugin.getIntProperty(MIN_INTERVAL, 60 * 1000));
+		mScheduled = SyncJob.submit(mNextRun - aNow);
+
+		Metrics.event(Metrics.Event.SYNC_SCHEDULED);
+	}
+
+	/**
+	 * Return the delay before the next replay: the configured delay, doubled for each replay in a row which did not
+	 * succeed, up to the maximum, plus jitter
+	 * @return the delay, in milliseconds
+	 */
+	private static long delay() {
+		long aDelay = EmpirePlugin.getIntProperty(DELAY, 60 * 1000);
+		long aMax = EmpirePlugin.getIntProperty(MAX_DELAY, 30 * 60 * 1000);
+
+		aDelay = Math.min(aMax, aDelay << Math.min(mFailures, 20));
+
+		int aJitter = EmpirePlugin.getIntProperty(JITTER, 20);
+
+		if (aJitter > 0 && aDelay > 0) {
+			aDelay += (long) (mRandom.nextDouble() * aDelay * aJitter / 100);
+		}
+
+		return aDelay;
+	}
+
+	/**
+	 * A snapshot of the state of the scheduler
+	 */
+	public static final class State {
+		private final Date mNextRun;
+		private final Date mLastRun;
+		private final Result mLastResult;
+		private final int mFailures;
+		private final int mPendingTriggers;
+
+		private State(final Date theNextRun, final Date theLastRun, final Result theLastResult, final int theFailures,
+					  final int thePendingTriggers) {
+			mNextRun = theNextRun;
+			mLastRun = theLastRun;
+			mLastResult = theLastResult;
+			mFailures = theFailures;
+			mPendingTriggers = thePendingTriggers;
+		}
+
+		/**
+		 * Return when the next replay is scheduled to start
+		 * @return the start of the next replay, or null if none is scheduled
+		 */
+		public Date getNextRun() {
+			return mNextRun;
+		}
+
+		/**
+		 * Return when the last replay started
+		 * @return the start of the last replay, or null if there has not been one
+		 */
+		public Date getLastRun() {
+			return mLastRun;
+		}
+
+		/**
+		 * Return the outcome of the last replay
+		 * @return the outcome, or null if no replay has finished yet
+		 */
+		public Result getLastResult() {
+			return mLastResult;
+		}
+
+		/**
+		 * Return the number of replays in a row which have not succeeded
+		 * @return the number of failures
+		 */
+		public int getFailureCount() {
+			return mFailures;
+		}
+
+		/**
+		 * Return the number of requests for a replay made since the last one started
+		 * @return the number of pending requests
+		 */
+		public int getPendingTriggers() {
+			return mPendingTriggers;
+		}
+
+		/**
+		 * @inheritDoc
+		 */
+		@Override
+		public String toString() {
+			return "next run: " + mNextRun + ", last run: " + mLastRun + " (" + mLastResult + "), failures: " + mFailures
+				   + ", pending requests: " + mPendingTriggers;
+		}
+	}
+}
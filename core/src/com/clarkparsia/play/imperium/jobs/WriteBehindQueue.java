@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import play.jobs.Job;
+import play.jobs.JobsPlugin;
+import play.db.jpa.JPA;
+import play.db.jpa.JPAPlugin;
+import play.Logger;
+import play.Play;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.clarkparsia.play.imperium.EmpirePlugin;
+import com.clarkparsia.play.imperium.annotations.WriteBehind;
+import com.clarkparsia.play.imperium.models.RdfModel;
+import com.clarkparsia.play.imperium.models.SyncLogEntry;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>Write-behind support for the RDF side of {@link RdfModel} saves and deletes.  Writes made during an invocation
+ * are held until the invocation, and so its JPA transaction, completes successfully, and are then put on a bounded
+ * in-memory queue which is drained in batches by background workers.  The workers re-read each model from the
+ * relational database, so the RDF database converges on the committed state regardless of the order writes are
+ * applied in.</p>
+ *
+ * <p>When the queue is full, invocations wait up to 'empire.writes.behind.maxWait' milliseconds for room; writes which
+ * still do not fit, or which fail 'empire.writes.behind.maxAttempts' times, are recorded in the sync outbox and
+ * left for the {@link SyncJob}.</p>
+ *
+ * <p>Play! stops accepting invocations before it stops its plugins, so the writes which were not applied when the
+ * application stops are recorded in the outbox instead, directly with JPA.  That has to happen before the JPA plugin
+ * stops, which is what the {@link com.clarkparsia.play.imperium.WriteBehindPlugin} is for.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class WriteBehindQueue {
+
+	/**
+	 * Configuration property to enable write-behind for every RdfModel not annotated with {@link WriteBehind}
+	 */
+	public static final String ENABLED = "writes.behind";
+
+	/**
+	 * Configuration property for the maximum number of writes held on the queue
+	 */
+	public static final String QUEUE_SIZE = "writes.behind.queueSize";
+
+	/**
+	 * Configuration property for the number of background workers
+	 */
+	public static final String WORKERS = "writes.behind.workers";
+
+	/**
+	 * Configuration property for the maximum number of writes applied in one transaction
+	 */
+	public static final String BATCH_SIZE = "writes.behind.batchSize";
+
+	/**
+	 * Configuration property for the number of milliseconds an invocation waits for room on a full queue
+	 */
+	public static final String MAX_WAIT = "writes.behind.maxWait";
+
+	/**
+	 * Configuration property for the number of times a write is attempted before it is sent to the outbox
+	 */
+	public static final String MAX_ATTEMPTS = "writes.behind.maxAttempts";
+
+	/**
+	 * Configuration property for the number of milliseconds before the first retry of a failed write; the delay
+	 * doubles with each further attempt
+	 */
+	public static final String RETRY_DELAY = "writes.behind.retryDelay";
+
+	/**
+	 * Configuration property for the number of milliseconds to wait for the queue to drain on shutdown
+	 */
+	public static final String SHUTDOWN_TIMEOUT = "writes.behind.shutdownTimeout";
+
+	/**
+	 * The writes made by the current invocation
+	 */
+	private static final ThreadLocal<List<PendingWrite>> mPending = new ThreadLocal<List<PendingWrite>>();
+
+	/**
+	 * The writes waiting to be applied
+	 */
+	private static BlockingQueue<PendingWrite> mQueue;
+
+	/**
+	 * The background workers draining the queue
+	 */
+	private static List<Thread> mWorkers = Lists.newArrayList();
+
+	/**
+	 * The failed writes waiting for their retry
+	 */
+	private static final Set<PendingWrite> mDelayed = Sets.newSetFromMap(new ConcurrentHashMap<PendingWrite, Boolean>());
+
+	/**
+	 * Whether or not the workers are accepting new writes
+	 */
+	private static volatile boolean mRunning = false;
+
+	private static final AtomicLong mWritten = new AtomicLong();
+	private static final AtomicLong mRetried = new AtomicLong();
+	private static final AtomicLong mFailed = new AtomicLong();
+
+	/**
+	 * No instances
+	 */
+	private WriteBehindQueue() {
+	}
+
+	/**
+	 * Return whether or not RDF writes of the given model class are written behind
+	 * @param theClass the model class
+	 * @return true if writes are written behind, false if they are written during the invocation
+	 */
+	public static boolean isEnabled(final Class<?> theClass) {
+		WriteBehind aWriteBehind = theClass.getAnnotation(WriteBehind.class);
+
+		if (aWriteBehind != null) {
+			return aWriteBehind.value();
+		}
+		else {
+			return EmpirePlugin.getBooleanProperty(ENABLED, false);
+		}
+	}
+
+	/**
+	 * Hold the RDF write of a model until the current invocation completes
+	 * @param theModel the model written
+	 * @param theOperation the write made
+	 */
+	public static void add(final RdfModel theModel, final SyncLogEntry.Operation theOperation) {
+		List<PendingWrite> aPending = mPending.get();
+
+		if (aPending == null) {
+			aPending = Lists.newArrayList();
+			mPending.set(aPending);
+		}
+
+		aPending.add(new PendingWrite(theModel.getClass().getName(), theModel.getId(), theModel.rdfid, theOperation));
+	}
+
+	/**
+	 * Discard the writes held for the current invocation, because it failed
+	 */
+	public static void discard() {
+		mPending.remove();
+	}
+
+	/**
+	 * Put the writes held for the current invocation on the queue, waiting for room if the queue is full.
+	 */
+	public static void publish() {
+		List<PendingWrite> aPending = mPending.get();
+
+		mPending.remove();
+
+		if (aPending == null || aPending.isEmpty()) {
+			return;
+		}
+
+		start();
+
+		long aMaxWait = EmpirePlugin.getIntProperty(MAX_WAIT, 1000);
+
+		List<PendingWrite> aOverflow = Lists.newArrayList();
+
+		for (PendingWrite aWrite : aPending) {
+			try {
+				if (!mRunning || !mQueue.offer(aWrite, aMaxWait, TimeUnit.MILLISECONDS)) {
+					aOverflow.add(aWrite);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+
+				aOverflow.add(aWrite);
+			}
+		}
+
+		if (!aOverflow.isEmpty()) {
+			Logger.warn("Write-behind queue is full, sending %s writes to the sync outbox", aOverflow.size());
+
+			toOutbox(aOverflow);
+		}
+	}
+
+	/**
+	 * Start the background workers, if they are not already running
+	 */
+	public static synchronized void start() {
+		if (mRunning) {
+			return;
+		}
+
+		mQueue = new ArrayBlockingQueue<PendingWrite>(Math.max(1, EmpirePlugin.getIntProperty(QUEUE_SIZE, 10000)));
+		mWorkers.clear();
+		mRunning = true;
+
+		int aWorkers = Math.max(1, EmpirePlugin.getIntProperty(WORKERS, 1));
+
+		for (int i = 0; i < aWorkers; i++) {
+			Thread aWorker = new Thread(new Worker(mQueue), "imperium-write-behind-" + i);
+			aWorker.setDaemon(true);
+			aWorker.start();
+
+			mWorkers.add(aWorker);
+		}
+	}
+
+	/**
+	 * Stop accepting writes, wait up to 'empire.writes.behind.shutdownTimeout' milliseconds for the batches being
+	 * applied to finish, and record the writes still queued, or waiting for a retry, in the sync outbox.
+	 */
+	public static synchronized void shutdown() {
+		if (!mRunning) {
+			return;
+		}
+
+		mRunning = false;
+
+		long aDeadline = System.currentTimeMillis() + EmpirePlugin.getIntProperty(SHUTDOWN_TIMEOUT, 30000);
+
+		for (Thread aWorker : mWorkers) {
+			try {
+				aWorker.join(Math.max(1, aDeadline - System.currentTimeMillis()));
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		mWorkers.clear();
+
+		List<PendingWrite> aRemaining = Lists.newArrayList();
+		mQueue.drainTo(aRemaining);
+
+		for (PendingWrite aWrite : Lists.newArrayList(mDelayed)) {
+			if (mDelayed.remove(aWrite)) {
+				aRemaining.add(aWrite);
+			}
+		}
+
+		if (!aRemaining.isEmpty()) {
+			Logger.info("Write-behind queue shut down with %s writes not applied, recording them in the sync outbox", aRemaining.size());
+
+			toOutbox(aRemaining);
+		}
+	}
+
+	/**
+	 * Return the number of writes waiting on the queue
+	 * @return the queue depth
+	 */
+	public static int getDepth() {
+		return mQueue == null ? 0 : mQueue.size();
+	}
+
+	/**
+	 * Return how long the oldest write on the queue has been waiting
+	 * @return the lag, in milliseconds
+	 */
+	public static long getLag() {
+		PendingWrite aOldest = mQueue == null ? null : mQueue.peek();
+
+		return aOldest == null ? 0 : System.currentTimeMillis() - aOldest.mEnqueued;
+	}
+
+	/**
+	 * Return the number of writes applied to the RDF database
+	 * @return the number of writes applied
+	 */
+	public static long getWrittenCount() {
+		return mWritten.get();
+	}
+
+	/**
+	 * Return the number of times a failed write has been retried
+	 * @return the number of retries
+	 */
+	public static long getRetriedCount() {
+		return mRetried.get();
+	}
+
+	/**
+	 * Return the number of writes which were sent to the sync outbox rather than applied
+	 * @return the number of failed writes
+	 */
+	public static long getFailedCount() {
+		return mFailed.get();
+	}
+
+	/**
+	 * Retry a failed write after a delay, or send it to the outbox if it has been attempted too many times
+	 * @param theWrite the failed write
+	 */
+	private static void retry(final PendingWrite theWrite) {
+		theWrite.mAttempts++;
+
+		if (theWrite.mAttempts >= EmpirePlugin.getIntProperty(MAX_ATTEMPTS, 5) || !mRunning) {
+			toOutbox(Lists.newArrayList(theWrite));
+			return;
+		}
+
+		mRetried.incrementAndGet();
+
+		long aDelay = (long) EmpirePlugin.getIntProperty(RETRY_DELAY, 1000) << (theWrite.mAttempts - 1);
+
+		mDelayed.add(theWrite);
+
+		JobsPlugin.executor.schedule(new Runnable() {
+			public void run() {
+				if (!mDelayed.remove(theWrite)) {
+					// the queue shut down and already recorded it
+					return;
+				}
+
+				if (!mRunning || !mQueue.offer(theWrite)) {
+					toOutbox(Lists.newArrayList(theWrite));
+				}
+			}
+		}, aDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Record writes in the sync outbox, in their own transaction, so the {@link SyncJob} will apply them.  Once the
+	 * queue is shut down, and Play! no longer runs jobs, they are recorded on the calling thread instead.
+	 * @param theWrites the writes to record
+	 */
+	private static void toOutbox(final List<PendingWrite> theWrites) {
+		mFailed.addAndGet(theWrites.size());
+
+		if (!mRunning) {
+			writeOutbox(theWrites);
+			return;
+		}
+
+		new Job<Void>() {
+			@Override
+			public void doJob() {
+				for (PendingWrite aWrite : theWrites) {
+					SyncLogEntry.record(aWrite.mClass, aWrite.mId, aWrite.mRdfId, aWrite.mOperation);
+				}
+
+				SyncJob.schedule();
+			}
+		}.now();
+	}
+
+	/**
+	 * Record writes in the sync outbox on the calling thread, with a JPA transaction of its own.  They are replayed
+	 * when the application next starts.
+	 * @param theWrites the writes to record
+	 */
+	private static void writeOutbox(final List<PendingWrite> theWrites) {
+		if (!JPA.isEnabled()) {
+			Logger.error("Lost %s write-behind writes because JPA was stopped before they could be recorded in the sync outbox, " +
+						 "a full sync is required; register the WriteBehindPlugin so the queue is drained first", theWrites.size());
+			return;
+		}
+
+		boolean aRollback = true;
+
+		JPAPlugin.startTx(false);
+
+		try {
+			for (PendingWrite aWrite : theWrites) {
+				SyncLogEntry.record(aWrite.mClass, aWrite.mId, aWrite.mRdfId, aWrite.mOperation);
+			}
+
+			aRollback = false;
+		}
+		finally {
+			JPAPlugin.closeTx(aRollback);
+		}
+	}
+
+	/**
+	 * Drains the queue, applying each batch of writes in a single invocation
+	 */
+	private static class Worker implements Runnable {
+		private final BlockingQueue<PendingWrite> mWorkQueue;
+
+		private Worker(final BlockingQueue<PendingWrite> theQueue) {
+			mWorkQueue = theQueue;
+		}
+
+		public void run() {
+			// the writes left on the queue when it shuts down are recorded in the outbox, play no longer runs jobs
+			while (mRunning) {
+				PendingWrite aFirst;
+
+				try {
+					aFirst = mWorkQueue.poll(1, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+
+				if (aFirst == null) {
+					continue;
+				}
+
+				List<PendingWrite> aBatch = Lists.newArrayList(aFirst);
+				mWorkQueue.drainTo(aBatch, Math.max(1, EmpirePlugin.getIntProperty(BATCH_SIZE, 100)) - 1);
+
+				WriteBehindJob aJob = new WriteBehindJob(aBatch);
+
+				try {
+					aJob.call();
+				}
+				catch (Throwable e) {
+					aJob.mCommitted = false;
+				}
+
+				if (!aJob.mCommitted) {
+					Logger.warn("Could not apply a batch of %s write-behind writes", aBatch.size());
+
+					// nothing in the batch was committed
+					aJob.mFailures.clear();
+					aJob.mFailures.addAll(aBatch);
+				}
+				else {
+					mWritten.addAndGet(aBatch.size() - aJob.mFailures.size());
+				}
+
+				for (PendingWrite aWrite : aJob.mFailures) {
+					retry(aWrite);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies a batch of writes with its own JPA and Empire transactions
+	 */
+	private static class WriteBehindJob extends Job<Void> {
+		private final List<PendingWrite> mBatch;
+		private final List<PendingWrite> mFailures = Lists.newArrayList();
+		private boolean mCommitted = false;
+
+		private WriteBehindJob(final List<PendingWrite> theBatch) {
+			mBatch = theBatch;
+		}
+
+		@Override
+		public boolean init() {
+			// in dev mode, an invocation would start the application again while it is being stopped
+			return Play.started && super.init();
+		}
+
+		@Override
+		public void doJob() {
+			for (PendingWrite aWrite : mBatch) {
+				try {
+					SyncJob.apply(aWrite.mClass, aWrite.mId, aWrite.mRdfId, aWrite.mOperation);
+				}
+				catch (Exception e) {
+					Logger.debug(e, "Write-behind %s of %s failed", aWrite.mOperation, aWrite.mRdfId);
+
+					mFailures.add(aWrite);
+				}
+			}
+		}
+
+		@Override
+		public void after() {
+			super.after();
+
+			mCommitted = true;
+		}
+	}
+
+	/**
+	 * An RDF write waiting to be applied
+	 */
+	private static class PendingWrite {
+		private final String mClass;
+		private final Long mId;
+		private final String mRdfId;
+		private final SyncLogEntry.Operation mOperation;
+		private final long mEnqueued = System.currentTimeMillis();
+		private int mAttempts = 0;
+
+		private PendingWrite(final String theClass, final Long theId, final String theRdfId,
+							 final SyncLogEntry.Operation theOperation) {
+			mClass = theClass;
+			mId = theId;
+			mRdfId = theRdfId;
+			mOperation = theOperation;
+		}
+	}
+}
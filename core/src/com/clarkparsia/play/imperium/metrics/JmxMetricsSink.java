@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.metrics;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The default {@link MetricsSink}, which keeps a latency histogram of each operation and counts of events and
+ * per-request activity, and publishes them as the attributes of the MBean
+ * 'com.clarkparsia.play.imperium:type=Metrics', for example 'SAVE.P95Millis' or 'COMMIT_FAILED.Count'.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class JmxMetricsSink implements MetricsSink, DynamicMBean {
+
+	/**
+	 * The name the MBean is registered under
+	 */
+	public static final String NAME = "com.clarkparsia.play.imperium:type=Metrics";
+
+	private final Map<Metrics.Operation, LatencyHistogram> mTimings = new EnumMap<Metrics.Operation, LatencyHistogram>(Metrics.Operation.class);
+	private final Map<Metrics.Event, AtomicLong> mEvents = new EnumMap<Metrics.Event, AtomicLong>(Metrics.Event.class);
+
+	private final AtomicLong mRequests = new AtomicLong();
+	private final AtomicLong mRequestOperations = new AtomicLong();
+	private final AtomicLong mRequestEntities = new AtomicLong();
+	private final LatencyHistogram mRequestEmpireTime = new LatencyHistogram();
+
+	/**
+	 * The attributes of the MBean and how to read them
+	 */
+	private final Map<String, Reading> mAttributes = Maps.newLinkedHashMap();
+
+	public JmxMetricsSink() {
+		for (Metrics.Operation aOp : Metrics.Operation.values()) {
+			LatencyHistogram aHistogram = new LatencyHistogram();
+
+			mTimings.put(aOp, aHistogram);
+
+			addHistogram(aOp.name(), aHistogram);
+		}
+
+		for (final Metrics.Event aEvent : Metrics.Event.values()) {
+			final AtomicLong aCount = new AtomicLong();
+
+			mEvents.put(aEvent, aCount);
+
+			mAttributes.put(aEvent.name() + ".Count", new Reading() {
+				public Object read() {
+					return aCount.get();
+				}
+			});
+		}
+
+		mAttributes.put("Requests", new Reading() {
+			public Object read() {
+				return mRequests.get();
+			}
+		});
+		mAttributes.put("Requests.MeanOperations", new Reading() {
+			public Object read() {
+				return mRequests.get() == 0 ? 0d : mRequestOperations.get() / (double) mRequests.get();
+			}
+		});
+		mAttributes.put("Requests.MeanEntities", new Reading() {
+			public Object read() {
+				return mRequests.get() == 0 ? 0d : mRequestEntities.get() / (double) mRequests.get();
+			}
+		});
+
+		addHistogram("Requests.EmpireTime", mRequestEmpireTime);
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public void start() {
+		try {
+			MBeanServer aServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName aName = new ObjectName(NAME);
+
+			if (aServer.isRegistered(aName)) {
+				// left behind by a previous start of the application
+				aServer.unregisterMBean(aName);
+			}
+
+			aServer.registerMBean(this, aName);
+		}
+		catch (Exception e) {
+			play.Logger.warn(e, "Could not register the Imperium metrics MBean");
+		}
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public void stop() {
+		try {
+			MBeanServer aServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName aName = new ObjectName(NAME);
+
+			if (aServer.isRegistered(aName)) {
+				aServer.unregisterMBean(aName);
+			}
+		}
+		catch (Exception e) {
+			play.Logger.warn(e, "Could not unregister the Imperium metrics MBean");
+		}
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public void timing(final Metrics.Operation theOperation, final long theNanos) {
+		mTimings.get(theOperation).record(theNanos);
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public void event(final Metrics.Event theEvent) {
+		mEvents.get(theEvent).incrementAndGet();
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public void request(final RequestTrace theTrace) {
+		mRequests.incrementAndGet();
+		mRequestOperations.addAndGet(theTrace.getOperationCount());
+		mRequestEntities.addAndGet(theTrace.getEntityCount());
+		mRequestEmpireTime.record(theTrace.getEmpireNanos());
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public Object getAttribute(final String theName) throws AttributeNotFoundException {
+		Reading aReading = mAttributes.get(theName);
+
+		if (aReading == null) {
+			throw new AttributeNotFoundException(theName);
+		}
+
+		return aReading.read();
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public AttributeList getAttributes(final String[] theNames) {
+		AttributeList aList = new AttributeList();
+
+		for (String aName : theNames) {
+			if (mAttributes.containsKey(aName)) {
+				aList.add(new Attribute(aName, mAttributes.get(aName).read()));
+			}
+		}
+
+		return aList;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public void setAttribute(final Attribute theAttribute) throws AttributeNotFoundException {
+		// all the attributes are read-only
+		throw new AttributeNotFoundException(theAttribute.getName());
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public AttributeList setAttributes(final AttributeList theAttributes) {
+		return new AttributeList();
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public Object invoke(final String theAction, final Object[] theParams, final String[] theSignature) {
+		throw new UnsupportedOperationException(theAction);
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> aInfos = Lists.newArrayList();
+
+		for (Map.Entry<String, Reading> aEntry : mAttributes.entrySet()) {
+			aInfos.add(new MBeanAttributeInfo(aEntry.getKey(), aEntry.getValue().read().getClass().getName(),
+											  aEntry.getKey(), true, false, false));
+		}
+
+		return new MBeanInfo(getClass().getName(), "Imperium metrics", aInfos.toArray(new MBeanAttributeInfo[aInfos.size()]),
+							 null, new MBeanOperationInfo[0], null);
+	}
+
+	private void addHistogram(final String thePrefix, final LatencyHistogram theHistogram) {
+		mAttributes.put(thePrefix + ".Count", new Reading() {
+			public Object read() {
+				return theHistogram.getCount();
+			}
+		});
+		mAttributes.put(thePrefix + ".MeanMillis", new Reading() {
+			public Object read() {
+				return theHistogram.getMeanMillis();
+			}
+		});
+		mAttributes.put(thePrefix + ".MaxMillis", new Reading() {
+			public Object read() {
+				return theHistogram.getMaxMillis();
+			}
+		});
+
+		for (final int aPercentile : new int[] { 50, 95, 99 }) {
+			mAttributes.put(thePrefix + ".P" + aPercentile + "Millis", new Reading() {
+				public Object read() {
+					return theHistogram.getPercentileMillis(aPercentile);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Reads the current value of an attribute
+	 */
+	private interface Reading {
+		public Object read();
+	}
+}
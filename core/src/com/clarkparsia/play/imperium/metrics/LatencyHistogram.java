@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Lock-free latency histogram with exponentially sized buckets: bucket i holds durations of less than 2^i
+ * microseconds, so percentiles are accurate to within a factor of two over a range of a microsecond to half an
+ * hour, in a fixed amount of memory.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class LatencyHistogram {
+
+	private static final int BUCKETS = 32;
+
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mTotalNanos = new AtomicLong();
+	private final AtomicLong mMaxNanos = new AtomicLong();
+
+	/**
+	 * Record a duration
+	 * @param theNanos the duration, in nanoseconds
+	 */
+	public void record(final long theNanos) {
+		long aMicros = Math.max(0, theNanos / 1000);
+
+		mBuckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(aMicros)));
+		mCount.incrementAndGet();
+		mTotalNanos.addAndGet(theNanos);
+
+		long aMax = mMaxNanos.get();
+		while (theNanos > aMax && !mMaxNanos.compareAndSet(aMax, theNanos)) {
+			aMax = mMaxNanos.get();
+		}
+	}
+
+	/**
+	 * Return the number of durations recorded
+	 * @return the count
+	 */
+	public long getCount() {
+		return mCount.get();
+	}
+
+	/**
+	 * Return the mean of the recorded durations
+	 * @return the mean, in milliseconds
+	 */
+	public double getMeanMillis() {
+		long aCount = mCount.get();
+
+		return aCount == 0 ? 0 : mTotalNanos.get() / (aCount * 1000000d);
+	}
+
+	/**
+	 * Return the longest recorded duration
+	 * @return the maximum, in milliseconds
+	 */
+	public double getMaxMillis() {
+		return mMaxNanos.get() / 1000000d;
+	}
+
+	/**
+	 * Return the upper bound of the bucket the given percentile of the durations falls in
+	 * @param thePercentile the percentile, between 0 and 100
+	 * @return the percentile, in milliseconds
+	 */
+	public double getPercentileMillis(final double thePercentile) {
+		long aCount = mCount.get();
+
+		if (aCount == 0) {
+			return 0;
+		}
+
+		long aRank = (long) Math.ceil(aCount * thePercentile / 100);
+		long aSeen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			aSeen += mBuckets.get(i);
+
+			if (aSeen >= aRank) {
+				return Math.min((1L << i) / 1000d, getMaxMillis());
+			}
+		}
+
+		return getMaxMillis();
+	}
+}
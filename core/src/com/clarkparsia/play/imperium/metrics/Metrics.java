@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.metrics;
+
+import com.clarkparsia.play.imperium.EmpirePlugin;
+
+/**
+ * <p>Instrumentation of Imperium.  Transactions, finds, saves and deletes are timed and handed to the configured
+ * {@link MetricsSink}, along with commit failures, SyncJob scheduling, {@link com.clarkparsia.play.imperium.QueryCache}
+ * hits and misses, and a summary of the Empire activity of each request.  Requests which take longer than
+ * 'empire.metrics.slowRequest' milliseconds (1000 by default, 0 turns it off) are logged with the Empire operations
+ * they made.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class Metrics {
+
+	/**
+	 * Configuration property for the class name of the metrics sink, or 'none' to turn off the metrics
+	 */
+	public static final String SINK = "metrics.sink";
+
+	/**
+	 * Configuration property for the number of milliseconds after which a request is logged as slow
+	 */
+	public static final String SLOW_REQUEST = "metrics.slowRequest";
+
+	/**
+	 * The timed operations
+	 */
+	public enum Operation {
+		BEGIN, COMMIT, ROLLBACK, FIND, SAVE, DELETE
+	}
+
+	/**
+	 * The counted events
+	 */
+	public enum Event {
+		COMMIT_FAILED, SYNC_SCHEDULED, QUERY_CACHE_HIT, QUERY_CACHE_MISS
+	}
+
+	/**
+	 * The sink receiving the measurements, null if metrics are off
+	 */
+	private static volatile MetricsSink mSink;
+
+	/**
+	 * The trace of the request running on the current thread
+	 */
+	private static final ThreadLocal<RequestTrace> mTrace = new ThreadLocal<RequestTrace>();
+
+	/**
+	 * No instances
+	 */
+	private Metrics() {
+	}
+
+	/**
+	 * Create and start the configured metrics sink
+	 */
+	public static synchronized void start() {
+		stop();
+
+		String aSink = EmpirePlugin.getProperty(SINK, JmxMetricsSink.class.getName());
+
+		if ("none".equalsIgnoreCase(aSink)) {
+			return;
+		}
+
+		try {
+			MetricsSink aNewSink = (MetricsSink) Class.forName(aSink, true, Thread.currentThread().getContextClassLoader()).getConstructor().newInstance();
+
+			aNewSink.start();
+
+			mSink = aNewSink;
+		}
+		catch (Exception e) {
+			play.Logger.error(e, "Could not start the metrics sink %s, metrics are off", aSink);
+		}
+	}
+
+	/**
+	 * Stop the metrics sink
+	 */
+	public static synchronized void stop() {
+		if (mSink != null) {
+			try {
+				mSink.stop();
+			}
+			catch (RuntimeException e) {
+				play.Logger.warn(e, "Error while stopping the metrics sink");
+			}
+
+			mSink = null;
+		}
+	}
+
+	/**
+	 * Return the current time, to pass to {@link #record} once the operation completes
+	 * @return the current time, in nanoseconds
+	 */
+	public static long now() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record a completed operation
+	 * @param theOperation the operation
+	 * @param theTarget the entity the operation was on, the id of the entity if it was not found, or null
+	 * @param theStart the time the operation started, from {@link #now}
+	 */
+	public static void record(final Operation theOperation, final Object theTarget, final long theStart) {
+		long aNanos = System.nanoTime() - theStart;
+
+		MetricsSink aSink = mSink;
+
+		if (aSink != null) {
+			aSink.timing(theOperation, aNanos);
+		}
+
+		RequestTrace aTrace = mTrace.get();
+
+		if (aTrace != null) {
+			aTrace.add(theOperation, theTarget, aNanos);
+		}
+	}
+
+	/**
+	 * Record an event
+	 * @param theEvent the event
+	 */
+	public static void event(final Event theEvent) {
+		MetricsSink aSink = mSink;
+
+		if (aSink != null) {
+			aSink.event(theEvent);
+		}
+	}
+
+	/**
+	 * Start tracing a request, or job, on the current thread
+	 * @param theDescription what is running
+	 */
+	public static void beginRequest(final String theDescription) {
+		mTrace.set(new RequestTrace(theDescription));
+	}
+
+	/**
+	 * Finish tracing the request running on the current thread, logging it if it was slow and it used Empire
+	 */
+	public static void endRequest() {
+		RequestTrace aTrace = mTrace.get();
+
+		if (aTrace == null) {
+			return;
+		}
+
+		mTrace.remove();
+
+		aTrace.end();
+
+		if (aTrace.getOperationCount() == 0) {
+			return;
+		}
+
+		MetricsSink aSink = mSink;
+
+		if (aSink != null) {
+			aSink.request(aTrace);
+		}
+
+		int aSlow = EmpirePlugin.getIntProperty(SLOW_REQUEST, 1000);
+
+		if (aSlow > 0 && aTrace.getDurationNanos() > aSlow * 1000000L) {
+			play.Logger.warn("Slow request: %s", aTrace);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.metrics;
+
+/**
+ * <p>Destination for the measurements taken by {@link Metrics}.  The sink is chosen with the 'empire.metrics.sink'
+ * property, which names a class implementing this interface with a public no-argument constructor; by default
+ * the {@link JmxMetricsSink} is used.  Implementations must be thread-safe.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public interface MetricsSink {
+
+	/**
+	 * Called when the application starts, before anything is recorded
+	 */
+	public void start();
+
+	/**
+	 * Called when the application stops
+	 */
+	public void stop();
+
+	/**
+	 * Record how long an operation took
+	 * @param theOperation the operation
+	 * @param theNanos its duration, in nanoseconds
+	 */
+	public void timing(Metrics.Operation theOperation, long theNanos);
+
+	/**
+	 * Record that an event happened
+	 * @param theEvent the event
+	 */
+	public void event(Metrics.Event theEvent);
+
+	/**
+	 * Record the Empire activity of a completed request, or job
+	 * @param theTrace the operations made by the request
+	 */
+	public void request(RequestTrace theTrace);
+}
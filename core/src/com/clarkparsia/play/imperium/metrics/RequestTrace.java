@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.metrics;
+
+import com.clarkparsia.empire.SupportsRdfId;
+import com.clarkparsia.empire.util.EmpireUtil;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>The Empire operations made by one request, or job, for the slow request log and the {@link MetricsSink}.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class RequestTrace {
+
+	/**
+	 * The most operations kept for the slow request log; any more are counted but not listed
+	 */
+	private static final int MAX_OPERATIONS = 200;
+
+	private final String mDescription;
+	private final long mStart = System.nanoTime();
+	private long mEnd;
+
+	private final List<TracedOperation> mOperations = Lists.newArrayList();
+	private final Set<Object> mEntities = Sets.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+	private int mOperationCount;
+	private long mEmpireNanos;
+
+	RequestTrace(final String theDescription) {
+		mDescription = theDescription;
+	}
+
+	void add(final Metrics.Operation theOperation, final Object theTarget, final long theNanos) {
+		mOperationCount++;
+		mEmpireNanos += theNanos;
+
+		if (theTarget != null && !(theTarget instanceof String)) {
+			mEntities.add(theTarget);
+		}
+
+		if (mOperations.size() < MAX_OPERATIONS) {
+			mOperations.add(new TracedOperation(theOperation, theTarget == null ? "" : describe(theTarget), theNanos));
+		}
+	}
+
+	void end() {
+		mEnd = System.nanoTime();
+	}
+
+	/**
+	 * Return the request, or job, this is the trace of
+	 * @return the description
+	 */
+	public String getDescription() {
+		return mDescription;
+	}
+
+	/**
+	 * Return how long the request took
+	 * @return the duration, in nanoseconds
+	 */
+	public long getDurationNanos() {
+		return (mEnd == 0 ? System.nanoTime() : mEnd) - mStart;
+	}
+
+	/**
+	 * Return how much of the request was spent in Empire operations
+	 * @return the time spent, in nanoseconds
+	 */
+	public long getEmpireNanos() {
+		return mEmpireNanos;
+	}
+
+	/**
+	 * Return the number of Empire operations made by the request
+	 * @return the number of operations
+	 */
+	public int getOperationCount() {
+		return mOperationCount;
+	}
+
+	/**
+	 * Return the number of distinct entities found, saved or deleted by the request
+	 * @return the number of entities
+	 */
+	public int getEntityCount() {
+		return mEntities.size();
+	}
+
+	/**
+	 * Return the operations made by the request, at most the first 200 of them
+	 * @return the operations
+	 */
+	public List<TracedOperation> getOperations() {
+		return Collections.unmodifiableList(mOperations);
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String toString() {
+		StringBuffer aBuffer = new StringBuffer();
+
+		aBuffer.append(mDescription).append(" took ").append(getDurationNanos() / 1000000).append(" ms, ")
+			   .append(mEmpireNanos / 1000000).append(" ms in ").append(mOperationCount).append(" Empire operations on ")
+			   .append(getEntityCount()).append(" entities");
+
+		for (TracedOperation aOp : mOperations) {
+			aBuffer.append("\n\t").append(aOp);
+		}
+
+		if (mOperationCount > mOperations.size()) {
+			aBuffer.append("\n\t... ").append(mOperationCount - mOperations.size()).append(" more");
+		}
+
+		return aBuffer.toString();
+	}
+
+	private static String describe(final Object theTarget) {
+		if (theTarget instanceof String) {
+			return (String) theTarget;
+		}
+
+		SupportsRdfId aId = EmpireUtil.asSupportsRdfId(theTarget);
+
+		if (aId != null && aId.getRdfId() != null) {
+			return theTarget.getClass().getSimpleName() + " " + aId.getRdfId();
+		}
+
+		return theTarget.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(theTarget));
+	}
+
+	/**
+	 * An operation made during a request
+	 */
+	public static final class TracedOperation {
+		private final Metrics.Operation mOperation;
+		private final String mTarget;
+		private final long mNanos;
+
+		private TracedOperation(final Metrics.Operation theOperation, final String theTarget, final long theNanos) {
+			mOperation = theOperation;
+			mTarget = theTarget;
+			mNanos = theNanos;
+		}
+
+		public Metrics.Operation getOperation() {
+			return mOperation;
+		}
+
+		public String getTarget() {
+			return mTarget;
+		}
+
+		public long getNanos() {
+			return mNanos;
+		}
+
+		/**
+		 * @inheritDoc
+		 */
+		@Override
+		public String toString() {
+			return mOperation + " " + mTarget + " " + (mNanos / 1000) + " us";
+		}
+	}
+}
@@ -16,34 +16,47 @@
 package com.clarkparsia.play.imperium.models;
 
 import com.clarkparsia.empire.SupportsRdfId;
+import com.clarkparsia.empire.annotation.RdfProperty;
 import com.clarkparsia.empire.annotation.SupportsRdfIdImpl;
+import com.clarkparsia.empire.ds.DataSource;
+import com.clarkparsia.empire.ds.QueryException;
+import com.clarkparsia.empire.ds.ResultSet;
 
 import com.clarkparsia.play.imperium.Imperium;
+import com.clarkparsia.play.imperium.ModelGraphs;
+import com.clarkparsia.play.imperium.QueryCache;
+import com.clarkparsia.play.imperium.RdfQueries;
+import com.clarkparsia.play.imperium.WriteGenerations;
+import com.clarkparsia.play.imperium.annotations.Hidden;
+import com.clarkparsia.play.imperium.metrics.Metrics;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+
+import javax.persistence.PersistenceException;
+
 import java.io.Serializable;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import java.util.Collections;
-
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
-
 import play.data.binding.BeanWrapper;
 
 import play.data.validation.Validation;
 
 import play.exceptions.UnexpectedException;
 
-import javax.persistence.OneToOne;
-import javax.persistence.ManyToOne;
-import javax.persistence.OneToMany;
-import javax.persistence.ManyToMany;
-
 /**
  * <p>Base Play! model for using Empire for persistence.  Though Empire uses JPA, extending from JPAModel won't work
  * because a lot of the JPA support in Play uses JPQL, which Empire does not yet support.  So functionality
@@ -55,6 +68,11 @@ import javax.persistence.ManyToMany;
  */
 public abstract class EmpireModel implements Serializable, SupportsRdfId {
 
+	/**
+	 * The key of the rdf:ID of the object in the rows returned by {@link #project}
+	 */
+	public static final String ID = "@id";
+
 	/**
 	 * Default implementation for having an rdf:ID
 	 */
@@ -67,12 +85,7 @@ public abstract class EmpireModel implements Serializable, SupportsRdfId {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T extends EmpireModel> T save() {
-		if (Imperium.em().contains(this)) {
-			Imperium.em().merge(this);
-		}
-		else {
-			Imperium.em().persist(this);
-		}
+		Imperium.save(this);
 
 		// this should be a safe cast
 		return (T) this;
@@ -85,7 +98,7 @@ public abstract class EmpireModel implements Serializable, SupportsRdfId {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T extends EmpireModel> T delete() {
-		Imperium.em().remove(this);
+		Imperium.remove(this);
 
 		// this should be a safe cast
 		return (T) this;
@@ -106,105 +119,358 @@ public abstract class EmpireModel implements Serializable, SupportsRdfId {
 	}
 
 	/**
-	 * Return all objects of this type from the database
+	 * Return all objects of this type from the database.  By default, they are loaded a page at a time through
+	 * {@link #iterate}; this requires the class to have an {@link com.clarkparsia.empire.annotation.RdfsClass}.
 	 * @param <T> the type to return
 	 * @return all objects of this type in the database
 	 */
-	public abstract <T extends EmpireModel> Collection<T> all();
+	@SuppressWarnings("unchecked")
+	public <T extends EmpireModel> Collection<T> all() {
+		return Lists.newArrayList((Iterable<T>) iterate(getClass()));
+	}
 
 	/**
-	 * Apply the edits to the bean
-	 * @return the edited bean
+	 * Return a page of the objects of a type, ordered by their rdf:ID
+	 * @param theClass the type, which must have an {@link com.clarkparsia.empire.annotation.RdfsClass}
+	 * @param theOffset the number of objects to skip
+	 * @param theLimit the maximum number of objects to return
+	 * @param <T> the type
+	 * @return the objects on the page
 	 */
-	public <T> T edit(String theName, Map<String, String[]> theParams) {
+	public static <T extends EmpireModel> List<T> page(final Class<T> theClass, final int theOffset, final int theLimit) {
+		return page(theClass, null, theOffset, theLimit);
+	}
+
+	/**
+	 * Return the page of the objects of a type which follows the object with the given rdf:ID, in rdf:ID order.
+	 * Unlike paging by offset, this costs the same however far into the objects the page is.
+	 * @param theClass the type, which must have an {@link com.clarkparsia.empire.annotation.RdfsClass}
+	 * @param theAfter the rdf:ID of the last object of the previous page, or null for the first page
+	 * @param theLimit the maximum number of objects to return
+	 * @param <T> the type
+	 * @return the objects on the page
+	 */
+	public static <T extends EmpireModel> List<T> pageAfter(final Class<T> theClass, final String theAfter, final int theLimit) {
+		return page(theClass, theAfter, 0, theLimit);
+	}
+
+	/**
+	 * Return all the objects of a type, in rdf:ID order, loading them {@link Imperium#BATCH_SIZE} at a time as the
+	 * iteration goes, so that only one page of objects is held in memory at once.
+	 * @param theClass the type, which must have an {@link com.clarkparsia.empire.annotation.RdfsClass}
+	 * @param <T> the type
+	 * @return the objects
+	 */
+	public static <T extends EmpireModel> Iterable<T> iterate(final Class<T> theClass) {
+		return new Iterable<T>() {
+			public Iterator<T> iterator() {
+				return new AbstractIterator<T>() {
+					private Iterator<T> mPage = Iterators.emptyIterator();
+					private String mLast = null;
+					private boolean mDone = false;
+
+					@Override
+					protected T computeNext() {
+						while (!mPage.hasNext()) {
+							if (mDone) {
+								return endOfData();
+							}
+
+							List<String> aIds = ids(theClass, mLast, 0, Imperium.BATCH_SIZE);
+
+							mDone = aIds.size() < Imperium.BATCH_SIZE;
+							mPage = Imperium.findAll(theClass, aIds).values().iterator();
+
+							if (!aIds.isEmpty()) {
+								mLast = aIds.get(aIds.size() - 1);
+							}
+						}
+
+						return mPage.next();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Return a page of the objects of a type
+	 * @param theClass the type
+	 * @param theAfter only objects whose rdf:ID sorts after this one are returned, or null to start from the first
+	 * @param theOffset the number of objects to skip
+	 * @param theLimit the maximum number of objects to return
+	 * @param <T> the type
+	 * @return the objects on the page
+	 */
+	private static <T extends EmpireModel> List<T> page(final Class<T> theClass, final String theAfter, final int theOffset, final int theLimit) {
+		return Lists.newArrayList(Imperium.findAll(theClass, ids(theClass, theAfter, theOffset, theLimit)).values());
+	}
+
+	/**
+	 * Return the rdf:IDs of a page of the objects of a type
+	 * @param theClass the type
+	 * @param theAfter only objects whose rdf:ID sorts after this one are returned, or null to start from the first
+	 * @param theOffset the number of objects to skip
+	 * @param theLimit the maximum number of objects to return
+	 * @return the rdf:IDs of the objects on the page, in order
+	 */
+	private static List<String> ids(final Class<?> theClass, final String theAfter, final int theOffset, final int theLimit) {
+		String aKey = QueryCache.isCached(theClass) ? QueryCache.key(theClass, "instances", theAfter, theOffset, theLimit) : null;
+
+		if (aKey != null) {
+			List<String> aCached = QueryCache.get(theClass, aKey);
+
+			if (aCached != null) {
+				return aCached;
+			}
+		}
+
+		String aGeneration = aKey != null ? WriteGenerations.current(theClass) : null;
+
+		List<String> aIds = Lists.newArrayList();
+
 		try {
-			BeanWrapper aBeanWrapper = new BeanWrapper(getClass());
+			DataSource aSource = (DataSource) Imperium.em().getDelegate();
 
-			Set<Field> aFieldList = Sets.newHashSet();
-			Class aClass = this.getClass();
+			for (Resource aResource : RdfQueries.instances(aSource, ModelGraphs.graphOf(theClass), rdfType(theClass), theAfter, theOffset, theLimit)) {
+				aIds.add(aResource.stringValue());
+			}
+		}
+		catch (QueryException e) {
+			throw new PersistenceException(e);
+		}
 
-			while (!aClass.equals(EmpireModel.class)) {
-				Collections.addAll(aFieldList, aClass.getDeclaredFields());
-				aClass = aClass.getSuperclass();
+		if (aKey != null) {
+			aIds = Collections.unmodifiableList(aIds);
+
+			QueryCache.put(theClass, aKey, aIds, aGeneration);
+		}
+
+		return aIds;
+	}
+
+	/**
+	 * Return the rdfs:Class of a type
+	 * @param theClass the type
+	 * @return its rdfs:Class
+	 * @throws IllegalArgumentException if the type does not have an rdfs:Class
+	 */
+	private static URI rdfType(final Class<?> theClass) {
+		URI aType = ModelMetadata.of(theClass).getRdfType();
+
+		if (aType == null) {
+			throw new IllegalArgumentException(theClass.getName() + " does not have an rdfs:Class");
+		}
+
+		return aType;
+	}
+
+	/**
+	 * Return the values of some of the fields of every object of a type, fetched with a single query rather than by
+	 * loading every object in full.  Only fields mapped to an rdf property with {@link RdfProperty} can be projected;
+	 * if no fields are named, all of them are, except those marked {@link Hidden}.  The rows are plain maps, not
+	 * models, so they cannot be edited and saved back.
+	 * @param theClass the type, which must have an {@link com.clarkparsia.empire.annotation.RdfsClass}
+	 * @param theFields the names of the fields to fetch
+	 * @return one row per object, keyed by field name, with the rdf:ID of the object under {@link #ID}.  Collection
+	 * fields are returned as a set of their values, and related entities as their rdf:ID.  The rows of
+	 * {@link com.clarkparsia.play.imperium.annotations.Cached} types are kept in the {@link QueryCache}.
+	 */
+	public static List<Map<String, Object>> project(final Class<? extends EmpireModel> theClass, final String... theFields) {
+		long aStart = Metrics.now();
+
+		String aKey = QueryCache.isCached(theClass) ? QueryCache.key(theClass, "project", (Object[]) theFields) : null;
+
+		if (aKey != null) {
+			List<Map<String, Object>> aCached = QueryCache.get(theClass, aKey);
+
+			if (aCached != null) {
+				Metrics.record(Metrics.Operation.FIND, aCached.size() + " " + theClass.getSimpleName() + " projected", aStart);
+
+				return copy(aCached);
 			}
+		}
 
-			for (Field aField : aFieldList) {
-				boolean isEntity = false;
-				boolean multiple = false;
+		String aGeneration = aKey != null ? WriteGenerations.current(theClass) : null;
 
-				if (aField.isAnnotationPresent(OneToOne.class) || aField.isAnnotationPresent(ManyToOne.class)) {
-					isEntity = true;
-				}
-				if (aField.isAnnotationPresent(OneToMany.class) || aField.isAnnotationPresent(ManyToMany.class)) {
-					isEntity = true;
-					multiple = true;
-				}
+		ModelMetadata aMetadata = ModelMetadata.of(theClass);
+
+		URI aType = rdfType(theClass);
+
+		List<ModelMetadata.PropertyField> aFields = aMetadata.getProperties(theFields);
+
+		List<URI> aProperties = Lists.newArrayList();
+
+		for (ModelMetadata.PropertyField aField : aFields) {
+			aProperties.add(aField.property);
+		}
+
+		Map<String, Map<String, Object>> aRows = Maps.newLinkedHashMap();
+
+		try {
+			DataSource aSource = (DataSource) Imperium.em().getDelegate();
+
+			ResultSet aResults = aSource.selectQuery(RdfQueries.projection(aSource, ModelGraphs.graphOf(theClass), aType, aProperties));
+
+			try {
+				while (aResults.hasNext()) {
+					BindingSet aBinding = aResults.next();
+
+					String aId = aBinding.getValue("s").stringValue();
+
+					Map<String, Object> aRow = aRows.get(aId);
 
-				if (isEntity) {
-					if (multiple && Collection.class.isAssignableFrom(aField.getType())) {
-						Collection aCollection = Lists.newArrayList();
+					if (aRow == null) {
+						aRow = Maps.newLinkedHashMap();
+						aRow.put(ID, aId);
 
-						if (Set.class.isAssignableFrom(aField.getType())) {
-							aCollection = Sets.newHashSet();
+						for (ModelMetadata.PropertyField aField : aFields) {
+							aRow.put(aField.name, aField.multiple ? Sets.newLinkedHashSet() : null);
 						}
 
-						String[] aIds = theParams.get(theName + "." + aField.getName() + "@id");
-						if (aIds == null) {
-							aIds = theParams.get(theName + "." + aField.getName() + ".id");
+						aRows.put(aId, aRow);
+					}
+
+					Value aProperty = aBinding.getValue("p");
+					Value aValue = aBinding.getValue("v");
+
+					if (aProperty == null || aValue == null) {
+						// the instance has none of the properties
+						continue;
+					}
+
+					for (ModelMetadata.PropertyField aField : aFields) {
+						if (!aField.property.equals(aProperty) || !aField.accepts(aValue)) {
+							continue;
 						}
 
-						if (aIds != null) {
-							theParams.remove(theName + "." + aField.getName() + ".id");
-							theParams.remove(theName + "." + aField.getName() + "@id");
-
-							for (String aId : aIds) {
-
-								if (aId.equals("")) {
-									continue;
-								}
-								
-								Class aFieldType = (Class) ((ParameterizedType) aField.getGenericType()).getActualTypeArguments()[0];
-								
-								Object aResult = Imperium.em().find(aFieldType, aId);
-								
-								if (aResult != null) {
-									aCollection.add(aResult);
-								}
-								else {
-									Validation.addError(theName+"."+aField.getName(), "validation.notFound", aId);
-								}
-							}
+						if (aField.multiple) {
+							@SuppressWarnings("unchecked")
+							Set<Object> aValues = (Set<Object>) aRow.get(aField.name);
 
-							aBeanWrapper.set(aField.getName(), this, aCollection);
+							aValues.add(aField.toJava(aValue));
+						}
+						else {
+							aRow.put(aField.name, aField.toJava(aValue));
 						}
 					}
-					else {
-						String[] aIds = theParams.get(theName + "." + aField.getName() + "@id");
+				}
+			}
+			finally {
+				aResults.close();
+			}
+		}
+		catch (QueryException e) {
+			throw new PersistenceException(e);
+		}
+
+		Metrics.record(Metrics.Operation.FIND, aRows.size() + " " + theClass.getSimpleName() + " projected", aStart);
+
+		List<Map<String, Object>> aProjection = Lists.newArrayList(aRows.values());
+
+		if (aKey != null) {
+			// the cached rows are shared, callers get their own copy
+			QueryCache.put(theClass, aKey, aProjection, aGeneration);
+
+			return copy(aProjection);
+		}
+
+		return aProjection;
+	}
+
+	/**
+	 * Return a copy of the rows of a projection, which can be modified without affecting the original
+	 * @param theRows the rows
+	 * @return the copy
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Map<String, Object>> copy(final List<Map<String, Object>> theRows) {
+		List<Map<String, Object>> aCopy = Lists.newArrayListWithCapacity(theRows.size());
+
+		for (Map<String, Object> aRow : theRows) {
+			Map<String, Object> aRowCopy = Maps.newLinkedHashMap(aRow);
+
+			for (Map.Entry<String, Object> aEntry : aRowCopy.entrySet()) {
+				if (aEntry.getValue() instanceof Set) {
+					aEntry.setValue(Sets.newLinkedHashSet((Set<Object>) aEntry.getValue()));
+				}
+			}
+
+			aCopy.add(aRowCopy);
+		}
+
+		return aCopy;
+	}
+
+	/**
+	 * Apply the edits to the bean
+	 * @return the edited bean
+	 */
+	public <T> T edit(String theName, Map<String, String[]> theParams) {
+		try {
+			ModelMetadata aMetadata = ModelMetadata.of(getClass());
+
+			BeanWrapper aBeanWrapper = aMetadata.getBeanWrapper();
 
-						if (aIds == null) {
-							aIds = theParams.get(theName + "." + aField.getName() + ".id");
+			for (ModelMetadata.RelationField aField : aMetadata.getRelations()) {
+				String[] aIds = theParams.get(theName + aField.atIdParam);
+
+				if (aIds == null) {
+					aIds = theParams.get(theName + aField.idParam);
+				}
+
+				if (aField.multiple) {
+					if (aIds != null) {
+						theParams.remove(theName + aField.idParam);
+						theParams.remove(theName + aField.atIdParam);
+
+						Collection<Object> aCollection = aField.set ? Sets.<Object>newHashSet() : Lists.<Object>newArrayList();
+
+						List<String> aNonEmptyIds = Lists.newArrayList();
+
+						for (String aId : aIds) {
+							if (!aId.equals("")) {
+								aNonEmptyIds.add(aId);
+							}
 						}
 
-						if (aIds != null && aIds.length > 0 && !aIds[0].equals("")) {
-							theParams.remove(theName + "." + aField.getName() + ".id");
-							theParams.remove(theName + "." + aField.getName() + "@id");
-							
-							Object aValue = Imperium.em().find(aField.getType(), aIds[0]);
-							
-							if (aValue != null) {
-								aBeanWrapper.set(aField.getName(), this, aValue);
-							} 
+						// resolve all the ids at once rather than one lookup per id
+						Map<String, ?> aFound = Imperium.findAll(aField.elementType(), aNonEmptyIds);
+
+						for (String aId : aNonEmptyIds) {
+							Object aResult = aFound.get(aId);
+
+							if (aResult != null) {
+								aCollection.add(aResult);
+							}
 							else {
-								Validation.addError(theName+"."+aField.getName(), "validation.notFound", aIds[0]);
+								Validation.addError(theName + "." + aField.name, "validation.notFound", aId);
 							}
 						}
-						else if (aIds != null && aIds.length > 0 && aIds[0].equals("")) {
-							aBeanWrapper.set(aField.getName(), this , null);
 
-							theParams.remove(theName + "." + aField.getName() + ".id");
-							theParams.remove(theName + "." + aField.getName() + "@id");
+						aBeanWrapper.set(aField.name, this, aCollection);
+					}
+				}
+				else {
+					if (aIds != null && aIds.length > 0 && !aIds[0].equals("")) {
+						theParams.remove(theName + aField.idParam);
+						theParams.remove(theName + aField.atIdParam);
+
+						Object aValue = Imperium.find(aField.elementType(), aIds[0]);
+
+						if (aValue != null) {
+							aBeanWrapper.set(aField.name, this, aValue);
+						}
+						else {
+							Validation.addError(theName + "." + aField.name, "validation.notFound", aIds[0]);
 						}
 					}
+					else if (aIds != null && aIds.length > 0 && aIds[0].equals("")) {
+						aBeanWrapper.set(aField.name, this , null);
+
+						theParams.remove(theName + aField.idParam);
+						theParams.remove(theName + aField.atIdParam);
+					}
 				}
 			}
 
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.models;
+
+import com.clarkparsia.common.util.PrefixMapping;
+
+import com.clarkparsia.empire.annotation.RdfGenerator;
+import com.clarkparsia.empire.annotation.RdfProperty;
+import com.clarkparsia.empire.annotation.RdfsClass;
+import com.clarkparsia.empire.util.BeanReflectUtil;
+
+import com.clarkparsia.play.imperium.annotations.Hidden;
+import com.clarkparsia.play.imperium.annotations.ReadOnly;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Primitives;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import play.data.binding.BeanWrapper;
+
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>The reflective information {@link EmpireModel#edit} and {@link EmpireModel#project} need about a model class:
+ * its {@link BeanWrapper}, its relation fields, and its rdf type and properties.  It is worked out once per class and
+ * shared; the registry is cleared when Play reloads the application classes.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class ModelMetadata {
+
+	/**
+	 * The metadata of each model class
+	 */
+	private static final ConcurrentMap<Class<?>, ModelMetadata> mMetadata = new ConcurrentHashMap<Class<?>, ModelMetadata>();
+
+	/**
+	 * The model class
+	 */
+	private final Class<?> mClass;
+
+	/**
+	 * The bean wrapper for the class
+	 */
+	private final BeanWrapper mBeanWrapper;
+
+	/**
+	 * The fields of the class which refer to other entities
+	 */
+	private final List<RelationField> mRelations;
+
+	/**
+	 * The fields of the class which are mapped to an rdf property, in declaration order
+	 */
+	private final List<PropertyField> mProperties;
+
+	/**
+	 * The rdfs:Class of the class, or null if it does not have one
+	 */
+	private final URI mRdfType;
+
+	private ModelMetadata(final Class<?> theClass) {
+		mClass = theClass;
+		mBeanWrapper = new BeanWrapper(theClass);
+
+		List<RelationField> aRelations = Lists.newArrayList();
+		List<PropertyField> aProperties = Lists.newArrayList();
+
+		for (Class<?> aClass = theClass; aClass != null && !aClass.equals(EmpireModel.class); aClass = aClass.getSuperclass()) {
+			RdfGenerator.addNamespaces(aClass);
+
+			for (Field aField : aClass.getDeclaredFields()) {
+				if (aField.isAnnotationPresent(OneToOne.class) || aField.isAnnotationPresent(ManyToOne.class)) {
+					aRelations.add(new RelationField(aField, false));
+				}
+				else if (aField.isAnnotationPresent(OneToMany.class) || aField.isAnnotationPresent(ManyToMany.class)) {
+					aRelations.add(new RelationField(aField, Collection.class.isAssignableFrom(aField.getType())));
+				}
+
+				if (aField.isAnnotationPresent(RdfProperty.class)) {
+					aProperties.add(new PropertyField(aField));
+				}
+			}
+		}
+
+		RdfsClass aRdfsClass = BeanReflectUtil.getAnnotation(theClass, RdfsClass.class);
+
+		mRelations = Collections.unmodifiableList(aRelations);
+		mProperties = Collections.unmodifiableList(aProperties);
+		mRdfType = aRdfsClass == null ? null : ValueFactoryImpl.getInstance().createURI(PrefixMapping.GLOBAL.uri(aRdfsClass.value()));
+	}
+
+	/**
+	 * Return the metadata of a model class
+	 * @param theClass the class
+	 * @return its metadata
+	 */
+	static ModelMetadata of(final Class<?> theClass) {
+		ModelMetadata aMetadata = mMetadata.get(theClass);
+
+		if (aMetadata == null) {
+			aMetadata = new ModelMetadata(theClass);
+
+			ModelMetadata aExisting = mMetadata.putIfAbsent(theClass, aMetadata);
+
+			if (aExisting != null) {
+				aMetadata = aExisting;
+			}
+		}
+
+		return aMetadata;
+	}
+
+	/**
+	 * Return the rdfs:Class of a model class
+	 * @param theClass the class
+	 * @return its rdfs:Class, or null if it does not have one
+	 */
+	public static URI rdfTypeOf(final Class<?> theClass) {
+		return of(theClass).getRdfType();
+	}
+
+	/**
+	 * Forget the metadata of all classes, they may have been reloaded
+	 */
+	public static void clear() {
+		mMetadata.clear();
+	}
+
+	/**
+	 * Return the bean wrapper of the class
+	 * @return the bean wrapper
+	 */
+	BeanWrapper getBeanWrapper() {
+		return mBeanWrapper;
+	}
+
+	/**
+	 * Return the fields of the class which refer to other entities
+	 * @return the relation fields
+	 */
+	List<RelationField> getRelations() {
+		return mRelations;
+	}
+
+	/**
+	 * Return the rdfs:Class of the class
+	 * @return the rdfs:Class, or null if the class does not have one
+	 */
+	URI getRdfType() {
+		return mRdfType;
+	}
+
+	/**
+	 * Return the fields of the class which are mapped to an rdf property
+	 * @return the property fields
+	 */
+	List<PropertyField> getProperties() {
+		return mProperties;
+	}
+
+	/**
+	 * Return the property fields with the given names, or, if no names are given, all the property fields which are
+	 * not hidden
+	 * @param theNames the names of the fields
+	 * @return the property fields
+	 * @throws IllegalArgumentException if one of the names is not a property field of the class
+	 */
+	List<PropertyField> getProperties(final String... theNames) {
+		List<PropertyField> aFields = Lists.newArrayList();
+
+		if (theNames.length == 0) {
+			for (PropertyField aField : mProperties) {
+				if (!aField.hidden) {
+					aFields.add(aField);
+				}
+			}
+
+			return aFields;
+		}
+
+		for (String aName : theNames) {
+			PropertyField aFound = null;
+
+			for (PropertyField aField : mProperties) {
+				if (aField.name.equals(aName)) {
+					aFound = aField;
+					break;
+				}
+			}
+
+			if (aFound == null) {
+				throw new IllegalArgumentException(aName + " is not an rdf property of " + mClass.getName());
+			}
+
+			aFields.add(aFound);
+		}
+
+		return aFields;
+	}
+
+	/**
+	 * A field which refers to one or many other entities
+	 */
+	static final class RelationField {
+
+		/**
+		 * The name of the field
+		 */
+		final String name;
+
+		/**
+		 * Whether or not the field is a collection of entities
+		 */
+		final boolean multiple;
+
+		/**
+		 * Whether or not the collection is a set, if the field is multiple
+		 */
+		final boolean set;
+
+		/**
+		 * The field
+		 */
+		private final Field mField;
+
+		/**
+		 * The suffixes of the request parameters which carry the ids of the related entities
+		 */
+		final String idParam;
+		final String atIdParam;
+
+		private RelationField(final Field theField, final boolean theMultiple) {
+			name = theField.getName();
+			multiple = theMultiple;
+			set = Set.class.isAssignableFrom(theField.getType());
+			mField = theField;
+
+			idParam = "." + name + ".id";
+			atIdParam = "." + name + "@id";
+		}
+
+		/**
+		 * Return the type of the entity, or entities, the field refers to.  It is only worked out when the field is
+		 * edited, so a collection which does not declare its element type only fails if ids are given for it.
+		 * @return the type of the related entities
+		 * @throws IllegalStateException if the field is a collection without a declared element type
+		 */
+		Class<?> elementType() {
+			if (!multiple) {
+				return mField.getType();
+			}
+
+			if (mField.getGenericType() instanceof ParameterizedType
+				&& ((ParameterizedType) mField.getGenericType()).getActualTypeArguments()[0] instanceof Class) {
+				return (Class<?>) ((ParameterizedType) mField.getGenericType()).getActualTypeArguments()[0];
+			}
+
+			throw new IllegalStateException("Cannot tell the type of the entities in " + mField.getDeclaringClass().getName() + "." + name);
+		}
+	}
+
+	/**
+	 * A field which is mapped to an rdf property
+	 */
+	static final class PropertyField {
+
+		/**
+		 * The name of the field
+		 */
+		final String name;
+
+		/**
+		 * The rdf property of the field
+		 */
+		final URI property;
+
+		/**
+		 * Whether or not the field is left out of projections unless it is asked for
+		 */
+		final boolean hidden;
+
+		/**
+		 * Whether or not the field is a collection of values
+		 */
+		final boolean multiple;
+
+		/**
+		 * The type of the value, or values, of the field
+		 */
+		final Class<?> type;
+
+		/**
+		 * The language of the values of the field, or the empty string for any language
+		 */
+		final String language;
+
+		private PropertyField(final Field theField) {
+			RdfProperty aProperty = theField.getAnnotation(RdfProperty.class);
+			ReadOnly aReadOnly = theField.getAnnotation(ReadOnly.class);
+
+			name = theField.getName();
+			property = ValueFactoryImpl.getInstance().createURI(PrefixMapping.GLOBAL.uri(aProperty.value()));
+			hidden = theField.isAnnotationPresent(Hidden.class) || (aReadOnly != null && aReadOnly.hidden());
+			multiple = Collection.class.isAssignableFrom(theField.getType());
+			language = aProperty.language();
+
+			if (multiple && theField.getGenericType() instanceof ParameterizedType
+				&& ((ParameterizedType) theField.getGenericType()).getActualTypeArguments()[0] instanceof Class) {
+				type = (Class<?>) ((ParameterizedType) theField.getGenericType()).getActualTypeArguments()[0];
+			}
+			else {
+				type = multiple ? Object.class : Primitives.wrap(theField.getType());
+			}
+		}
+
+		/**
+		 * Return whether or not a value of the property belongs to this field, which is not the case for literals in
+		 * a language other than the language of the field
+		 * @param theValue the value
+		 * @return true if the value belongs to the field, false otherwise
+		 */
+		boolean accepts(final Value theValue) {
+			return language.equals("")
+				   || !(theValue instanceof Literal)
+				   || ((Literal) theValue).getLanguage() == null
+				   || language.equalsIgnoreCase(((Literal) theValue).getLanguage());
+		}
+
+		/**
+		 * Convert a value of the property to the type of the field.  Resources are returned as their id, or as a
+		 * {@link java.net.URI} if that is the type of the field; literals which are not valid for the type of the field
+		 * are returned as their label.
+		 * @param theValue the value
+		 * @return the value as a java object
+		 */
+		Object toJava(final Value theValue) {
+			if (!(theValue instanceof Literal)) {
+				return type.equals(java.net.URI.class) ? java.net.URI.create(theValue.stringValue()) : theValue.stringValue();
+			}
+
+			Literal aLiteral = (Literal) theValue;
+
+			try {
+				if (type.equals(Integer.class)) {
+					return aLiteral.intValue();
+				}
+				else if (type.equals(Long.class)) {
+					return aLiteral.longValue();
+				}
+				else if (type.equals(Double.class)) {
+					return aLiteral.doubleValue();
+				}
+				else if (type.equals(Float.class)) {
+					return aLiteral.floatValue();
+				}
+				else if (type.equals(Short.class)) {
+					return aLiteral.shortValue();
+				}
+				else if (type.equals(Boolean.class)) {
+					return aLiteral.booleanValue();
+				}
+				else if (Date.class.isAssignableFrom(type)) {
+					return aLiteral.calendarValue().toGregorianCalendar().getTime();
+				}
+			}
+			catch (IllegalArgumentException e) {
+				// not a valid value for the type, fall through to the label
+			}
+
+			return aLiteral.getLabel();
+		}
+	}
+}
@@ -15,13 +15,21 @@
 
 package com.clarkparsia.play.imperium.models;
 
+import com.clarkparsia.play.imperium.jobs.CommitJournal;
 import com.clarkparsia.play.imperium.jobs.SyncJob;
+import com.clarkparsia.play.imperium.jobs.WriteBehindQueue;
+import com.clarkparsia.play.imperium.EmpirePlugin;
 import com.clarkparsia.play.imperium.Imperium;
+import com.clarkparsia.play.imperium.ImperiumException;
+import com.clarkparsia.play.imperium.metrics.Metrics;
 
 import play.db.jpa.JPASupport;
 import play.db.jpa.Model;
+import play.exceptions.UnexpectedException;
 
 import com.clarkparsia.empire.SupportsRdfId;
+import com.clarkparsia.empire.annotation.InvalidRdfException;
+import com.clarkparsia.empire.annotation.RdfGenerator;
 
 import javax.persistence.Column;
 import javax.persistence.MappedSuperclass;
@@ -50,23 +58,69 @@ public class RdfModel extends Model implements SupportsRdfId {
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends JPASupport> T save() {
-		try {
-			if (Imperium.em().contains(this)) {
-				Imperium.em().merge(this);
+		assertWritable();
+
+		if (WriteBehindQueue.isEnabled(getClass())) {
+			long aStart = Metrics.now();
+
+			try {
+				// make sure we have an rdf:ID before the row is written
+				RdfGenerator.id(this);
+			}
+			catch (InvalidRdfException e) {
+				throw new UnexpectedException(e);
+			}
+
+			super.save();
+
+			WriteBehindQueue.add(this, SyncLogEntry.Operation.SAVE);
+
+			Metrics.record(Metrics.Operation.SAVE, this, aStart);
+
+			// this should be a safe cast
+			return (T) this;
+		}
+
+		if (CommitJournal.isEnabled()) {
+			long aStart = Metrics.now();
+
+			try {
+				RdfGenerator.id(this);
 			}
-			else {
-				Imperium.em().persist(this);
+			catch (InvalidRdfException e) {
+				throw new UnexpectedException(e);
 			}
+
+			super.save();
+
+			// the rdf write is applied once the jpa transaction, which the journal entry is part of, commits
+			CommitJournal.prepare(this, SyncLogEntry.Operation.SAVE);
+
+			Metrics.record(Metrics.Operation.SAVE, this, aStart);
+
+			// this should be a safe cast
+			return (T) this;
+		}
+
+		boolean aFailed = false;
+
+		try {
+			Imperium.save(this);
 		}
 		catch (Throwable theException) {
 			theException.printStackTrace();
-			// the changes to the underlying database failed, we need to schedule a job to synch the hibernate
-			// database and the rdf database at a later date.
-			SyncJob.schedule();
+			aFailed = true;
 		}
 
 		super.save();
 
+		if (aFailed) {
+			// the changes to the underlying database failed, record the write in the outbox so the sync job can
+			// replay it against the rdf database at a later date.
+			SyncLogEntry.record(this, SyncLogEntry.Operation.SAVE);
+			SyncJob.schedule();
+		}
+
 		// this should be a safe cast
 		return (T) this;
 	}
@@ -82,17 +136,52 @@ public class RdfModel extends Model implements SupportsRdfId {
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends JPASupport> T delete() {
+		assertWritable();
+
+		if (WriteBehindQueue.isEnabled(getClass())) {
+			long aStart = Metrics.now();
+
+			super.delete();
+
+			WriteBehindQueue.add(this, SyncLogEntry.Operation.DELETE);
+
+			Metrics.record(Metrics.Operation.DELETE, this, aStart);
+
+			// this should be a safe case
+			return (T) this;
+		}
+
+		if (CommitJournal.isEnabled()) {
+			long aStart = Metrics.now();
+
+			super.delete();
+
+			CommitJournal.prepare(this, SyncLogEntry.Operation.DELETE);
+
+			Metrics.record(Metrics.Operation.DELETE, this, aStart);
+
+			// this should be a safe case
+			return (T) this;
+		}
+
+		boolean aFailed = false;
+
 		try {
-			Imperium.em().remove(this);
+			Imperium.remove(this);
 		}
 		catch (Throwable theException) {
-			// the changes to the underlying database failed, we need to schedule a job to synch the hibernate
-			// database and the rdf database at a later date.
-			SyncJob.schedule();
+			aFailed = true;
 		}
 
 		super.delete();
 
+		if (aFailed) {
+			// the changes to the underlying database failed, record the delete in the outbox so the sync job can
+			// replay it against the rdf database at a later date.
+			SyncLogEntry.record(this, SyncLogEntry.Operation.DELETE);
+			SyncJob.schedule();
+		}
+
 		// this should be a safe case
 		return (T) this;
 	}
@@ -115,4 +204,15 @@ public class RdfModel extends Model implements SupportsRdfId {
 			rdfid = theId.toString();
 		}
 	}
+
+	/**
+	 * Fail if this object is {@link com.clarkparsia.play.imperium.annotations.ReadOnly read-only}, or is being written
+	 * during a read-only invocation
+	 * @throws ImperiumException if the object cannot be written
+	 */
+	private void assertWritable() {
+		if (EmpirePlugin.isReadOnly() || Imperium.isReadOnly(getClass())) {
+			throw new ImperiumException("Cannot write " + this + ", it is read-only", null);
+		}
+	}
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.models;
+
+import play.db.jpa.JPA;
+import play.db.jpa.Model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>How far a full sync run has got with one {@link RdfModel} class: the id of the last row copied to the RDF
+ * database, and how many rows have been copied out of how many.  A checkpoint is updated in the same transaction as
+ * the page of rows it records, so a run which is interrupted, by a failure or a restart, resumes after the last page
+ * which was committed.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+@Entity
+@Table(name = "imperium_sync_checkpoint")
+public class SyncCheckpoint extends Model {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The id of the run the checkpoint belongs to
+	 */
+	@Column(name = "run_id", nullable = false)
+	public String runId;
+
+	/**
+	 * The fully qualified name of the model class
+	 */
+	@Column(name = "entity_class", nullable = false)
+	public String entityClass;
+
+	/**
+	 * The relational id of the last row copied, or null if none have been
+	 */
+	@Column(name = "last_id")
+	public Long lastId;
+
+	/**
+	 * The number of rows copied so far
+	 */
+	@Column(name = "synced")
+	public long synced;
+
+	/**
+	 * The number of rows there were when the run started
+	 */
+	@Column(name = "total")
+	public long total;
+
+	/**
+	 * Whether or not every row of the class has been copied
+	 */
+	@Column(name = "completed")
+	public boolean completed;
+
+	/**
+	 * Whether or not the named graph of the class was dropped when the run started, so its rows are added without
+	 * first removing what the RDF database holds about them
+	 */
+	@Column(name = "reload")
+	public boolean reload;
+
+	/**
+	 * When the run started
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "started", nullable = false)
+	public Date started;
+
+	/**
+	 * When the checkpoint was last updated
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "updated")
+	public Date updated;
+
+	/**
+	 * Return the checkpoint of a class in a run
+	 * @param theRunId the id of the run
+	 * @param theClass the name of the class
+	 * @return the checkpoint, or null if the class is not part of the run
+	 */
+	public static SyncCheckpoint find(final String theRunId, final String theClass) {
+		@SuppressWarnings("unchecked")
+		List<SyncCheckpoint> aCheckpoints = JPA.em().createQuery("select c from SyncCheckpoint c where c.runId = :run and c.entityClass = :class")
+				.setParameter("run", theRunId)
+				.setParameter("class", theClass)
+				.getResultList();
+
+		return aCheckpoints.isEmpty() ? null : aCheckpoints.get(0);
+	}
+
+	/**
+	 * Return the id of the most recent run which has not completed
+	 * @return the run id, or null if every run has completed
+	 */
+	public static String unfinishedRun() {
+		@SuppressWarnings("unchecked")
+		List<String> aRuns = JPA.em().createQuery("select c.runId from SyncCheckpoint c where c.completed = false order by c.started desc")
+				.setMaxResults(1)
+				.getResultList();
+
+		return aRuns.isEmpty() ? null : aRuns.get(0);
+	}
+
+	/**
+	 * Return the checkpoints of the most recent run, read in their own transaction so that the progress of a run can
+	 * be followed from outside of it
+	 * @return the checkpoints of the latest run, or an empty list if there has not been one
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<SyncCheckpoint> latestRun() {
+		EntityManager aManager = JPA.newEntityManager();
+
+		try {
+			List<String> aRuns = aManager.createQuery("select c.runId from SyncCheckpoint c order by c.started desc")
+					.setMaxResults(1)
+					.getResultList();
+
+			if (aRuns.isEmpty()) {
+				return Collections.emptyList();
+			}
+
+			return aManager.createQuery("select c from SyncCheckpoint c where c.runId = :run order by c.id")
+					.setParameter("run", aRuns.get(0))
+					.getResultList();
+		}
+		finally {
+			aManager.close();
+		}
+	}
+}
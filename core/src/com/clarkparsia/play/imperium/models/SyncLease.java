@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.models;
+
+import play.db.jpa.JPA;
+import play.db.jpa.Model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import com.google.common.collect.Sets;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>A named lease, stored in the relational database, which lets one node of a cluster at a time run a job, such as
+ * the {@link com.clarkparsia.play.imperium.jobs.SyncJob}.  Requests to run the job, from any node, are coalesced on
+ * the lease: they mark it as triggered, and whichever node next takes the lease consumes the trigger.  The lease
+ * expires if its holder stops renewing it, so a node which dies while holding it does not block the others.  Times
+ * are taken from the clock of the database rather than of the nodes, so the nodes do not need synchronized clocks.</p>
+ *
+ * <p>Every operation on a lease runs, and commits, in its own transaction so that it is immediately visible to the
+ * other nodes, whatever transaction the caller is in.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+@Entity
+@Table(name = "imperium_sync_lease")
+public class SyncLease extends Model {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The names of the leases whose row is known to exist
+	 */
+	private static final Set<String> mCreated = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * The name of the lease
+	 */
+	@Column(name = "name", nullable = false, unique = true)
+	public String name;
+
+	/**
+	 * The node holding the lease, or null if it is free
+	 */
+	@Column(name = "owner")
+	public String owner;
+
+	/**
+	 * When the lease held by the owner expires
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "expires")
+	public Date expires;
+
+	/**
+	 * When the job was first requested since the lease was last taken, or null if it has not been
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "triggered")
+	public Date triggered;
+
+	/**
+	 * Request a run of the job guarded by the lease.  Requests made before the lease is next taken are coalesced.
+	 * @param theName the name of the lease
+	 */
+	public static void trigger(final String theName) {
+		new LeaseTransaction<Void>(theName) {
+			Void run(final EntityManager theManager) {
+				theManager.createQuery("update SyncLease l set l.triggered = current_timestamp() where l.name = :name and l.triggered is null")
+						.setParameter("name", mName)
+						.executeUpdate();
+
+				return null;
+			}
+		}.execute();
+	}
+
+	/**
+	 * Take the lease, if it is free, has expired, or is already held by this node.  Taking the lease consumes any
+	 * pending trigger.
+	 * @param theName the name of the lease
+	 * @param theOwner the node taking the lease
+	 * @param theTtl how long the lease is held for, in milliseconds, unless it is renewed
+	 * @param theTriggeredOnly true to only take the lease if the job has been triggered
+	 * @return true if the lease was taken, false if another node holds it, or it was not triggered
+	 */
+	public static boolean acquire(final String theName, final String theOwner, final long theTtl, final boolean theTriggeredOnly) {
+		return new LeaseTransaction<Boolean>(theName) {
+			Boolean run(final EntityManager theManager) {
+				return theManager.createQuery("update SyncLease l set l.owner = :owner, l.expires = :expires, l.triggered = null " +
+											  "where l.name = :name and (l.owner is null or l.owner = :owner or l.expires < current_timestamp())" +
+											  (theTriggeredOnly ? " and l.triggered is not null" : ""))
+						.setParameter("owner", theOwner)
+						.setParameter("expires", new Date(now(theManager).getTime() + theTtl))
+						.setParameter("name", mName)
+						.executeUpdate() == 1;
+			}
+		}.execute();
+	}
+
+	/**
+	 * Extend a lease held by this node
+	 * @param theName the name of the lease
+	 * @param theOwner the node holding the lease
+	 * @param theTtl how long from now the lease is held for, in milliseconds
+	 * @return true if the lease was renewed, false if this node no longer holds it
+	 */
+	public static boolean renew(final String theName, final String theOwner, final long theTtl) {
+		return new LeaseTransaction<Boolean>(theName) {
+			Boolean run(final EntityManager theManager) {
+				return theManager.createQuery("update SyncLease l set l.expires = :expires where l.name = :name and l.owner = :owner")
+						.setParameter("expires", new Date(now(theManager).getTime() + theTtl))
+						.setParameter("name", mName)
+						.setParameter("owner", theOwner)
+						.executeUpdate() == 1;
+			}
+		}.execute();
+	}
+
+	/**
+	 * Give up a lease held by this node
+	 * @param theName the name of the lease
+	 * @param theOwner the node holding the lease
+	 * @return true if the job was triggered again while the lease was held, false otherwise
+	 */
+	public static boolean release(final String theName, final String theOwner) {
+		return new LeaseTransaction<Boolean>(theName) {
+			Boolean run(final EntityManager theManager) {
+				theManager.createQuery("update SyncLease l set l.owner = null, l.expires = null where l.name = :name and l.owner = :owner")
+						.setParameter("name", mName)
+						.setParameter("owner", theOwner)
+						.executeUpdate();
+
+				return !theManager.createQuery("select l.id from SyncLease l where l.name = :name and l.triggered is not null")
+						.setParameter("name", mName)
+						.getResultList().isEmpty();
+			}
+		}.execute();
+	}
+
+	/**
+	 * An operation on a lease, run in its own transaction on its own entity manager.  The lease row is created first
+	 * if it does not exist yet.
+	 * @param <T> the result of the operation
+	 */
+	private static abstract class LeaseTransaction<T> {
+
+		/**
+		 * The name of the lease
+		 */
+		protected final String mName;
+
+		LeaseTransaction(final String theName) {
+			mName = theName;
+		}
+
+		/**
+		 * Perform the operation
+		 * @param theManager the entity manager to use
+		 * @return the result
+		 */
+		abstract T run(EntityManager theManager);
+
+		/**
+		 * Return the current time of the database, which every node agrees on
+		 * @param theManager the entity manager to use
+		 * @return the current time
+		 */
+		Date now(final EntityManager theManager) {
+			return (Date) theManager.createQuery("select current_timestamp() from SyncLease l where l.name = :name")
+					.setParameter("name", mName)
+					.getSingleResult();
+		}
+
+		/**
+		 * Run the operation and commit it
+		 * @return the result of the operation
+		 */
+		T execute() {
+			create();
+
+			EntityManager aManager = JPA.newEntityManager();
+
+			try {
+				aManager.getTransaction().begin();
+
+				T aResult = run(aManager);
+
+				aManager.getTransaction().commit();
+
+				return aResult;
+			}
+			finally {
+				if (aManager.getTransaction().isActive()) {
+					aManager.getTransaction().rollback();
+				}
+
+				aManager.close();
+			}
+		}
+
+		/**
+		 * Create the row of the lease, if no node has yet
+		 */
+		private void create() {
+			if (mCreated.contains(mName)) {
+				return;
+			}
+
+			EntityManager aManager = JPA.newEntityManager();
+
+			try {
+				aManager.getTransaction().begin();
+
+				if (aManager.createQuery("select l.id from SyncLease l where l.name = :name")
+						.setParameter("name", mName)
+						.getResultList().isEmpty()) {
+					SyncLease aLease = new SyncLease();
+					aLease.name = mName;
+
+					aManager.persist(aLease);
+				}
+
+				aManager.getTransaction().commit();
+
+				mCreated.add(mName);
+			}
+			catch (PersistenceException e) {
+				// another node created it at the same time, the unique name lets only one of them do it
+			}
+			finally {
+				if (aManager.getTransaction().isActive()) {
+					aManager.getTransaction().rollback();
+				}
+
+				aManager.close();
+			}
+		}
+	}
+}
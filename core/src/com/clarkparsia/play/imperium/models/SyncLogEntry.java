@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.models;
+
+import play.db.jpa.Model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import java.util.Date;
+
+/**
+ * <p>Outbox entry recording an RDF write for an {@link RdfModel} which failed, or which has been journaled by the
+ * {@link com.clarkparsia.play.imperium.jobs.CommitJournal} but not yet applied.  Entries are stored in the relational
+ * database in the same transaction as the change to the model, so they survive restarts, and are replayed against
+ * the RDF database by the {@link com.clarkparsia.play.imperium.jobs.SyncJob}.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+@Entity
+@Table(name = "imperium_sync_log")
+public class SyncLogEntry extends Model {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The kinds of RDF writes which can be recorded
+	 */
+	public enum Operation {
+		SAVE, DELETE
+	}
+
+	/**
+	 * The fully qualified name of the class of the model which was not written
+	 */
+	@Column(name = "entity_class", nullable = false)
+	public String entityClass;
+
+	/**
+	 * The relational id of the model which was not written
+	 */
+	@Column(name = "entity_id")
+	public Long entityId;
+
+	/**
+	 * The rdf:ID of the model which was not written
+	 */
+	@Column(name = "rdfid")
+	public String rdfid;
+
+	/**
+	 * The write which failed
+	 */
+	@Enumerated(EnumType.STRING)
+	@Column(name = "operation", nullable = false)
+	public Operation operation;
+
+	/**
+	 * When the write failed
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "created", nullable = false)
+	public Date timestamp;
+
+	/**
+	 * The number of times replaying this entry has been attempted
+	 */
+	@Column(name = "attempts")
+	public int attempts;
+
+	/**
+	 * Record a failed RDF write of the given model
+	 * @param theModel the model which could not be written to the RDF database
+	 * @param theOperation the write that failed
+	 * @return the new entry
+	 */
+	public static SyncLogEntry record(final RdfModel theModel, final Operation theOperation) {
+		return record(theModel.getClass().getName(), theModel.getId(), theModel.rdfid, theOperation);
+	}
+
+	/**
+	 * Record a failed RDF write of a model
+	 * @param theClass the name of the class of the model
+	 * @param theId the relational id of the model
+	 * @param theRdfId the rdf:ID of the model
+	 * @param theOperation the write that failed
+	 * @return the new entry
+	 */
+	public static SyncLogEntry record(final String theClass, final Long theId, final String theRdfId,
+									  final Operation theOperation) {
+		SyncLogEntry aEntry = new SyncLogEntry();
+
+		aEntry.entityClass = theClass;
+		aEntry.entityId = theId;
+		aEntry.rdfid = theRdfId;
+		aEntry.operation = theOperation;
+		aEntry.timestamp = new Date();
+
+		return aEntry.save();
+	}
+
+	/**
+	 * Return the key identifying the model this entry refers to; entries with the same key replace one another
+	 * @return the model key
+	 */
+	public String modelKey() {
+		return entityClass + "#" + (entityId != null ? entityId.toString() : rdfid);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.play.imperium.annotations.Cached;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import play.cache.Cache;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * <p>Tests of when an entity in the {@link EntityCache} is current, against the {@link WriteGenerations write
+ * generations} of its class.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class EntityCacheTest {
+
+	private static final String ID = "urn:test:a";
+
+	@Before
+	public void createCache() {
+		Cache.cacheImpl = new MemoryCache();
+		EntityCache.clear();
+	}
+
+	@After
+	public void clearCache() {
+		EntityCache.clear();
+		Cache.cacheImpl = null;
+	}
+
+	@Test
+	public void testCachedUntilAWriteCommits() {
+		Person aPerson = new Person();
+
+		EntityCache.put(Person.class, ID, aPerson, WriteGenerations.current(Person.class));
+
+		assertSame(aPerson, EntityCache.get(Person.class, ID));
+
+		WriteGenerations.advance(Person.class);
+
+		assertNull(EntityCache.get(Person.class, ID));
+	}
+
+	@Test
+	public void testWriteDuringTheLoad() {
+		// the generation is read before the entity is loaded, a write which commits while it loads makes it stale
+		String aGeneration = WriteGenerations.current(Person.class);
+
+		WriteGenerations.advance(Person.class);
+
+		EntityCache.put(Person.class, ID, new Person(), aGeneration);
+
+		assertNull(EntityCache.get(Person.class, ID));
+	}
+
+	@Test
+	public void testWriteOfASubclass() {
+		Person aPerson = new Person();
+
+		EntityCache.put(Person.class, ID, aPerson, WriteGenerations.current(Person.class));
+
+		// a write of another class leaves it alone
+		WriteGenerations.advance(Place.class);
+
+		assertSame(aPerson, EntityCache.get(Person.class, ID));
+
+		// but one of a subclass may have changed one of its instances
+		WriteGenerations.advance(Employee.class);
+
+		assertNull(EntityCache.get(Person.class, ID));
+	}
+
+	@Cached
+	public static class Person {
+	}
+
+	public static class Employee extends Person {
+	}
+
+	@Cached
+	public static class Place {
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.SupportsRdfId;
+import com.clarkparsia.empire.annotation.RdfProperty;
+import com.clarkparsia.empire.annotation.RdfsClass;
+import com.clarkparsia.empire.annotation.SupportsRdfIdImpl;
+
+import com.clarkparsia.openrdf.ExtGraph;
+
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+
+import javax.persistence.Entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Tests of how {@link Imperium#findAll} loads entities, against a {@link MemoryDataSource}.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class ImperiumTest {
+
+	private static final ValueFactory FACTORY = new ValueFactoryImpl();
+
+	private static final URI PERSON = FACTORY.createURI("http://example.org/test#Person");
+
+	private static final URI NAME = FACTORY.createURI("http://example.org/test#name");
+
+	@BeforeClass
+	public static void startEmpire() throws Exception {
+		MemoryDataSource.startEmpire(Person.class);
+	}
+
+	@AfterClass
+	public static void stopEmpire() {
+		MemoryDataSource.stopEmpire();
+	}
+
+	@Before
+	public void addPeople() throws Exception {
+		MemoryDataSource.INSTANCE.clear();
+
+		ExtGraph aGraph = new ExtGraph();
+
+		for (String aName : Arrays.asList("a", "b", "c")) {
+			URI aPerson = FACTORY.createURI("urn:test:" + aName);
+
+			aGraph.add(aPerson, RDF.TYPE, PERSON);
+			aGraph.add(aPerson, NAME, FACTORY.createLiteral(aName));
+		}
+
+		MemoryDataSource.INSTANCE.add(aGraph);
+	}
+
+	@After
+	public void closeEmpire() {
+		Imperium.close();
+	}
+
+	@Test
+	public void testFindAll() {
+		Map<String, Person> aPeople = Imperium.findAll(Person.class, Arrays.asList("urn:test:c", "urn:test:missing", "urn:test:a"));
+
+		// ids which do not exist are left out, the others are in the order they were given
+		assertEquals(Arrays.asList("urn:test:c", "urn:test:a"), Lists.newArrayList(aPeople.keySet()));
+
+		assertEquals("c", aPeople.get("urn:test:c").name);
+		assertEquals("a", aPeople.get("urn:test:a").name);
+	}
+
+	@Test
+	public void testOneQueryPerBatch() throws Exception {
+		List<String> aIds = Lists.newArrayList();
+		ExtGraph aGraph = new ExtGraph();
+
+		for (int i = 0; i < Imperium.BATCH_SIZE; i++) {
+			URI aPerson = FACTORY.createURI("urn:test:batch" + i);
+
+			aGraph.add(aPerson, RDF.TYPE, PERSON);
+			aGraph.add(aPerson, NAME, FACTORY.createLiteral("batch" + i));
+
+			aIds.add(aPerson.toString());
+		}
+
+		MemoryDataSource.INSTANCE.add(aGraph);
+
+		int aQueries = MemoryDataSource.INSTANCE.getQueryCount();
+
+		assertEquals(Imperium.BATCH_SIZE, Imperium.findAll(Person.class, aIds).size());
+		assertEquals(aQueries + 1, MemoryDataSource.INSTANCE.getQueryCount());
+
+		aIds.add("urn:test:a");
+
+		aQueries = MemoryDataSource.INSTANCE.getQueryCount();
+
+		assertEquals(Imperium.BATCH_SIZE + 1, Imperium.findAll(Person.class, aIds).size());
+		assertEquals(aQueries + 2, MemoryDataSource.INSTANCE.getQueryCount());
+	}
+
+	@Test
+	public void testNothingFound() {
+		int aQueries = MemoryDataSource.INSTANCE.getQueryCount();
+
+		assertTrue(Imperium.findAll(Person.class, Arrays.asList("urn:test:missing", "urn:test:gone")).isEmpty());
+		assertEquals(aQueries + 1, MemoryDataSource.INSTANCE.getQueryCount());
+
+		assertTrue(Imperium.findAll(Person.class, Collections.<String>emptyList()).isEmpty());
+		assertEquals(aQueries + 1, MemoryDataSource.INSTANCE.getQueryCount());
+	}
+
+	@Entity
+	@RdfsClass("http://example.org/test#Person")
+	public static class Person implements SupportsRdfId {
+
+		@RdfProperty("http://example.org/test#name")
+		public String name;
+
+		private final SupportsRdfId mId = new SupportsRdfIdImpl();
+
+		public RdfKey getRdfId() {
+			return mId.getRdfId();
+		}
+
+		public void setRdfId(final RdfKey theId) {
+			mId.setRdfId(theId);
+		}
+	}
+}
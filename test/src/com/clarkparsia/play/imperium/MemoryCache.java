@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.google.common.collect.Maps;
+
+import play.cache.CacheImpl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Play! cache kept in a map, which never expires anything, for tests of code which keeps state in the Play! cache
+ * without starting Play!.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class MemoryCache implements CacheImpl {
+
+	private final ConcurrentMap<String, Object> mValues = Maps.newConcurrentMap();
+
+	public void add(final String theKey, final Object theValue, final int theExpiration) {
+		safeAdd(theKey, theValue, theExpiration);
+	}
+
+	public boolean safeAdd(final String theKey, final Object theValue, final int theExpiration) {
+		return mValues.putIfAbsent(theKey, theValue) == null;
+	}
+
+	public void set(final String theKey, final Object theValue, final int theExpiration) {
+		mValues.put(theKey, theValue);
+	}
+
+	public boolean safeSet(final String theKey, final Object theValue, final int theExpiration) {
+		set(theKey, theValue, theExpiration);
+		return true;
+	}
+
+	public void replace(final String theKey, final Object theValue, final int theExpiration) {
+		safeReplace(theKey, theValue, theExpiration);
+	}
+
+	public boolean safeReplace(final String theKey, final Object theValue, final int theExpiration) {
+		return mValues.replace(theKey, theValue) != null;
+	}
+
+	public Object get(final String theKey) {
+		return mValues.get(theKey);
+	}
+
+	public Map<String, Object> get(final String[] theKeys) {
+		Map<String, Object> aValues = Maps.newHashMap();
+
+		for (String aKey : theKeys) {
+			aValues.put(aKey, mValues.get(aKey));
+		}
+
+		return aValues;
+	}
+
+	public synchronized long incr(final String theKey, final int theBy) {
+		long aValue = ((Number) mValues.get(theKey)).longValue() + theBy;
+
+		mValues.put(theKey, aValue);
+
+		return aValue;
+	}
+
+	public long decr(final String theKey, final int theBy) {
+		return incr(theKey, -theBy);
+	}
+
+	public void clear() {
+		mValues.clear();
+	}
+
+	public void delete(final String theKey) {
+		mValues.remove(theKey);
+	}
+
+	public boolean safeDelete(final String theKey) {
+		return mValues.remove(theKey) != null;
+	}
+
+	public void stop() {
+	}
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.annotation.RdfsClass;
+import com.clarkparsia.empire.ds.Alias;
+import com.clarkparsia.empire.ds.DataSource;
+import com.clarkparsia.empire.ds.DataSourceException;
+import com.clarkparsia.empire.ds.DataSourceFactory;
+import com.clarkparsia.empire.ds.MutableDataSource;
+import com.clarkparsia.empire.ds.QueryException;
+import com.clarkparsia.empire.ds.ResultSet;
+import com.clarkparsia.empire.ds.impl.AbstractDataSource;
+import com.clarkparsia.empire.ds.impl.AbstractResultSet;
+import com.clarkparsia.empire.impl.RdfQueryFactory;
+import com.clarkparsia.empire.impl.sparql.SPARQLDialect;
+import com.clarkparsia.empire.util.EmpireModule;
+
+import com.clarkparsia.openrdf.ExtGraph;
+
+import com.google.common.collect.Lists;
+import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
+
+import info.aduna.iteration.CloseableIteration;
+
+import org.openrdf.model.Graph;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.impl.EmptyBindingSet;
+import org.openrdf.query.parser.ParsedQuery;
+import org.openrdf.query.parser.sparql.SPARQLParser;
+import org.openrdf.sail.SailConnection;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import play.Play;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * <p>Data source kept in an in-memory Sesame store, which counts the queries run against it, for tests which need
+ * an Empire entity manager without an RDF database.  {@link #startEmpire} starts the Empire plugin with it as the
+ * 'memory' data source, and every entity manager created by Empire uses the same {@link #INSTANCE instance}.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public final class MemoryDataSource extends AbstractDataSource implements MutableDataSource {
+
+	public static final MemoryDataSource INSTANCE = new MemoryDataSource();
+
+	private static File mIndex;
+
+	private MemoryStore mStore;
+
+	private int mQueries;
+
+	private boolean mFailing;
+
+	private MemoryDataSource() {
+		clear();
+	}
+
+	/**
+	 * Start the Empire plugin, as Play! does when the application starts, with this as its data source
+	 * @param theEntities the Empire entity classes
+	 * @throws IOException if the annotation index of the entity classes cannot be written
+	 */
+	public static void startEmpire(final Class<?>... theEntities) throws IOException {
+		mIndex = File.createTempFile("imperium", ".index");
+
+		FileWriter aWriter = new FileWriter(mIndex);
+
+		try {
+			aWriter.write(RdfsClass.class.getName() + "=");
+
+			for (int i = 0; i < theEntities.length; i++) {
+				aWriter.write((i > 0 ? "," : "") + theEntities[i].getName());
+			}
+
+			aWriter.write("\n");
+		}
+		finally {
+			aWriter.close();
+		}
+
+		Play.configuration = new Properties();
+		Play.configuration.setProperty("empire.support", Module.class.getName());
+		Play.configuration.setProperty("empire.factory", "memory");
+		Play.configuration.setProperty("empire.annotation.index", mIndex.getAbsolutePath());
+		Play.configuration.setProperty("empire.metrics.sink", "none");
+
+		ClassLoader aLoader = Thread.currentThread().getContextClassLoader();
+
+		try {
+			new EmpirePlugin().onApplicationStart();
+		}
+		finally {
+			// the plugin switches to the Play! classloader, which is not there outside of Play!
+			Thread.currentThread().setContextClassLoader(aLoader);
+		}
+	}
+
+	/**
+	 * Stop the Empire plugin, as Play! does when the application stops
+	 */
+	public static void stopEmpire() {
+		new EmpirePlugin().onApplicationStop();
+
+		mIndex.delete();
+	}
+
+	/**
+	 * Remove every statement from the data source, and reset the count of queries
+	 */
+	public synchronized void clear() {
+		try {
+			if (mStore != null) {
+				mStore.shutDown();
+			}
+
+			mStore = new MemoryStore();
+			mStore.initialize();
+		}
+		catch (SailException e) {
+			throw new IllegalStateException(e);
+		}
+
+		mQueries = 0;
+		mFailing = false;
+	}
+
+	/**
+	 * Make every write to the data source fail, or succeed again
+	 * @param theFailing true to make writes fail
+	 */
+	public synchronized void setFailing(final boolean theFailing) {
+		mFailing = theFailing;
+	}
+
+	/**
+	 * Return whether or not the data source has a statement
+	 * @param theSubject the subject of the statement
+	 * @param thePredicate the predicate of the statement
+	 * @param theObject the object of the statement
+	 * @return true if it has the statement, false otherwise
+	 */
+	public synchronized boolean contains(final Resource theSubject, final URI thePredicate, final Value theObject) {
+		try {
+			SailConnection aConn = mStore.getConnection();
+
+			try {
+				CloseableIteration<? extends Statement, SailException> aIter = aConn.getStatements(theSubject, thePredicate, theObject, false);
+
+				try {
+					return aIter.hasNext();
+				}
+				finally {
+					aIter.close();
+				}
+			}
+			finally {
+				aConn.close();
+			}
+		}
+		catch (SailException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Return the number of select and construct queries run against the data source
+	 * @return the number of queries
+	 */
+	public synchronized int getQueryCount() {
+		return mQueries;
+	}
+
+	public void connect() {
+		if (getQueryFactory() == null) {
+			// the query factory reads the named queries from Empire, so it cannot be created before Empire starts
+			setQueryFactory(new RdfQueryFactory(this, SPARQLDialect.instance()));
+		}
+
+		setConnected(true);
+	}
+
+	public void disconnect() {
+		setConnected(false);
+	}
+
+	public synchronized void add(final Graph theGraph) throws DataSourceException {
+		if (mFailing) {
+			throw new DataSourceException("writes are failing");
+		}
+
+		try {
+			SailConnection aConn = mStore.getConnection();
+
+			try {
+				for (Statement aStmt : theGraph) {
+					aConn.addStatement(aStmt.getSubject(), aStmt.getPredicate(), aStmt.getObject());
+				}
+
+				aConn.commit();
+			}
+			finally {
+				aConn.close();
+			}
+		}
+		catch (SailException e) {
+			throw new DataSourceException(e);
+		}
+	}
+
+	public synchronized void remove(final Graph theGraph) throws DataSourceException {
+		if (mFailing) {
+			throw new DataSourceException("writes are failing");
+		}
+
+		try {
+			SailConnection aConn = mStore.getConnection();
+
+			try {
+				for (Statement aStmt : theGraph) {
+					aConn.removeStatements(aStmt.getSubject(), aStmt.getPredicate(), aStmt.getObject());
+				}
+
+				aConn.commit();
+			}
+			finally {
+				aConn.close();
+			}
+		}
+		catch (SailException e) {
+			throw new DataSourceException(e);
+		}
+	}
+
+	public ResultSet selectQuery(final String theQuery) throws QueryException {
+		return new AbstractResultSet(evaluate(theQuery)) {
+			public void close() {
+			}
+		};
+	}
+
+	public Graph graphQuery(final String theQuery) throws QueryException {
+		ExtGraph aGraph = new ExtGraph();
+
+		for (BindingSet aBinding : evaluate(theQuery)) {
+			Value aSubject = aBinding.getValue("subject");
+			Value aPredicate = aBinding.getValue("predicate");
+			Value aObject = aBinding.getValue("object");
+
+			if (aSubject instanceof Resource && aPredicate instanceof URI && aObject != null) {
+				aGraph.add((Resource) aSubject, (URI) aPredicate, aObject);
+			}
+		}
+
+		return aGraph;
+	}
+
+	public boolean ask(final String theQuery) throws QueryException {
+		return !evaluate(theQuery).isEmpty();
+	}
+
+	public Graph describe(final String theQuery) throws QueryException {
+		throw new QueryException("describe queries are not supported");
+	}
+
+	private synchronized List<BindingSet> evaluate(final String theQuery) throws QueryException {
+		mQueries++;
+
+		try {
+			ParsedQuery aQuery = new SPARQLParser().parseQuery(theQuery, null);
+
+			SailConnection aConn = mStore.getConnection();
+
+			try {
+				CloseableIteration<? extends BindingSet, QueryEvaluationException> aIter
+						= aConn.evaluate(aQuery.getTupleExpr(), aQuery.getDataset(), EmptyBindingSet.getInstance(), false);
+
+				try {
+					List<BindingSet> aResults = Lists.newArrayList();
+
+					while (aIter.hasNext()) {
+						aResults.add(aIter.next());
+					}
+
+					return aResults;
+				}
+				finally {
+					aIter.close();
+				}
+			}
+			finally {
+				aConn.close();
+			}
+		}
+		catch (Exception e) {
+			throw new QueryException(e);
+		}
+	}
+
+	/**
+	 * Creates the 'memory' data source
+	 */
+	@Alias("memory")
+	public static class Factory implements DataSourceFactory {
+		public boolean canCreate(final Map<String, Object> theConfig) {
+			return true;
+		}
+
+		public DataSource create(final Map<String, Object> theConfig) {
+			return INSTANCE;
+		}
+	}
+
+	/**
+	 * Registers the 'memory' data source with Empire
+	 */
+	public static class Module extends AbstractModule implements EmpireModule {
+		@Override
+		protected void configure() {
+			Multibinder.newSetBinder(binder(), DataSourceFactory.class).addBinding().to(Factory.class);
+		}
+	}
+}
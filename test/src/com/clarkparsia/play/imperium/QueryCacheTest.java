@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.play.imperium.annotations.Cached;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import play.cache.Cache;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * <p>Tests of when a query result in the {@link QueryCache} is current, against the {@link WriteGenerations write
+ * generations} of the class it was queried for.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class QueryCacheTest {
+
+	private static final String QUERY = "select ?s where { ?s ?p ?o }";
+
+	@Before
+	public void createCache() {
+		Cache.cacheImpl = new MemoryCache();
+		QueryCache.clear();
+	}
+
+	@After
+	public void clearCache() {
+		QueryCache.clear();
+		Cache.cacheImpl = null;
+	}
+
+	@Test
+	public void testCachedUntilAWriteCommits() {
+		List<String> aResult = Arrays.asList("urn:test:a", "urn:test:b");
+
+		String aKey = QueryCache.key(Person.class, QUERY, 10, 0);
+
+		QueryCache.put(Person.class, aKey, aResult, WriteGenerations.current(Person.class));
+
+		assertSame(aResult, QueryCache.get(Person.class, aKey));
+
+		WriteGenerations.advance(Person.class);
+
+		assertNull(QueryCache.get(Person.class, aKey));
+		assertEquals(0, QueryCache.size());
+	}
+
+	@Test
+	public void testWriteDuringTheQuery() {
+		// the generation is read before the query runs, a write which commits while it runs makes the result stale
+		String aGeneration = WriteGenerations.current(Person.class);
+
+		String aKey = QueryCache.key(Person.class, QUERY);
+
+		WriteGenerations.advance(Person.class);
+
+		QueryCache.put(Person.class, aKey, Arrays.asList("urn:test:a"), aGeneration);
+
+		assertNull(QueryCache.get(Person.class, aKey));
+	}
+
+	@Test
+	public void testParametersAreKeyed() {
+		List<String> aFirstPage = Arrays.asList("urn:test:a");
+
+		QueryCache.put(Person.class, QueryCache.key(Person.class, QUERY, 1, 0), aFirstPage, WriteGenerations.current(Person.class));
+
+		assertFalse(QueryCache.key(Person.class, QUERY, 1, 0).equals(QueryCache.key(Person.class, QUERY, 1, 1)));
+
+		long aHits = QueryCache.getHitCount();
+		long aMisses = QueryCache.getMissCount();
+
+		assertSame(aFirstPage, QueryCache.get(Person.class, QueryCache.key(Person.class, QUERY, 1, 0)));
+		assertNull(QueryCache.get(Person.class, QueryCache.key(Person.class, QUERY, 1, 1)));
+
+		assertEquals(aHits + 1, QueryCache.getHitCount());
+		assertEquals(aMisses + 1, QueryCache.getMissCount());
+	}
+
+	@Cached
+	public static class Person {
+	}
+}
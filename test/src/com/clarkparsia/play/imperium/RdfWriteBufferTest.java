@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium;
+
+import com.clarkparsia.empire.SupportsRdfId;
+import com.clarkparsia.empire.annotation.SupportsRdfIdImpl;
+import com.clarkparsia.empire.ds.MutableDataSource;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+
+import org.openrdf.model.Graph;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Tests of how the {@link RdfWriteBuffer} merges the writes of a transaction, and of the statements it sends to
+ * the data source for them.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class RdfWriteBufferTest {
+
+	private static final ValueFactory FACTORY = new ValueFactoryImpl();
+
+	private static final URI NAME = FACTORY.createURI("urn:test:name");
+
+	private static final URI AGE = FACTORY.createURI("urn:test:age");
+
+	@Test
+	public void testOnlyTheDifferenceIsWritten() throws Exception {
+		Statement aName = FACTORY.createStatement(FACTORY.createURI("urn:test:a"), NAME, FACTORY.createLiteral("a"));
+		Statement aOldAge = FACTORY.createStatement(FACTORY.createURI("urn:test:a"), AGE, FACTORY.createLiteral(1));
+		Statement aNewAge = FACTORY.createStatement(FACTORY.createURI("urn:test:a"), AGE, FACTORY.createLiteral(2));
+
+		RecordingDataSource aSource = new RecordingDataSource();
+
+		assertTrue(RdfWriteBuffer.write(aSource.proxy(), Sets.newHashSet(aName, aOldAge), Sets.newHashSet(aName, aNewAge)));
+
+		assertEquals(1, aSource.mRemoves.size());
+		assertEquals(Collections.singleton(aOldAge), aSource.mRemoves.get(0));
+
+		assertEquals(1, aSource.mAdds.size());
+		assertEquals(Collections.singleton(aNewAge), aSource.mAdds.get(0));
+	}
+
+	@Test
+	public void testUnchangedStatementsAreNotWritten() throws Exception {
+		Statement aName = FACTORY.createStatement(FACTORY.createURI("urn:test:a"), NAME, FACTORY.createLiteral("a"));
+
+		RecordingDataSource aSource = new RecordingDataSource();
+
+		assertFalse(RdfWriteBuffer.write(aSource.proxy(), Sets.newHashSet(aName), Sets.newHashSet(aName)));
+		assertFalse(RdfWriteBuffer.write(aSource.proxy(), Collections.<Statement>emptySet(), Collections.<Statement>emptySet()));
+
+		assertTrue(aSource.mRemoves.isEmpty());
+		assertTrue(aSource.mAdds.isEmpty());
+	}
+
+	@Test
+	public void testNewAndRemovedEntities() throws Exception {
+		Statement aFirst = FACTORY.createStatement(FACTORY.createURI("urn:test:a"), NAME, FACTORY.createLiteral("a"));
+		Statement aSecond = FACTORY.createStatement(FACTORY.createURI("urn:test:b"), NAME, FACTORY.createLiteral("b"));
+
+		RecordingDataSource aSource = new RecordingDataSource();
+
+		// a new entity is only added
+		assertTrue(RdfWriteBuffer.write(aSource.proxy(), Collections.<Statement>emptySet(), Sets.newHashSet(aFirst, aSecond)));
+
+		assertTrue(aSource.mRemoves.isEmpty());
+		assertEquals(Sets.newHashSet(aFirst, aSecond), aSource.mAdds.get(0));
+
+		// and a removed one only removed
+		assertTrue(RdfWriteBuffer.write(aSource.proxy(), Sets.newHashSet(aFirst, aSecond), Sets.newHashSet(aSecond)));
+
+		assertEquals(1, aSource.mAdds.size());
+		assertEquals(Collections.singleton(aFirst), aSource.mRemoves.get(0));
+	}
+
+	@Test
+	public void testRepeatedWritesAreMerged() throws Exception {
+		Thing aFirst = new Thing("urn:test:first");
+		Thing aSecond = new Thing("urn:test:second");
+
+		RdfWriteBuffer aBuffer = new RdfWriteBuffer();
+
+		assertTrue(aBuffer.isEmpty());
+
+		aBuffer.save(aFirst);
+		aBuffer.save(aSecond);
+		aBuffer.save(aFirst);
+
+		assertEquals(Arrays.<Object>asList(aFirst, aSecond), aBuffer.entities(false));
+		assertTrue(aBuffer.entities(true).isEmpty());
+
+		// the last write of an entity is the one which is kept
+		aBuffer.remove(aSecond);
+
+		assertEquals(Arrays.<Object>asList(aFirst), aBuffer.entities(false));
+		assertEquals(Arrays.<Object>asList(aSecond), aBuffer.entities(true));
+
+		// a different instance with the same rdf:ID is the same entity
+		Thing aCopy = new Thing("urn:test:second");
+
+		aBuffer.save(aCopy);
+
+		assertEquals(Arrays.<Object>asList(aFirst, aCopy), aBuffer.entities(false));
+		assertTrue(aBuffer.entities(true).isEmpty());
+
+		aBuffer.clear();
+
+		assertTrue(aBuffer.isEmpty());
+	}
+
+	/**
+	 * An entity which only has an rdf:ID
+	 */
+	private static class Thing implements SupportsRdfId {
+		private final SupportsRdfId mId;
+
+		private Thing(final String theId) {
+			mId = new SupportsRdfIdImpl(java.net.URI.create(theId));
+		}
+
+		public RdfKey getRdfId() {
+			return mId.getRdfId();
+		}
+
+		public void setRdfId(final RdfKey theId) {
+			mId.setRdfId(theId);
+		}
+	}
+
+	/**
+	 * Records the graphs added to, and removed from, a data source
+	 */
+	private static class RecordingDataSource implements InvocationHandler {
+		private final List<Set<Statement>> mAdds = Lists.newArrayList();
+		private final List<Set<Statement>> mRemoves = Lists.newArrayList();
+
+		private MutableDataSource proxy() {
+			return (MutableDataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MutableDataSource.class }, this);
+		}
+
+		public Object invoke(final Object theProxy, final Method theMethod, final Object[] theArgs) {
+			if (theMethod.getName().equals("add")) {
+				mAdds.add(Sets.newHashSet((Graph) theArgs[0]));
+			}
+			else if (theMethod.getName().equals("remove")) {
+				mRemoves.add(Sets.newHashSet((Graph) theArgs[0]));
+			}
+			else {
+				throw new UnsupportedOperationException(theMethod.getName());
+			}
+
+			return null;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import com.clarkparsia.empire.annotation.RdfProperty;
+import com.clarkparsia.empire.annotation.RdfsClass;
+
+import com.clarkparsia.play.imperium.MemoryDataSource;
+import com.clarkparsia.play.imperium.models.RdfModel;
+import com.clarkparsia.play.imperium.models.SyncLease;
+import com.clarkparsia.play.imperium.models.SyncLogEntry;
+
+import org.hibernate.ejb.Ejb3Configuration;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import play.Play;
+import play.classloading.ApplicationClasses;
+import play.classloading.ApplicationClassloader;
+import play.db.jpa.JPA;
+import play.db.jpa.JPAPlugin;
+import play.jobs.JobsPlugin;
+import play.vfs.VirtualFile;
+
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Tests of how the {@link CommitJournal} applies the RDF writes journaled by an invocation once its JPA transaction
+ * has committed, against an in-memory H2 database and a {@link MemoryDataSource}.  The replays it schedules are put
+ * on an executor which is shut down before any of them would start.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class CommitJournalTest {
+
+	private static final ValueFactory FACTORY = new ValueFactoryImpl();
+
+	private static final URI TEXT = FACTORY.createURI("http://example.org/test#text");
+
+	private ScheduledThreadPoolExecutor mExecutor;
+
+	@BeforeClass
+	public static void startDatabases() throws Exception {
+		Ejb3Configuration aConfig = new Ejb3Configuration();
+
+		aConfig.addAnnotatedClass(SyncLogEntry.class);
+		aConfig.addAnnotatedClass(SyncLease.class);
+		aConfig.addAnnotatedClass(Note.class);
+		aConfig.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+		aConfig.setProperty("hibernate.connection.url", "jdbc:h2:mem:imperium-journal;DB_CLOSE_DELAY=-1");
+		aConfig.setProperty("hibernate.connection.username", "sa");
+		aConfig.setProperty("hibernate.connection.password", "");
+		aConfig.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+		aConfig.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+
+		JPA.entityManagerFactory = aConfig.buildEntityManagerFactory();
+
+		MemoryDataSource.startEmpire(Note.class);
+
+		// the journal loads the classes of the models it replays through the Play! classloader
+		Play.applicationPath = new File(".");
+		Play.classes = new ApplicationClasses();
+		Play.javaPath = new ArrayList<VirtualFile>();
+		Play.classloader = new ApplicationClassloader();
+	}
+
+	@AfterClass
+	public static void stopDatabases() {
+		MemoryDataSource.stopEmpire();
+
+		Play.classloader = null;
+
+		JPA.entityManagerFactory.close();
+		JPA.entityManagerFactory = null;
+	}
+
+	@Before
+	public void createExecutor() {
+		MemoryDataSource.INSTANCE.clear();
+		SyncScheduler.reset();
+
+		mExecutor = new ScheduledThreadPoolExecutor(1);
+		JobsPlugin.executor = mExecutor;
+	}
+
+	@After
+	public void clearJournal() {
+		SyncScheduler.reset();
+
+		mExecutor.shutdownNow();
+		JobsPlugin.executor = null;
+
+		JPAPlugin.startTx(false);
+		JPA.em().createQuery("delete from SyncLogEntry").executeUpdate();
+		JPAPlugin.closeTx(false);
+	}
+
+	@Test
+	public void testWritesAreAppliedAfterTheCommit() {
+		Note aNote = save("urn:test:applied", "applied");
+
+		// the rdf write waits in the journal until the invocation applies it
+		assertEquals(1, countJournal());
+		assertFalse(MemoryDataSource.INSTANCE.contains(FACTORY.createURI(aNote.rdfid), TEXT, FACTORY.createLiteral("applied")));
+
+		CommitJournal.apply();
+
+		assertTrue(MemoryDataSource.INSTANCE.contains(FACTORY.createURI(aNote.rdfid), TEXT, FACTORY.createLiteral("applied")));
+		assertEquals(0, countJournal());
+		assertEquals(0, mExecutor.getQueue().size());
+	}
+
+	@Test
+	public void testFailedWritesAreLeftForTheSyncJob() {
+		Note aNote = save("urn:test:failed", "failed");
+
+		MemoryDataSource.INSTANCE.setFailing(true);
+
+		CommitJournal.apply();
+
+		// the entry is kept, and a replay scheduled
+		assertFalse(MemoryDataSource.INSTANCE.contains(FACTORY.createURI(aNote.rdfid), TEXT, FACTORY.createLiteral("failed")));
+		assertEquals(1, countJournal());
+		assertEquals(1, mExecutor.getQueue().size());
+
+		// the invocation has handed its writes over, applying again does nothing
+		MemoryDataSource.INSTANCE.setFailing(false);
+
+		CommitJournal.apply();
+
+		assertFalse(MemoryDataSource.INSTANCE.contains(FACTORY.createURI(aNote.rdfid), TEXT, FACTORY.createLiteral("failed")));
+		assertEquals(1, countJournal());
+	}
+
+	@Test
+	public void testDiscardedWritesAreNotApplied() {
+		Note aNote = save("urn:test:discarded", "discarded");
+
+		CommitJournal.discard();
+		CommitJournal.apply();
+
+		assertFalse(MemoryDataSource.INSTANCE.contains(FACTORY.createURI(aNote.rdfid), TEXT, FACTORY.createLiteral("discarded")));
+		assertEquals(0, mExecutor.getQueue().size());
+	}
+
+	@Test
+	public void testNothingPrepared() {
+		CommitJournal.apply();
+
+		assertEquals(0, countJournal());
+		assertEquals(0, mExecutor.getQueue().size());
+	}
+
+	/**
+	 * Save a note, and journal its rdf write, in a JPA transaction of its own, as RdfModel does during an invocation
+	 * @param theRdfId the rdf:ID of the note
+	 * @param theText the text of the note
+	 * @return the note
+	 */
+	private static Note save(final String theRdfId, final String theText) {
+		Note aNote = new Note();
+		aNote.rdfid = theRdfId;
+		aNote.text = theText;
+
+		JPAPlugin.startTx(false);
+
+		JPA.em().persist(aNote);
+		CommitJournal.prepare(aNote, SyncLogEntry.Operation.SAVE);
+
+		JPAPlugin.closeTx(false);
+
+		return aNote;
+	}
+
+	private static long countJournal() {
+		JPAPlugin.startTx(true);
+
+		try {
+			return ((Number) JPA.em().createQuery("select count(e) from SyncLogEntry e").getSingleResult()).longValue();
+		}
+		finally {
+			JPAPlugin.closeTx(true);
+		}
+	}
+
+	@Entity
+	@Table(name = "note")
+	@RdfsClass("http://example.org/test#Note")
+	public static class Note extends RdfModel {
+
+		@RdfProperty("http://example.org/test#text")
+		public String text;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import org.junit.Test;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Tests of {@link DigestTree}.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class DigestTreeTest {
+
+	private static final int BUCKETS = 16;
+
+	private static final ValueFactory FACTORY = new ValueFactoryImpl();
+
+	private static final URI NAME = FACTORY.createURI("urn:test:name");
+
+	private static final URI KNOWS = FACTORY.createURI("urn:test:knows");
+
+	@Test
+	public void testSameEntitiesDoNotDiffer() {
+		DigestTree aFirst = new DigestTree(BUCKETS);
+		DigestTree aSecond = new DigestTree(BUCKETS);
+
+		for (int i = 0; i < 100; i++) {
+			aFirst.add(id(i), entity(i, "name " + i));
+		}
+
+		// the order the entities, and their statements, are added in does not matter
+		for (int i = 99; i >= 0; i--) {
+			List<Statement> aStatements = Lists.newArrayList(entity(i, "name " + i));
+			Collections.reverse(aStatements);
+
+			aSecond.add(id(i), aStatements);
+		}
+
+		assertEquals(100, aFirst.size());
+		assertEquals(100, aSecond.size());
+		assertTrue(aFirst.diff(aSecond).isEmpty());
+	}
+
+	@Test
+	public void testChangedEntityIsFound() {
+		DigestTree aRelational = new DigestTree(BUCKETS);
+		DigestTree aRdf = new DigestTree(BUCKETS);
+
+		for (int i = 0; i < 100; i++) {
+			aRelational.add(id(i), entity(i, "name " + i));
+			aRdf.add(id(i), entity(i, i == 42 ? "changed" : "name " + i));
+		}
+
+		BitSet aDivergent = aRelational.diff(aRdf);
+
+		assertEquals(1, aDivergent.cardinality());
+
+		// the second pass only records the entities of the divergent bucket
+		aRelational = new DigestTree(BUCKETS, aDivergent);
+		aRdf = new DigestTree(BUCKETS, aDivergent);
+
+		for (int i = 0; i < 100; i++) {
+			aRelational.add(id(i), entity(i, "name " + i));
+			aRdf.add(id(i), entity(i, i == 42 ? "changed" : "name " + i));
+		}
+
+		assertTrue(aRelational.tracks(id(42)));
+		assertTrue(aRelational.entities().size() < 100);
+		assertEquals(aRelational.entities().keySet(), aRdf.entities().keySet());
+
+		for (String aId : aRelational.entities().keySet()) {
+			assertEquals(aId.equals(id(42)), !aRelational.entities().get(aId).equals(aRdf.entities().get(aId)));
+		}
+	}
+
+	@Test
+	public void testMissingEntityIsFound() {
+		DigestTree aRelational = new DigestTree(BUCKETS);
+		DigestTree aRdf = new DigestTree(BUCKETS);
+
+		for (int i = 0; i < 10; i++) {
+			aRelational.add(id(i), entity(i, "name " + i));
+
+			if (i != 3) {
+				aRdf.add(id(i), entity(i, "name " + i));
+			}
+		}
+
+		assertEquals(10, aRelational.size());
+		assertEquals(9, aRdf.size());
+		assertEquals(1, aRelational.diff(aRdf).cardinality());
+	}
+
+	@Test
+	public void testBlankNodesAreAlike() {
+		Resource aSubject = FACTORY.createURI(id(1));
+
+		Collection<Statement> aFirst = Collections.singleton(FACTORY.createStatement(aSubject, KNOWS, FACTORY.createBNode("a")));
+		Collection<Statement> aSecond = Collections.singleton(FACTORY.createStatement(aSubject, KNOWS, FACTORY.createBNode("b")));
+
+		assertEquals(DigestTree.digest(aFirst), DigestTree.digest(aSecond));
+	}
+
+	@Test
+	public void testLiteralDatatypeCounts() {
+		Resource aSubject = FACTORY.createURI(id(1));
+
+		Collection<Statement> aPlain = Collections.singleton(FACTORY.createStatement(aSubject, NAME, FACTORY.createLiteral("1")));
+		Collection<Statement> aTyped = Collections.singleton(FACTORY.createStatement(aSubject, NAME, FACTORY.createLiteral(1)));
+
+		assertFalse(DigestTree.digest(aPlain) == DigestTree.digest(aTyped));
+	}
+
+	@Test
+	public void testOnlyStatementsAboutTheEntityCount() {
+		DigestTree aFirst = new DigestTree(BUCKETS);
+		DigestTree aSecond = new DigestTree(BUCKETS);
+
+		List<Statement> aStatements = Lists.newArrayList(entity(1, "name"));
+		aStatements.add(statement(2, NAME, FACTORY.createLiteral("someone else")));
+
+		aFirst.add(id(1), entity(1, "name"));
+		aSecond.add(id(1), aStatements);
+
+		assertTrue(aFirst.diff(aSecond).isEmpty());
+
+		// an entity with no statements of its own is the same as one which is not there
+		aSecond.add(id(3), Collections.singleton(statement(2, NAME, FACTORY.createLiteral("other"))));
+		aSecond.add(id(4), null);
+
+		assertEquals(1, aSecond.size());
+		assertTrue(aFirst.diff(aSecond).isEmpty());
+	}
+
+	private static String id(final int theIndex) {
+		return "urn:test:entity:" + theIndex;
+	}
+
+	private static Statement statement(final int theIndex, final URI theProperty, final Value theValue) {
+		return FACTORY.createStatement(FACTORY.createURI(id(theIndex)), theProperty, theValue);
+	}
+
+	private static Collection<Statement> entity(final int theIndex, final String theName) {
+		List<Statement> aStatements = Lists.newArrayList();
+
+		aStatements.add(statement(theIndex, NAME, FACTORY.createLiteral(theName)));
+		aStatements.add(statement(theIndex, KNOWS, FACTORY.createURI(id(theIndex + 1))));
+
+		return aStatements;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import org.junit.Test;
+
+import com.clarkparsia.play.imperium.models.SyncCheckpoint;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Tests of the totals and completion estimate of {@link SyncProgress}.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class SyncProgressTest {
+
+	private static final double DELTA = 0.0001;
+
+	@Test
+	public void testTotalsAreSummed() {
+		Date aStarted = new Date(System.currentTimeMillis() - 10 * 1000);
+		Date aFirstUpdate = new Date(aStarted.getTime() + 2000);
+		Date aLastUpdate = new Date(aStarted.getTime() + 5000);
+
+		SyncProgress aProgress = new SyncProgress(Arrays.asList(checkpoint(aStarted, aFirstUpdate, 100, 100, true),
+																checkpoint(aStarted, aLastUpdate, 50, 300, false),
+																checkpoint(aStarted, null, 0, 0, false)));
+
+		assertEquals("run", aProgress.getRunId());
+		assertEquals(aStarted, aProgress.getStarted());
+		assertEquals(aLastUpdate, aProgress.getUpdated());
+		assertEquals(150, aProgress.getSynced());
+		assertEquals(400, aProgress.getTotal());
+		assertEquals(0.375, aProgress.getFraction(), DELTA);
+		assertFalse(aProgress.isCompleted());
+	}
+
+	@Test
+	public void testEstimateFollowsTheRate() {
+		long aNow = System.currentTimeMillis();
+
+		// 100 rows in 10 seconds, 200 left to copy
+		Date aStarted = new Date(aNow - 10 * 1000);
+
+		SyncProgress aProgress = new SyncProgress(Arrays.asList(checkpoint(aStarted, new Date(aNow), 100, 300, false)));
+
+		long aEta = aProgress.getEstimatedCompletion().getTime();
+
+		assertTrue(aEta >= aNow + 20 * 1000);
+		assertTrue(aEta <= System.currentTimeMillis() + 20 * 1000);
+	}
+
+	@Test
+	public void testNoEstimateBeforeAnyProgress() {
+		Date aStarted = new Date();
+
+		assertNull(new SyncProgress(Arrays.asList(checkpoint(aStarted, null, 0, 300, false))).getEstimatedCompletion());
+		assertNull(new SyncProgress(Arrays.asList(checkpoint(aStarted, aStarted, 0, 300, false))).getEstimatedCompletion());
+		assertEquals(0, new SyncProgress(Arrays.asList(checkpoint(aStarted, null, 0, 0, false))).getFraction(), DELTA);
+	}
+
+	@Test
+	public void testCompletedRun() {
+		Date aStarted = new Date(System.currentTimeMillis() - 60 * 1000);
+		Date aFinished = new Date(aStarted.getTime() + 30 * 1000);
+
+		// rows added while the run was copying can make it copy more than it counted at the start
+		SyncProgress aProgress = new SyncProgress(Arrays.asList(checkpoint(aStarted, aFinished, 120, 100, true),
+																checkpoint(aStarted, aStarted, 0, 0, true)));
+
+		assertTrue(aProgress.isCompleted());
+		assertEquals(1, aProgress.getFraction(), DELTA);
+		assertEquals(aFinished, aProgress.getEstimatedCompletion());
+	}
+
+	private static SyncCheckpoint checkpoint(final Date theStarted, final Date theUpdated, final long theSynced,
+											 final long theTotal, final boolean theCompleted) {
+		SyncCheckpoint aCheckpoint = new SyncCheckpoint();
+
+		aCheckpoint.runId = "run";
+		aCheckpoint.entityClass = "models.Model" + theTotal;
+		aCheckpoint.started = theStarted;
+		aCheckpoint.updated = theUpdated;
+		aCheckpoint.synced = theSynced;
+		aCheckpoint.total = theTotal;
+		aCheckpoint.completed = theCompleted;
+
+		return aCheckpoint;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarkparsia.play.imperium.jobs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import play.jobs.JobsPlugin;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Tests of the scheduling and backoff of outbox replays by the {@link SyncScheduler}, with the default
+ * configuration: a one minute delay and minimum interval, a thirty minute maximum delay, and 20% jitter.  The
+ * replays are scheduled on an executor which is shut down before any of them would start.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class SyncSchedulerTest {
+
+	private static final long DELAY = 60 * 1000;
+
+	private static final long MAX_DELAY = 30 * 60 * 1000;
+
+	private ScheduledThreadPoolExecutor mExecutor;
+
+	@Before
+	public void createExecutor() {
+		SyncScheduler.reset();
+
+		mExecutor = new ScheduledThreadPoolExecutor(1);
+		JobsPlugin.executor = mExecutor;
+	}
+
+	@After
+	public void shutdownExecutor() {
+		SyncScheduler.reset();
+
+		mExecutor.shutdownNow();
+		JobsPlugin.executor = null;
+	}
+
+	@Test
+	public void testTriggersAreCoalesced() {
+		long aBefore = System.currentTimeMillis();
+
+		SyncScheduler.trigger();
+		SyncScheduler.trigger();
+		SyncScheduler.trigger();
+
+		SyncScheduler.State aState = SyncScheduler.getState();
+
+		assertEquals(3, aState.getPendingTriggers());
+		assertEquals(1, mExecutor.getQueue().size());
+		assertDelay(aBefore, DELAY);
+	}
+
+	@Test
+	public void testFailuresBackOff() {
+		long aExpected = DELAY;
+
+		for (int i = 1; i <= 10; i++) {
+			long aBefore = System.currentTimeMillis();
+
+			SyncScheduler.started();
+			SyncScheduler.finished(i % 2 == 0 ? SyncScheduler.Result.FAILED : SyncScheduler.Result.STORE_UNAVAILABLE);
+
+			aExpected = Math.min(MAX_DELAY, aExpected * 2);
+
+			assertEquals(i, SyncScheduler.getState().getFailureCount());
+			assertDelay(aBefore, aExpected);
+		}
+
+		// the delay stops growing at the maximum
+		assertEquals(MAX_DELAY, aExpected);
+	}
+
+	@Test
+	public void testSuccessResetsBackoff() {
+		SyncScheduler.started();
+		SyncScheduler.finished(SyncScheduler.Result.FAILED);
+		SyncScheduler.started();
+		SyncScheduler.finished(SyncScheduler.Result.FAILED);
+
+		assertEquals(2, SyncScheduler.getState().getFailureCount());
+
+		SyncScheduler.started();
+		SyncScheduler.finished(SyncScheduler.Result.SUCCEEDED);
+
+		SyncScheduler.State aState = SyncScheduler.getState();
+
+		assertEquals(0, aState.getFailureCount());
+		assertEquals(SyncScheduler.Result.SUCCEEDED, aState.getLastResult());
+		assertNotNull(aState.getLastRun());
+
+		// nothing is left to replay, so nothing is scheduled
+		assertNull(aState.getNextRun());
+
+		long aBefore = System.currentTimeMillis();
+
+		SyncScheduler.trigger();
+
+		assertDelay(aBefore, DELAY);
+	}
+
+	@Test
+	public void testSkippedResetsBackoff() {
+		SyncScheduler.started();
+		SyncScheduler.finished(SyncScheduler.Result.FAILED);
+		SyncScheduler.started();
+		SyncScheduler.finished(SyncScheduler.Result.SKIPPED);
+
+		assertEquals(0, SyncScheduler.getState().getFailureCount());
+		assertNull(SyncScheduler.getState().getNextRun());
+	}
+
+	@Test
+	public void testResetForgetsTheSchedule() {
+		SyncScheduler.trigger();
+
+		assertNotNull(SyncScheduler.getState().getNextRun());
+
+		SyncScheduler.reset();
+
+		SyncScheduler.State aState = SyncScheduler.getState();
+
+		assertNull(aState.getNextRun());
+		assertNull(aState.getLastRun());
+		assertEquals(0, aState.getPendingTriggers());
+
+		// the next request schedules a replay again
+		SyncScheduler.trigger();
+
+		assertNotNull(SyncScheduler.getState().getNextRun());
+	}
+
+	/**
+	 * Check that the next replay is scheduled the expected delay, plus at most 20% jitter, after a point in time
+	 * @param theFrom when the replay was scheduled, or just before
+	 * @param theDelay the delay expected before jitter
+	 */
+	private static void assertDelay(final long theFrom, final long theDelay) {
+		long aNextRun = SyncScheduler.getState().getNextRun().getTime();
+
+		assertTrue("replay scheduled too soon", aNextRun >= theFrom + theDelay);
+		assertTrue("replay scheduled too late", aNextRun <= System.currentTimeMillis() + theDelay + theDelay / 5);
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009-2011 Clark & Parsia, LLC. <http://www.clarkparsia.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.clarkparsia.play.imperium.models;
+
+import org.hibernate.ejb.Ejb3Configuration;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import play.db.jpa.JPA;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Tests of {@link SyncLease} against an in-memory H2 database.</p>
+ *
+ * @author Michael Grove
+ * @since 0.2
+ * @version 0.2
+ */
+public class SyncLeaseTest {
+
+	private static final long TTL = 60 * 1000;
+
+	@BeforeClass
+	public static void startDatabase() {
+		Ejb3Configuration aConfig = new Ejb3Configuration();
+
+		aConfig.addAnnotatedClass(SyncLease.class);
+		aConfig.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+		aConfig.setProperty("hibernate.connection.url", "jdbc:h2:mem:imperium-lease;DB_CLOSE_DELAY=-1");
+		aConfig.setProperty("hibernate.connection.username", "sa");
+		aConfig.setProperty("hibernate.connection.password", "");
+		aConfig.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+		aConfig.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+
+		JPA.entityManagerFactory = aConfig.buildEntityManagerFactory();
+	}
+
+	@AfterClass
+	public static void stopDatabase() {
+		JPA.entityManagerFactory.close();
+		JPA.entityManagerFactory = null;
+	}
+
+	@Test
+	public void testAcquireIsExclusive() {
+		assertTrue(SyncLease.acquire("exclusive", "a", TTL, false));
+		assertFalse(SyncLease.acquire("exclusive", "b", TTL, false));
+
+		// the holder can take it again
+		assertTrue(SyncLease.acquire("exclusive", "a", TTL, false));
+	}
+
+	@Test
+	public void testReleaseFreesTheLease() {
+		assertTrue(SyncLease.acquire("release", "a", TTL, false));
+
+		// only the holder can release it
+		SyncLease.release("release", "b");
+		assertFalse(SyncLease.acquire("release", "b", TTL, false));
+
+		assertFalse(SyncLease.release("release", "a"));
+		assertTrue(SyncLease.acquire("release", "b", TTL, false));
+	}
+
+	@Test
+	public void testRenewOnlyByHolder() {
+		assertTrue(SyncLease.acquire("renew", "a", TTL, false));
+
+		assertTrue(SyncLease.renew("renew", "a", TTL));
+		assertFalse(SyncLease.renew("renew", "b", TTL));
+	}
+
+	@Test
+	public void testExpiredLeaseCanBeTaken() throws Exception {
+		assertTrue(SyncLease.acquire("expired", "a", 1, false));
+
+		Thread.sleep(50);
+
+		assertTrue(SyncLease.acquire("expired", "b", TTL, false));
+		assertFalse(SyncLease.renew("expired", "a", TTL));
+	}
+
+	@Test
+	public void testTriggeredOnly() {
+		assertFalse(SyncLease.acquire("trigger", "a", TTL, true));
+
+		SyncLease.trigger("trigger");
+		SyncLease.trigger("trigger");
+
+		// taking the lease consumes the trigger, however many times it was made
+		assertTrue(SyncLease.acquire("trigger", "a", TTL, true));
+		assertFalse(SyncLease.release("trigger", "a"));
+		assertFalse(SyncLease.acquire("trigger", "a", TTL, true));
+	}
+
+	@Test
+	public void testTriggerWhileHeld() {
+		assertTrue(SyncLease.acquire("held", "a", TTL, false));
+
+		SyncLease.trigger("held");
+
+		// the holder is told to run again
+		assertTrue(SyncLease.release("held", "a"));
+		assertTrue(SyncLease.acquire("held", "b", TTL, true));
+	}
+}